@@ -0,0 +1,266 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A small measurement harness for the benchmarks in this folder, modelled on JMH. The project is
+ * built by Eclipse from its .classpath and has no Maven or Gradle build to pull JMH in, so the
+ * parts of JMH that keep results honest are done here instead:
+ * <ul>
+ * <li>each benchmark runs in its own forked JVM, so the profile one benchmark leaves behind, such
+ * as a call site made megamorphic by the operations before it, cannot slow down the next,</li>
+ * <li>timed warmup iterations are run and thrown away before the measured ones,</li>
+ * <li>every result is passed to {@link #consume(double)}, which like JMH's Blackhole the JIT can
+ * neither prove unused nor fold away.</li>
+ * </ul>
+ * For every benchmark it reports
+ * <ul>
+ * <li>throughput in operations per second,</li>
+ * <li>average time per operation in nanoseconds,</li>
+ * <li>bytes allocated per operation and the allocation rate in MB/s, the same figures JMH prints
+ * as gc.alloc.rate.norm and gc.alloc.rate with {@code -prof gc}.</li>
+ * </ul>
+ * 
+ * The harness is configured with system properties:
+ * <ul>
+ * <li>{@code bench.warmup} number of warmup iterations, default 3</li>
+ * <li>{@code bench.iterations} number of measurement iterations, default 5</li>
+ * <li>{@code bench.time} length of each iteration in milliseconds, default 1000</li>
+ * <li>{@code bench.filter} only run benchmarks whose name contains this text</li>
+ * <li>{@code bench.forks} number of forked JVMs per benchmark, whose results are added up,
+ * default 1, 0 measures in the benchmark's own JVM</li>
+ * </ul>
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public final class Benchmark {
+
+	private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+	private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+	private static final long TIME = Long.getLong("bench.time", 1000) * 1_000_000;
+	private static final String FILTER = System.getProperty("bench.filter", "");
+	private static final int FORKS = Integer.getInteger("bench.forks", 1);
+
+	// Set in a forked JVM to the only benchmark it measures
+	private static final String FORK = System.getProperty("bench.fork");
+
+	// Prefix of the line a forked JVM reports its raw results on
+	private static final String RESULT = "bench.result ";
+
+	// Operations between clock reads, so reading the clock does not dominate short operations
+	private static final int BATCH = 64;
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	// Compared with every consumed value, never both equal to it, so the comparison cannot be skipped
+	private static volatile double first = 1;
+	private static volatile double second = 2;
+
+	// Only written when a value equals both of the above, which never happens
+	private static volatile double sink;
+
+
+	private Benchmark() {
+	}
+
+
+	/**
+	 * Prints the column headings of {@link #run(String, DoubleSupplier)}.
+	 */
+
+	public static void printHeader() {
+
+		// The parent JVM prints the results of forked ones
+		if ( FORK != null ) {
+			return;
+		}
+
+		System.out.printf("%-40s %14s %12s %12s %12s%n", "Benchmark", "ops/s", "ns/op", "B/op", "MB/s");
+	}
+
+
+	/**
+	 * Measures the operation and prints one line of results, unless it is excluded by {@code bench.filter}.
+	 * @param name Name of the benchmark
+	 * @param operation Operation to be measured, its result is consumed so it is not optimized away
+	 */
+
+	public static void run( String name, DoubleSupplier operation ) {
+
+		if ( FORK != null ) {
+			if ( name.equals(FORK) ) {
+				long[] result = measure(operation);
+				System.out.println(RESULT + result[0] + " " + result[1] + " " + result[2]);
+			}
+			return;
+		}
+
+		if ( !name.contains(FILTER) ) {
+			return;
+		}
+
+		// Without the launch command there is nothing to fork, such as when started from a native image
+		long[] result = FORKS > 0 && System.getProperty("sun.java.command") != null ? fork(name) : measure(operation);
+		long operations = result[0];
+		long nanos = result[1];
+		long bytes = result[2];
+		double seconds = nanos / 1e9;
+
+		System.out.printf("%-40s %14.0f %12.1f %12.1f %12.1f%n", name, operations / seconds, (double) nanos / operations,
+				(double) bytes / operations, bytes / seconds / (1024 * 1024));
+	}
+
+
+	/**
+	 * Measures one operation repeatedly for a fixed number of calls and returns the average time
+	 * per call in nanoseconds, for quick comparisons inside a benchmark.
+	 * @param operation Operation to be measured
+	 * @param calls Number of calls to time, after the same number of warmup calls
+	 * @return The average time per call in nanoseconds.
+	 */
+
+	public static double averageNanos( DoubleSupplier operation, int calls ) {
+
+		for ( int i = 0; i < calls; i++ ) {
+			consume(operation.getAsDouble());
+		}
+
+		long start = System.nanoTime();
+
+		for ( int i = 0; i < calls; i++ ) {
+			consume(operation.getAsDouble());
+		}
+
+		return (double) (System.nanoTime() - start) / calls;
+	}
+
+
+	/**
+	 * Uses up a result so that the JIT keeps the code computing it, as JMH's Blackhole does.
+	 * @param value Result of a measured operation
+	 */
+
+	public static void consume( double value ) {
+
+		// Both reads are volatile, so the JIT cannot know the outcome and must compute the value
+		if ( value == first & value == second ) {
+			sink = value;
+		}
+	}
+
+
+	// Runs the warmup and the measurement iterations, returning the operations, nanoseconds and bytes allocated
+	private static long[] measure( DoubleSupplier operation ) {
+
+		for ( int i = 0; i < WARMUP; i++ ) {
+			iteration(operation);
+		}
+
+		long[] total = new long[3];
+
+		for ( int i = 0; i < ITERATIONS; i++ ) {
+			add(total, iteration(operation));
+		}
+
+		return total;
+	}
+
+
+	/**
+	 * Measures one benchmark in fresh JVMs started with the same command line, options and class
+	 * path as this one, adding up their results.
+	 * @param name Benchmark the forked JVMs measure
+	 * @return The operations, nanoseconds and bytes allocated over all forks.
+	 */
+
+	private static long[] fork( String name ) {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("-Dbench.fork=" + name);
+
+		// The main class and its arguments, or the jar and its arguments
+		String[] launch = System.getProperty("sun.java.command").split(" ");
+
+		if ( launch[0].endsWith(".jar") ) {
+			command.add("-jar");
+		}
+
+		command.addAll(Arrays.asList(launch));
+
+		long[] total = new long[3];
+
+		for ( int i = 0; i < FORKS; i++ ) {
+			try {
+				Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+				String line;
+
+				try ( BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream())) ) {
+					while ( (line = output.readLine()) != null ) {
+						if ( line.startsWith(RESULT) ) {
+							add(total, Arrays.stream(line.substring(RESULT.length()).split(" ")).mapToLong(Long::parseLong).toArray());
+						}
+					}
+				}
+
+				if ( process.waitFor() != 0 ) {
+					throw new IllegalStateException("Forked JVM for " + name + " exited with " + process.exitValue() + ".");
+				}
+
+			} catch ( IOException e ) {
+				throw new IllegalStateException("Could not fork a JVM for " + name + ".", e);
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while measuring " + name + ".", e);
+			}
+		}
+
+		if ( total[0] == 0 ) {
+			throw new IllegalStateException("Forked JVM did not measure " + name + ".");
+		}
+
+		return total;
+	}
+
+
+	private static void add( long[] total, long[] result ) {
+		for ( int i = 0; i < total.length; i++ ) {
+			total[i] += result[i];
+		}
+	}
+
+
+	// Runs the operation for one iteration, returning the operations, nanoseconds and bytes allocated
+	private static long[] iteration( DoubleSupplier operation ) {
+		long thread = Thread.currentThread().getId();
+		long operations = 0;
+		long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long now;
+
+		do {
+			for ( int i = 0; i < BATCH; i++ ) {
+				consume(operation.getAsDouble());
+			}
+			operations += BATCH;
+			now = System.nanoTime();
+		} while ( now - start < TIME );
+
+		long bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+		return new long[] { operations, now - start, bytes };
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Compares evaluating a compiled expression in a tight loop three ways: the interpreter running
+ * the postfix program, the bytecode from {@link CompiledExpression#toFunction()}, and the same
+ * formula written by hand in Java with the calculator's methods.
+ *
+ * Run the main method, see {@link Benchmark} for the options.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class BytecodeBenchmark {
+
+	private static final String FORMULA = "principal*(1+rate/12)^(12*years) - principal";
+
+
+	public static void main(String[] args) {
+		Calculator calculator = new Calculator();
+		CompiledExpression compiled = calculator.compile(FORMULA);
+		Program program = Optimizer.optimize(Parser.parse(FORMULA), calculator);
+		ExpressionFunction function = compiled.toFunction();
+
+		double[] values = new double[compiled.getVariables().length];
+		double[] stack = new double[program.maxStack];
+		int principal = compiled.slot("principal");
+		int rate = compiled.slot("rate");
+		int years = compiled.slot("years");
+		values[principal] = 1000;
+		values[years] = 10;
+
+		Benchmark.printHeader();
+
+		Benchmark.run("interpreter_1000_rates", () -> {
+			double sum = 0;
+			for ( int i = 0; i < 1000; i++ ) {
+				values[rate] = i * 1e-4;
+				sum += program.execute(calculator, stack, values);
+			}
+			return sum;
+		});
+
+		Benchmark.run("bytecode_1000_rates", () -> {
+			double sum = 0;
+			for ( int i = 0; i < 1000; i++ ) {
+				values[rate] = i * 1e-4;
+				sum += function.eval(values);
+			}
+			return sum;
+		});
+
+		Benchmark.run("hand_written_1000_rates", () -> {
+			double sum = 0;
+			for ( int i = 0; i < 1000; i++ ) {
+				double r = i * 1e-4;
+				double p = values[principal];
+				sum += calculator.minus(calculator.multiply(p, calculator.power(calculator.add(1, calculator.divide(r, 12)),
+						calculator.multiply(12, values[years]))), p);
+			}
+			return sum;
+		});
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks {@link ICalculator#evaluate(String)} on the expression shapes that matter for the
+ * engine: long addition/subtraction chains, long multiplication/division chains, deep parenthesis
+ * nesting, exponent towers, fractional exponents and whitespace-heavy input. The batch benchmarks
+ * compare evaluating a list one expression at a time with {@link ICalculator#evaluateAll(List)}.
+ * 
+ * Run the main method, optionally with the class name of another {@link ICalculator} that has a
+ * no-argument constructor as the first argument to compare it against {@link Calculator}. Record
+ * the output before and after an engine change to compare the two. See {@link Benchmark} for the
+ * options.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class CalculatorBenchmark {
+
+	public static void main(String[] args) throws ReflectiveOperationException {
+		ICalculator calculator = args.length > 0
+				? (ICalculator) Class.forName(args[0]).getDeclaredConstructor().newInstance()
+				: new Calculator();
+
+		System.out.println("Calculator: " + calculator.getClass().getName());
+		Benchmark.printHeader();
+
+		String additions = chain(1000, "+-", "17");
+		String products = chain(1000, "*/", "1.0001");
+		String nesting = nesting(500);
+		String tower = "1.0001^1.0001^1.0001^1.0001^1.0001^1.0001^1.0001^1.0001^2^2";
+		String fractional = "2^0.5 + 27^(1/3) + 4^0.1 + 1000^0.125 + 5^0.2 + 81^0.25";
+		String whitespace = additions.replace("+", "   +   ").replace("-", " -  ");
+		String mixed = "2*((2+(1+3)^2*2+2)^(1/8)+5+(2.5*20/(1+5-5*4)+2)+8/2*7+2--8*(200/5-15*5))";
+
+		Benchmark.run("short_mixed_expression", () -> calculator.evaluate(mixed));
+		Benchmark.run("add_subtract_chain_1000", () -> calculator.evaluate(additions));
+		Benchmark.run("multiply_divide_chain_1000", () -> calculator.evaluate(products));
+		Benchmark.run("nested_parentheses_500", () -> calculator.evaluate(nesting));
+		Benchmark.run("exponent_tower", () -> calculator.evaluate(tower));
+		Benchmark.run("fractional_exponents", () -> calculator.evaluate(fractional));
+		Benchmark.run("whitespace_heavy_chain_1000", () -> calculator.evaluate(whitespace));
+
+		List<String> batch = new ArrayList<>();
+		for ( int i = 0; i < 10000; i++ ) {
+			batch.add(i + "*" + mixed);
+		}
+
+		Benchmark.run("batch_10000_sequential", () -> {
+			double sum = 0;
+			for ( String expression : batch ) {
+				sum += calculator.evaluate(expression);
+			}
+			return sum;
+		});
+		Benchmark.run("batch_10000_evaluate_all", () -> calculator.evaluateAll(batch).get(0).getValue());
+	}
+
+
+	// Builds "number op number op ..." alternating between the two operators
+	static String chain( int terms, String operators, String number ) {
+		StringBuilder expression = new StringBuilder(number);
+
+		for ( int i = 1; i < terms; i++ ) {
+			expression.append(operators.charAt(i % operators.length())).append(number);
+		}
+
+		return expression.toString();
+	}
+
+
+	// Builds "(1+(1+(1+...)))" nested to the given depth
+	static String nesting( int depth ) {
+		StringBuilder expression = new StringBuilder();
+
+		for ( int i = 0; i < depth; i++ ) {
+			expression.append("(1+");
+		}
+
+		expression.append('1');
+
+		for ( int i = 0; i < depth; i++ ) {
+			expression.append(')');
+		}
+
+		return expression.toString();
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Compares evaluating one formula over a million rows three ways: evaluating each row with
+ * bindings, calling the bytecode from {@link CompiledExpression#toFunction()} for each row, and
+ * evaluating all rows at once over columns with {@link CompiledExpression#evaluate(Columns, double[])}.
+ *
+ * Run the main method, see {@link Benchmark} for the options.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class ColumnBenchmark {
+
+	private static final String FORMULA = "exposure * (1 - recovery) * probability / (1 + rate)^2";
+
+	private static final int ROWS = 1_000_000;
+
+
+	public static void main(String[] args) {
+		Calculator calculator = new Calculator();
+		CompiledExpression compiled = calculator.compile(FORMULA);
+		ExpressionFunction function = compiled.toFunction();
+		String[] variables = compiled.getVariables();
+
+		double[][] columns = new double[variables.length][ROWS];
+
+		for ( int slot = 0; slot < variables.length; slot++ ) {
+			for ( int row = 0; row < ROWS; row++ ) {
+				columns[slot][row] = (row % 1000 + slot + 1) * 1e-3;
+			}
+		}
+
+		Bindings bindings = compiled.newBindings();
+		double[] values = new double[variables.length];
+		Columns bound = compiled.newColumns(ROWS);
+		double[] output = new double[ROWS];
+
+		for ( int slot = 0; slot < variables.length; slot++ ) {
+			bound.set(slot, columns[slot]);
+		}
+
+		Benchmark.printHeader();
+
+		Benchmark.run("bindings_per_row", () -> {
+			double sum = 0;
+			for ( int row = 0; row < ROWS; row++ ) {
+				for ( int slot = 0; slot < values.length; slot++ ) {
+					bindings.set(slot, columns[slot][row]);
+				}
+				sum += compiled.evaluate(bindings);
+			}
+			return sum;
+		});
+
+		Benchmark.run("bytecode_per_row", () -> {
+			double sum = 0;
+			for ( int row = 0; row < ROWS; row++ ) {
+				for ( int slot = 0; slot < values.length; slot++ ) {
+					values[slot] = columns[slot][row];
+				}
+				sum += function.eval(values);
+			}
+			return sum;
+		});
+
+		Benchmark.run("columns", () -> {
+			compiled.evaluate(bound, output);
+			return output[ROWS - 1];
+		});
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Compares the latency of fractional exponents through {@link Calculator#fractionalPower(double, double)}
+ * against the previous implementation, which started Newton's method from a guess of 1, recursed
+ * once per step and once per unit of exponent inside each step, and against {@link Math#pow(double, double)}.
+ * 
+ * Run the main method; each case prints the average time per call in nanoseconds.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class FractionalPowerBenchmark {
+
+	private static final double[][] CASES = { {4, 0.5}, {27, 1.0 / 3}, {4, 0.1}, {4, 0.125}, {1e6, 0.5} };
+	private static final int CALLS = 1_000_000;
+
+
+	public static void main(String[] args) {
+		Calculator calculator = new Calculator();
+
+		for ( double[] c : CASES ) {
+			double base = c[0];
+			double fraction = c[1];
+
+			double previous = Benchmark.averageNanos(() -> previousFractionalPower(base, fraction), CALLS);
+			double current = Benchmark.averageNanos(() -> calculator.fractionalPower(base, fraction), CALLS);
+			double library = Benchmark.averageNanos(() -> Math.pow(base, fraction), CALLS);
+
+			System.out.printf("%10s^%-8.4f previous %9.1f ns   current %7.1f ns   Math.pow %7.1f ns%n",
+					base, fraction, previous, current, library);
+		}
+	}
+
+
+	// The root finder as it was before, kept here as the baseline
+	private static double previousFractionalPower( double base, double fraction ) {
+		return previousNthRoot(base, 1 / fraction, 1);
+	}
+
+
+	private static double previousNthRoot( double base, double n, double guess ) {
+		double newGuess = (1/n)*((n-1) * guess + base / previousPower(guess,n-1));
+
+		if ( (newGuess-guess)*(newGuess-guess) < 0.000000001) {
+			return newGuess;
+		}
+		return previousNthRoot(base, n, newGuess);
+	}
+
+
+	private static double previousPower( double base, double exponent ) {
+
+		if ( exponent == 0 ) {
+			return 1;
+		}
+
+		if ( exponent%1 != 0) {
+			return previousPower(base,exponent-exponent%1) * previousFractionalPower( base, exponent%1 );
+		}
+
+		return base * previousPower(base, exponent - 1);
+	}
+
+}
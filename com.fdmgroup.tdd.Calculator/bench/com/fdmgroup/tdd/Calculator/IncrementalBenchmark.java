@@ -0,0 +1,43 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Compares evaluating a long formula after a one character edit with
+ * {@link IncrementalExpression#evaluate()} against evaluating the whole text again with
+ * {@link Calculator#evaluate(String)}, as an interactive console would on every keystroke.
+ *
+ * Run the main method, see {@link Benchmark} for the options.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class IncrementalBenchmark {
+
+	public static void main(String[] args) {
+		Calculator calculator = new Calculator();
+
+		// 200 groups such as "(12.5*3-4/8)" added together
+		StringBuilder formula = new StringBuilder();
+		for ( int i = 0; i < 200; i++ ) {
+			formula.append(i == 0 ? "" : "+").append("(").append(i).append(".5*3-4/8)");
+		}
+
+		String text = formula.toString();
+		int digit = text.indexOf("(100.5") + 1;
+		IncrementalExpression expression = calculator.incremental(text);
+		boolean[] one = { true };
+
+		Benchmark.printHeader();
+
+		Benchmark.run("full_evaluate_after_edit", () -> {
+			return calculator.evaluate(text);
+		});
+
+		Benchmark.run("incremental_evaluate_after_edit", () -> {
+			one[0] = !one[0];
+			expression.edit(digit, 1, one[0] ? "1" : "2");
+			return expression.evaluate();
+		});
+	}
+
+}
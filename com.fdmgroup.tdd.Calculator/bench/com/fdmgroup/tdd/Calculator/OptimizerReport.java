@@ -0,0 +1,46 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Prints how many nodes the {@link Optimizer} removes from each expression, the number of
+ * operands and operators before and after folding constants and removing identities, and how
+ * many repeated operators {@link CommonSubexpressions} collapses.
+ *
+ * Usage: {@code java com.fdmgroup.tdd.Calculator.OptimizerReport [expression...]}, without
+ * arguments a fixed set of examples is reported.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class OptimizerReport {
+
+	private static final String[] EXAMPLES = {
+			"x*1", "1*x", "x/1", "x^1", "x-0", "0+x", "(2*3)*x", "((((x))))*((2))",
+			"x*2*4*8", "2*x*0.5", "-(2^10)*y+3*4", "((1+3)+4*6+(7*8)-(4-(8*3)))*8",
+			"principal*(1+rate/12)^(12*years)", "(a+b)^2/(a+b)", "(x*x+1)*(x*x+1)-x*x" };
+
+
+	public static void main(String[] args) {
+		Calculator calculator = new Calculator();
+		String[] expressions = args.length > 0 ? args : EXAMPLES;
+		long before = 0;
+		long after = 0;
+		long collapsed = 0;
+
+		System.out.printf("%-40s %8s %8s %8s %9s%n", "Expression", "Before", "After", "Removed", "Collapsed");
+
+		for ( String expression : expressions ) {
+			CompiledExpression compiled = calculator.compile(expression);
+			before += compiled.getOriginalNodeCount();
+			after += compiled.getNodeCount();
+			collapsed += compiled.getCollapsedNodeCount();
+
+			System.out.printf("%-40s %8d %8d %8d %9d%n", expression, compiled.getOriginalNodeCount(),
+					compiled.getNodeCount(), compiled.getOriginalNodeCount() - compiled.getNodeCount(),
+					compiled.getCollapsedNodeCount());
+		}
+
+		System.out.printf("%-40s %8d %8d %8d %9d%n", "Total", before, after, before - after, collapsed);
+	}
+
+}
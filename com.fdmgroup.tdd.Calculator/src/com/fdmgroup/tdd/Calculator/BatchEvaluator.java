@@ -0,0 +1,83 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates a list of independent expressions on a fork/join pool. The list is split in halves
+ * until each piece is small enough to be worth a task of its own, so idle workers can steal the
+ * remaining pieces. Results are written into an array by index, which keeps them in input order.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class BatchEvaluator {
+
+	// Each worker gets around this many pieces, enough to even out pieces that take longer
+	private static final int PIECES_PER_WORKER = 8;
+
+
+	private BatchEvaluator() {
+	}
+
+
+	/**
+	 * Evaluates every expression of the list.
+	 * @param calculator Calculator used to evaluate the expressions, must be safe to share between threads
+	 * @param expressions Mathematical expressions to be evaluated
+	 * @param pool Pool that runs the evaluation
+	 * @return The result of each expression, in the same order as the input.
+	 */
+
+	static List<Result> evaluateAll( ICalculator calculator, List<String> expressions, ForkJoinPool pool ) {
+		String[] input = expressions.toArray(new String[0]);
+		Result[] output = new Result[input.length];
+		int threshold = Math.max(1, input.length / (pool.getParallelism() * PIECES_PER_WORKER));
+
+		pool.invoke(new Piece(calculator, input, output, 0, input.length, threshold));
+
+		return Arrays.asList(output);
+	}
+
+
+	// Evaluates the expressions from start (inclusive) to end (exclusive)
+	private static final class Piece extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ICalculator calculator;
+		private final String[] input;
+		private final Result[] output;
+		private final int start;
+		private final int end;
+		private final int threshold;
+
+		Piece( ICalculator calculator, String[] input, Result[] output, int start, int end, int threshold ) {
+			this.calculator = calculator;
+			this.input = input;
+			this.output = output;
+			this.start = start;
+			this.end = end;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+
+			if ( end - start <= threshold ) {
+				for ( int i = start; i < end; i++ ) {
+					output[i] = Result.of(calculator, input[i]);
+				}
+				return;
+			}
+
+			int middle = (start + end) >>> 1;
+			invokeAll(new Piece(calculator, input, output, start, middle, threshold),
+					new Piece(calculator, input, output, middle, end, threshold));
+		}
+	}
+
+}
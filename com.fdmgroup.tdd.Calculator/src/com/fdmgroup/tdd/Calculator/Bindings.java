@@ -0,0 +1,65 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Holds the values of the variables of one {@link CompiledExpression}, together with the working
+ * space needed to evaluate it. Values are stored in a primitive array indexed by the slots returned
+ * from {@link CompiledExpression#slot(String)}, so setting a value and evaluating again creates no
+ * objects at all. Every variable starts at zero.
+ * 
+ * Bindings are not thread-safe. Each thread evaluating the same expression should use its own
+ * bindings from {@link CompiledExpression#newBindings()}.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public final class Bindings {
+
+	final CompiledExpression owner;
+	final double[] values;
+	final double[] stack;
+
+
+	Bindings( CompiledExpression owner, int variables, int stackSize ) {
+		this.owner = owner;
+		this.values = new double[variables];
+		this.stack = new double[stackSize];
+	}
+
+
+	/**
+	 * Sets the value of the variable in the given slot.
+	 * @param slot Slot of the variable
+	 * @param value New value of the variable
+	 * @return These bindings, so that calls can be chained.
+	 */
+
+	public Bindings set( int slot, double value ) {
+		values[slot] = value;
+		return this;
+	}
+
+
+	/**
+	 * Sets the value of a variable by name. Prefer {@link #set(int, double)} in loops.
+	 * @param name Name of the variable
+	 * @param value New value of the variable
+	 * @return These bindings, so that calls can be chained.
+	 * @throws IllegalArgumentException If the expression has no variable with this name.
+	 */
+
+	public Bindings set( String name, double value ) {
+		return set(owner.slot(name), value);
+	}
+
+
+	/**
+	 * @param slot Slot of the variable
+	 * @return The current value of the variable in the given slot.
+	 */
+
+	public double get( int slot ) {
+		return values[slot];
+	}
+
+}
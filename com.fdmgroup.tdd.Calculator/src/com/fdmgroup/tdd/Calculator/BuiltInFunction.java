@@ -0,0 +1,167 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The functions every calculator knows. Each one is a single call to a {@link Math} method,
+ * which HotSpot replaces with a hardware instruction or a tuned stub where it has one (sqrt, abs,
+ * floor, ceil, min, max, exp, ln, log10, sin, cos, tan and others), and the
+ * {@link BytecodeCompiler} calls that method directly.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+enum BuiltInFunction implements MathFunction {
+
+	SQRT("sqrt", "sqrt", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.sqrt(arguments[offset]);
+		}
+	},
+	CBRT("cbrt", "cbrt", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.cbrt(arguments[offset]);
+		}
+	},
+	EXP("exp", "exp", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.exp(arguments[offset]);
+		}
+	},
+	LN("ln", "log", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.log(arguments[offset]);
+		}
+	},
+	LOG10("log10", "log10", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.log10(arguments[offset]);
+		}
+	},
+	SIN("sin", "sin", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.sin(arguments[offset]);
+		}
+	},
+	COS("cos", "cos", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.cos(arguments[offset]);
+		}
+	},
+	TAN("tan", "tan", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.tan(arguments[offset]);
+		}
+	},
+	ASIN("asin", "asin", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.asin(arguments[offset]);
+		}
+	},
+	ACOS("acos", "acos", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.acos(arguments[offset]);
+		}
+	},
+	ATAN("atan", "atan", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.atan(arguments[offset]);
+		}
+	},
+	SINH("sinh", "sinh", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.sinh(arguments[offset]);
+		}
+	},
+	COSH("cosh", "cosh", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.cosh(arguments[offset]);
+		}
+	},
+	TANH("tanh", "tanh", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.tanh(arguments[offset]);
+		}
+	},
+	ABS("abs", "abs", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.abs(arguments[offset]);
+		}
+	},
+	FLOOR("floor", "floor", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.floor(arguments[offset]);
+		}
+	},
+	CEIL("ceil", "ceil", 1) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.ceil(arguments[offset]);
+		}
+	},
+	MIN("min", "min", 2) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.min(arguments[offset], arguments[offset + 1]);
+		}
+	},
+	MAX("max", "max", 2) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.max(arguments[offset], arguments[offset + 1]);
+		}
+	},
+	ATAN2("atan2", "atan2", 2) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.atan2(arguments[offset], arguments[offset + 1]);
+		}
+	},
+	HYPOT("hypot", "hypot", 2) {
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.hypot(arguments[offset], arguments[offset + 1]);
+		}
+	};
+
+	private final String name;
+	private final int arity;
+
+	/** Name of the static {@link Math} method taking {@link #getArity()} doubles and returning one. */
+	final String method;
+
+
+	BuiltInFunction( String name, String method, int arity ) {
+		this.name = name;
+		this.method = method;
+		this.arity = arity;
+	}
+
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+
+	@Override
+	public int getArity() {
+		return arity;
+	}
+
+}
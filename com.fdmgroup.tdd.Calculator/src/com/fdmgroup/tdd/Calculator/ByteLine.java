@@ -0,0 +1,63 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable view of one line of single-byte text inside a {@link ByteBuffer}, so a line can be
+ * tokenized where it is without being copied into a String.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class ByteLine implements CharSequence {
+
+	private ByteBuffer buffer;
+	private int offset;
+	private int length;
+
+
+	/**
+	 * Points this view at another line.
+	 * @param buffer Buffer holding the line
+	 * @param offset Index of the first byte of the line
+	 * @param length Number of bytes in the line
+	 */
+
+	void set( ByteBuffer buffer, int offset, int length ) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+	}
+
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+
+	@Override
+	public char charAt( int index ) {
+		return (char) (buffer.get(offset + index) & 0xFF);
+	}
+
+
+	@Override
+	public CharSequence subSequence( int start, int end ) {
+		StringBuilder text = new StringBuilder(end - start);
+
+		for ( int i = start; i < end; i++ ) {
+			text.append(charAt(i));
+		}
+
+		return text.toString();
+	}
+
+
+	@Override
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+
+}
@@ -0,0 +1,491 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Turns a {@link Program} into a JVM class implementing {@link ExpressionFunction}, so that the
+ * expression runs as straight-line bytecode the JIT can compile and inline like hand-written Java.
+ *
+ * The generated method pushes the calculator and the operands in tree order and calls
+ * {@link Calculator#add(double, double)}, {@link Calculator#minus(double, double)},
+ * {@link Calculator#multiply(double, double)}, {@link Calculator#divide(double, double)} and
+ * {@link Calculator#power(double, double)} exactly as the interpreter does, so the results and
+ * the exceptions are the same. For "a*(b+c)" it is equivalent to:
+ *
+ * <pre>
+ * public double eval( double[] vars ) {
+ *     return calculator.multiply(vars[0], calculator.add(vars[1], vars[2]));
+ * }
+ * </pre>
+ *
+ * Values that {@link CommonSubexpressions} stores for later use are kept in local variables
+ * after "this" and the argument. Built-in functions are static calls of their {@link Math}
+ * method, which the JIT turns into its intrinsic; expressions calling other functions are left
+ * to the interpreter.
+ *
+ * Classes are defined with {@link MethodHandles.Lookup#defineHiddenClass} and are not tied to
+ * their class loader, so they are unloaded once the function is no longer referenced.
+ *
+ * Programs whose method would be larger than the JIT compiles ({@link #MAX_CODE_LENGTH} bytes)
+ * are not turned into classes, the interpreter is faster for those.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class BytecodeCompiler {
+
+	/** Largest method HotSpot compiles, the default of -XX:HugeMethodLimit. */
+	static final int MAX_CODE_LENGTH = 8000;
+
+	private static final String CLASS = "com/fdmgroup/tdd/Calculator/GeneratedExpression";
+	private static final String CALCULATOR = "com/fdmgroup/tdd/Calculator/Calculator";
+	private static final String FUNCTION = "com/fdmgroup/tdd/Calculator/ExpressionFunction";
+	private static final String OPERATION = "(DD)D";
+
+	// Opcodes
+	private static final int ICONST_0 = 0x03;
+	private static final int DCONST_0 = 0x0e;
+	private static final int DCONST_1 = 0x0f;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC2_W = 0x14;
+	private static final int DLOAD = 0x18;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int DALOAD = 0x31;
+	private static final int DSTORE = 0x39;
+	private static final int DUP2 = 0x5c;
+	private static final int DRETURN = 0xaf;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int WIDE = 0xc4;
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+
+	private BytecodeCompiler() {
+	}
+
+
+	/**
+	 * @param program Program to be compiled
+	 * @param calculator Calculator whose operations the generated code calls
+	 * @return A function evaluating the program, or null if the program is too large.
+	 */
+
+	static ExpressionFunction compile( Program program, Calculator calculator ) {
+
+		if ( program.variables.length > Short.MAX_VALUE || program.temporaries > Short.MAX_VALUE / 2 ) {
+			return null;
+		}
+
+		ConstantPool pool = new ConstantPool();
+		Code eval = evalCode(program, pool);
+
+		if ( eval == null ) {
+			return null;
+		}
+
+		try {
+			Class<?> generated = LOOKUP.defineHiddenClass(classFile(pool, eval, program.temporaries), true).lookupClass();
+			return (ExpressionFunction) generated.getConstructor(Calculator.class).newInstance(calculator);
+		} catch ( ReflectiveOperationException e ) {
+			throw new IllegalStateException("Generated class could not be loaded.", e);
+		}
+	}
+
+
+	// Writes the body of eval, or returns null once it grows past MAX_CODE_LENGTH
+	private static Code evalCode( Program program, ConstantPool pool ) {
+		int field = pool.field(CLASS, "calculator", "L" + CALCULATOR + ";");
+		int[] methods = new int[Program.VARIABLE];
+		methods[Program.NEGATE] = pool.method(CALCULATOR, "minus", OPERATION);
+		methods[Program.ADD] = pool.method(CALCULATOR, "add", OPERATION);
+		methods[Program.SUBTRACT] = methods[Program.NEGATE];
+		methods[Program.MULTIPLY] = pool.method(CALCULATOR, "multiply", OPERATION);
+		methods[Program.DIVIDE] = pool.method(CALCULATOR, "divide", OPERATION);
+		methods[Program.POWER] = pool.method(CALCULATOR, "power", OPERATION);
+
+		List<List<Byte>> opened = operandStarts(program);
+		Code code = new Code();
+
+		for ( int pc = 0; pc < program.length; pc++ ) {
+
+			// The receiver of a call goes below its operands, push it where the first operand begins
+			if ( opened.get(pc) != null ) {
+				for ( byte operator : opened.get(pc) ) {
+					code.op(ALOAD_0, 1).op(GETFIELD, 0).u2(field);
+
+					// Negation is evaluated as 0-x
+					if ( operator == Program.NEGATE ) {
+						code.op(DCONST_0, 2);
+					}
+				}
+			}
+
+			switch ( program.code[pc] ) {
+			case Program.NUMBER:
+				push(code, pool, program.numbers[pc]);
+				break;
+
+			case Program.VARIABLE:
+				code.op(ALOAD_1, 1);
+				push(code, program.slots[pc]);
+				code.op(DALOAD, 0);
+				break;
+
+			case Program.STORE:
+				// The value stays on the stack for the operator using it
+				code.op(DUP2, 2);
+				local(code, DSTORE, program.slots[pc], -2);
+				break;
+
+			case Program.LOAD:
+				local(code, DLOAD, program.slots[pc], 2);
+				break;
+
+			case Program.CALL:
+				MathFunction function = program.functions[program.slots[pc]];
+
+				// Only built-in functions have a static method to call, the interpreter calls the others
+				if ( !(function instanceof BuiltInFunction) ) {
+					return null;
+				}
+
+				boolean unary = function.getArity() == 1;
+				int method = pool.method("java/lang/Math", ((BuiltInFunction) function).method, unary ? "(D)D" : OPERATION);
+				code.op(INVOKESTATIC, unary ? 0 : -2).u2(method);
+				break;
+
+			default:
+				// Every call takes the receiver and two doubles and leaves one double
+				code.op(INVOKEVIRTUAL, -3).u2(methods[program.code[pc]]);
+				break;
+			}
+
+			if ( code.length() > MAX_CODE_LENGTH ) {
+				return null;
+			}
+		}
+
+		code.op(DRETURN, -2);
+		return code;
+	}
+
+
+	/**
+	 * Finds, for every instruction, the operators whose first operand begins there. Operators
+	 * enclosing others come first, which is the order their receivers have to be pushed in.
+	 * @return Operators by the position their first operand starts at, null where there are none.
+	 */
+
+	private static List<List<Byte>> operandStarts( Program program ) {
+		List<List<Byte>> opened = new ArrayList<>(program.length);
+		int[] starts = new int[program.maxStack];
+		int top = -1;
+
+		for ( int pc = 0; pc < program.length; pc++ ) {
+			opened.add(null);
+			byte instruction = program.code[pc];
+
+			if ( instruction == Program.NUMBER || instruction == Program.VARIABLE || instruction == Program.LOAD ) {
+				starts[++top] = pc;
+				continue;
+			}
+
+			if ( instruction == Program.STORE ) {
+				continue;
+			}
+
+			// Static calls take no receiver
+			if ( instruction == Program.CALL ) {
+				top -= program.functions[program.slots[pc]].getArity() - 1;
+				continue;
+			}
+
+			if ( instruction != Program.NEGATE ) {
+				top--;
+			}
+
+			// Later operators enclose earlier ones starting at the same place
+			if ( opened.get(starts[top]) == null ) {
+				opened.set(starts[top], new ArrayList<>(2));
+			}
+
+			opened.get(starts[top]).add(0, instruction);
+		}
+
+		return opened;
+	}
+
+
+	private static void push( Code code, ConstantPool pool, double number ) {
+
+		if ( Double.doubleToRawLongBits(number) == 0 ) {
+			code.op(DCONST_0, 2);
+		} else if ( number == 1 ) {
+			code.op(DCONST_1, 2);
+		} else {
+			code.op(LDC2_W, 2).u2(pool.number(number));
+		}
+	}
+
+
+	// Temporaries take two local slots each, after "this" and the argument
+	private static void local( Code code, int opcode, int temporary, int stackChange ) {
+		int index = 2 + 2 * temporary;
+
+		if ( index <= 0xff ) {
+			code.op(opcode, stackChange).u1(index);
+		} else {
+			code.op(WIDE, 0).op(opcode, stackChange).u2(index);
+		}
+	}
+
+
+	private static void push( Code code, int slot ) {
+
+		if ( slot <= 5 ) {
+			code.op(ICONST_0 + slot, 1);
+		} else if ( slot <= Byte.MAX_VALUE ) {
+			code.op(BIPUSH, 1).u1(slot);
+		} else {
+			code.op(SIPUSH, 1).u2(slot);
+		}
+	}
+
+
+	// Lays out a public final class with a calculator field, a constructor setting it and eval
+	private static byte[] classFile( ConstantPool pool, Code eval, int temporaries ) {
+		int thisClass = pool.type(CLASS);
+		int superClass = pool.type("java/lang/Object");
+		int function = pool.type(FUNCTION);
+		int field = pool.utf8("calculator");
+		int fieldType = pool.utf8("L" + CALCULATOR + ";");
+		int init = pool.utf8("<init>");
+		int initType = pool.utf8("(L" + CALCULATOR + ";)V");
+		int evalName = pool.utf8("eval");
+		int evalType = pool.utf8("([D)D");
+		int codeName = pool.utf8("Code");
+
+		Code constructor = new Code();
+		constructor.op(ALOAD_0, 1).op(INVOKESPECIAL, -1).u2(pool.method("java/lang/Object", "<init>", "()V"));
+		constructor.op(ALOAD_0, 1).op(ALOAD_1, 1).op(PUTFIELD, -2).u2(pool.field(CLASS, "calculator", "L" + CALCULATOR + ";"));
+		constructor.op(RETURN, 0);
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(eval.length() + 512);
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(52);
+			pool.writeTo(out);
+
+			// Public, final, super
+			out.writeShort(0x0031);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(function);
+
+			// Private final field
+			out.writeShort(1);
+			out.writeShort(0x0012);
+			out.writeShort(field);
+			out.writeShort(fieldType);
+			out.writeShort(0);
+
+			// Public methods
+			out.writeShort(2);
+			writeMethod(out, init, initType, codeName, constructor, 2);
+			writeMethod(out, evalName, evalType, codeName, eval, 2 + 2 * temporaries);
+
+			out.writeShort(0);
+			return bytes.toByteArray();
+
+		} catch ( IOException e ) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+
+	// Public method with a Code attribute and no exception handlers
+	private static void writeMethod( DataOutputStream out, int name, int type, int codeName, Code code, int maxLocals ) throws IOException {
+		out.writeShort(0x0001);
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+
+		out.writeShort(codeName);
+		out.writeInt(12 + code.length());
+		out.writeShort(code.maxStack());
+		out.writeShort(maxLocals);
+		out.writeInt(code.length());
+		code.writeTo(out);
+		out.writeShort(0);
+		out.writeShort(0);
+	}
+
+
+	// Bytecode of one method, keeping track of the operand stack depth in slots
+	private static final class Code {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int depth;
+		private int maxStack;
+
+		Code op( int opcode, int stackChange ) {
+			bytes.write(opcode);
+			depth += stackChange;
+			maxStack = Math.max(maxStack, depth);
+			return this;
+		}
+
+		Code u1( int value ) {
+			bytes.write(value);
+			return this;
+		}
+
+		Code u2( int value ) {
+			bytes.write(value >>> 8);
+			bytes.write(value);
+			return this;
+		}
+
+		int length() {
+			return bytes.size();
+		}
+
+		int maxStack() {
+			return maxStack;
+		}
+
+		void writeTo( DataOutputStream out ) throws IOException {
+			bytes.writeTo(out);
+		}
+	}
+
+
+	// Constant pool entries, each written once and found again by a key made of its tag and content
+	private static final class ConstantPool {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final HashMap<String, Integer> indexes = new HashMap<>();
+		private int count = 1;
+
+		// Every name used is ASCII, for which modified UTF-8 is the characters themselves
+		int utf8( String value ) {
+			Integer index = indexes.get("U" + value);
+
+			if ( index != null ) {
+				return index;
+			}
+
+			bytes.write(1);
+			u2(value.length());
+
+			for ( int i = 0; i < value.length(); i++ ) {
+				bytes.write(value.charAt(i));
+			}
+
+			return add("U" + value, 1);
+		}
+
+		int type( String name ) {
+			Integer index = indexes.get("C" + name);
+
+			if ( index != null ) {
+				return index;
+			}
+
+			int utf8 = utf8(name);
+			bytes.write(7);
+			u2(utf8);
+			return add("C" + name, 1);
+		}
+
+		int number( double value ) {
+			String key = "D" + Double.doubleToRawLongBits(value);
+			Integer index = indexes.get(key);
+
+			if ( index != null ) {
+				return index;
+			}
+
+			long bits = Double.doubleToRawLongBits(value);
+			bytes.write(6);
+
+			for ( int shift = 56; shift >= 0; shift -= 8 ) {
+				bytes.write((int) (bits >>> shift));
+			}
+
+			// Doubles take up two entries
+			return add(key, 2);
+		}
+
+		int field( String owner, String name, String type ) {
+			return member(9, owner, name, type);
+		}
+
+		int method( String owner, String name, String type ) {
+			return member(10, owner, name, type);
+		}
+
+		void writeTo( DataOutputStream out ) throws IOException {
+			out.writeShort(count);
+			bytes.writeTo(out);
+		}
+
+		private int member( int tag, String owner, String name, String type ) {
+			String key = tag + owner + "." + name + type;
+			Integer index = indexes.get(key);
+
+			if ( index != null ) {
+				return index;
+			}
+
+			int ownerIndex = type(owner);
+			int nameIndex = utf8(name);
+			int typeIndex = utf8(type);
+			Integer nameAndType = indexes.get("N" + name + type);
+
+			if ( nameAndType == null ) {
+				bytes.write(12);
+				u2(nameIndex);
+				u2(typeIndex);
+				nameAndType = add("N" + name + type, 1);
+			}
+
+			bytes.write(tag);
+			u2(ownerIndex);
+			u2(nameAndType);
+			return add(key, 1);
+		}
+
+		private int add( String key, int size ) {
+			int index = count;
+			indexes.put(key, index);
+			count += size;
+			return index;
+		}
+
+		private void u2( int value ) {
+			bytes.write(value >>> 8);
+			bytes.write(value);
+		}
+	}
+
+}
@@ -0,0 +1,385 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A calculator that remembers the expressions it has compiled, and the values of those without
+ * variables, in front of another {@link ICalculator}.
+ *
+ * Expressions are looked up by their canonical form, see {@link Canonicalizer}: spaces are
+ * removed and runs of signs are folded the way the parser reads them. So "1 + -2" and "1-2" share
+ * one entry. The text itself is compiled, so errors report positions in the text as given.
+ *
+ * The cache holds at most the configured number of entries and decides what to keep with
+ * W-TinyLFU: new entries go into a small LRU window, and an entry leaving the window only replaces
+ * an entry of the main area if it has been requested more often, as estimated by a
+ * {@link FrequencySketch}. This keeps the few expressions that make up most of the traffic cached
+ * even when many one-off expressions pass through.
+ *
+ * The cache is split into independently locked segments chosen by the hash of the expression, so
+ * threads only contend when they use the same segment. Compilation always happens outside the lock.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class CachingCalculator implements ICalculator {
+
+	private final ICalculator delegate;
+	private final Segment[] segments;
+	private final int segmentMask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+
+	/**
+	 * Creates a cache in front of a new {@link Calculator}.
+	 * @param maximumSize Maximum number of cached expressions
+	 */
+
+	public CachingCalculator( int maximumSize ) {
+		this(new Calculator(), maximumSize);
+	}
+
+
+	/**
+	 * Creates a cache in front of the given calculator.
+	 * @param delegate Calculator that compiles the expressions
+	 * @param maximumSize Maximum number of cached expressions
+	 * @throws IllegalArgumentException If the maximum size is not positive.
+	 */
+
+	public CachingCalculator( ICalculator delegate, int maximumSize ) {
+
+		if ( maximumSize <= 0 ) {
+			throw new IllegalArgumentException("Maximum size must be positive.");
+		}
+
+		this.delegate = delegate;
+
+		// Around four segments per core, but never so many that a segment would hold less than 16 entries
+		int wanted = Math.min(4 * Runtime.getRuntime().availableProcessors(), Math.max(1, maximumSize / 16));
+		int count = Integer.highestOneBit(wanted);
+
+		this.segments = new Segment[count];
+		this.segmentMask = count - 1;
+
+		for ( int i = 0; i < count; i++ ) {
+			// Spread the remainder so the segment sizes add up to the maximum size
+			segments[i] = new Segment(maximumSize / count + (i < maximumSize % count ? 1 : 0));
+		}
+	}
+
+
+	/**
+	 * Evaluates the expression, reusing the cached value when an expression with the same
+	 * canonical form was evaluated before.
+	 * @param expression Mathematical expression to be evaluated
+	 * @return The value of the expression.
+	 * @throws IllegalArgumentException If the expression is invalid or cannot be evaluated.
+	 */
+
+	@Override
+	public double evaluate(String expression) {
+
+		return lookup(expression).value();
+	}
+
+
+	/**
+	 * Compiles the expression, reusing the cached compiled expression when an expression with the
+	 * same canonical form was compiled before.
+	 * @param expression Mathematical expression to be compiled
+	 * @return The compiled expression.
+	 * @throws IllegalArgumentException If the expression is invalid.
+	 */
+
+	@Override
+	public CompiledExpression compile(String expression) {
+
+		return lookup(expression).compiled;
+	}
+
+
+	/**
+	 * @return Number of lookups that found the expression in the cache.
+	 */
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+
+	/**
+	 * @return Number of lookups that had to compile the expression.
+	 */
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+
+	/**
+	 * @return Number of entries removed to keep the cache within its maximum size.
+	 */
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+
+	/**
+	 * @return Number of expressions currently cached.
+	 */
+
+	public int size() {
+		int size = 0;
+
+		for ( Segment segment : segments ) {
+			size += segment.size();
+		}
+
+		return size;
+	}
+
+
+	private Entry lookup( String expression ) {
+		String key = Canonicalizer.canonicalize(expression);
+		int hash = spread(key.hashCode());
+		Segment segment = segments[hash & segmentMask];
+
+		Entry entry = segment.get(key, hash);
+
+		if ( entry != null ) {
+			hits.increment();
+			return entry;
+		}
+
+		misses.increment();
+		entry = new Entry(delegate.compile(expression));
+		return segment.put(key, hash, entry);
+	}
+
+
+	private static int spread( int hash ) {
+		return (hash ^ (hash >>> 16)) * 0x45d9f3b;
+	}
+
+
+	// A cached compiled expression and, once evaluated, its value
+	private static final class Entry {
+
+		final CompiledExpression compiled;
+		private volatile boolean evaluated;
+		private double value;
+
+		Entry( CompiledExpression compiled ) {
+			this.compiled = compiled;
+		}
+
+		// Evaluating twice at the same time is harmless, both threads get the same value
+		double value() {
+
+			if ( evaluated ) {
+				return value;
+			}
+
+			value = compiled.evaluate();
+			evaluated = true;
+			return value;
+		}
+	}
+
+
+	// One independently locked part of the cache
+	private final class Segment {
+
+		private static final int WINDOW = 0;
+		private static final int PROBATION = 1;
+		private static final int PROTECTED = 2;
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final HashMap<String, Node> nodes = new HashMap<>();
+		private final FrequencySketch sketch;
+
+		// Head is the most recently used, tail the least
+		private final Node[] heads = new Node[3];
+		private final Node[] tails = new Node[3];
+		private final int[] sizes = new int[3];
+		private final int[] maximums = new int[3];
+
+		Segment( int maximumSize ) {
+			this.sketch = new FrequencySketch(maximumSize);
+
+			// 1% window, the main area split 20% probation and 80% protected
+			int window = Math.max(1, maximumSize / 100);
+			int main = maximumSize - window;
+
+			maximums[WINDOW] = window;
+			maximums[PROTECTED] = main * 4 / 5;
+			maximums[PROBATION] = main - maximums[PROTECTED];
+		}
+
+		Entry get( String key, int hash ) {
+			lock.lock();
+			try {
+				sketch.increment(hash);
+				Node node = nodes.get(key);
+
+				if ( node == null ) {
+					return null;
+				}
+
+				onHit(node);
+				return node.entry;
+
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		// Adds the entry unless another thread added the same key first, returning the cached one
+		Entry put( String key, int hash, Entry entry ) {
+			lock.lock();
+			try {
+				Node existing = nodes.get(key);
+
+				if ( existing != null ) {
+					return existing.entry;
+				}
+
+				Node node = new Node(key, hash, entry);
+				nodes.put(key, node);
+				addFirst(WINDOW, node);
+
+				if ( sizes[WINDOW] > maximums[WINDOW] ) {
+					Node candidate = tails[WINDOW];
+					unlink(candidate);
+					admit(candidate);
+				}
+
+				return entry;
+
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int size() {
+			lock.lock();
+			try {
+				return nodes.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void onHit( Node node ) {
+
+			if ( node.region == PROBATION ) {
+
+				// A second request while on probation promotes the entry
+				unlink(node);
+				addFirst(PROTECTED, node);
+
+				if ( sizes[PROTECTED] > maximums[PROTECTED] ) {
+					Node demoted = tails[PROTECTED];
+					unlink(demoted);
+					addFirst(PROBATION, demoted);
+				}
+
+			} else {
+
+				unlink(node);
+				addFirst(node.region, node);
+			}
+		}
+
+		// Moves an entry leaving the window into the main area if it is used more often than the victim
+		private void admit( Node candidate ) {
+
+			if ( sizes[PROBATION] + sizes[PROTECTED] < maximums[PROBATION] + maximums[PROTECTED] ) {
+				addFirst(PROBATION, candidate);
+				return;
+			}
+
+			Node victim = tails[PROBATION] != null ? tails[PROBATION] : tails[PROTECTED];
+
+			if ( victim == null ) {
+				evict(candidate);
+				return;
+			}
+
+			if ( sketch.frequency(candidate.hash) > sketch.frequency(victim.hash) ) {
+				unlink(victim);
+				evict(victim);
+				addFirst(PROBATION, candidate);
+			} else {
+				evict(candidate);
+			}
+		}
+
+		private void evict( Node node ) {
+			nodes.remove(node.key);
+			evictions.increment();
+		}
+
+		private void addFirst( int region, Node node ) {
+			node.region = region;
+			node.previous = null;
+			node.next = heads[region];
+
+			if ( heads[region] != null ) {
+				heads[region].previous = node;
+			} else {
+				tails[region] = node;
+			}
+
+			heads[region] = node;
+			sizes[region]++;
+		}
+
+		private void unlink( Node node ) {
+			int region = node.region;
+
+			if ( node.previous != null ) {
+				node.previous.next = node.next;
+			} else {
+				heads[region] = node.next;
+			}
+
+			if ( node.next != null ) {
+				node.next.previous = node.previous;
+			} else {
+				tails[region] = node.previous;
+			}
+
+			node.previous = null;
+			node.next = null;
+			sizes[region]--;
+		}
+	}
+
+
+	// Entry of the access order lists of a segment
+	private static final class Node {
+
+		final String key;
+		final int hash;
+		final Entry entry;
+		int region;
+		Node previous;
+		Node next;
+
+		Node( String key, int hash, Entry entry ) {
+			this.key = key;
+			this.hash = hash;
+			this.entry = entry;
+		}
+	}
+
+}
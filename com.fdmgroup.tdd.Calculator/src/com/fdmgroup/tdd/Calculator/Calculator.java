@@ -1,11 +1,17 @@
 package com.fdmgroup.tdd.Calculator;
 
+import com.fdmgroup.tdd.Calculator.EvaluationMetrics.Stage;
+import com.fdmgroup.tdd.Calculator.LimitExceededException.Limit;
+
 /**
  * This class acts as a calculator that evaluates mathematical expressions provided as strings.
- * It supports basic arithmetic operations, exponentiation, and the handling of parentheses.
- * The calculator follows the standard order of operations (BODMAS). All operations are made 
- * to be evaluated in a recursive manner. No loops were used in the implementation of any function.
- * All whitespace is removed throughout all operations.
+ * It supports basic arithmetic operations, exponentiation, the handling of parentheses and
+ * function calls such as "sqrt(x)" or "max(a, b)", see {@link MathFunction}.
+ * The calculator follows the standard order of operations (BODMAS). Expressions are tokenized
+ * once by the {@link Lexer}, which skips whitespace and folds redundant signs, and parsed into a
+ * tree by the {@link Parser}, so evaluation takes linear time in the length of the expression.
+ * A calculator shared by untrusted callers can bound the work done for each expression with
+ * {@link EvaluationLimits}.
  *
  * 
  * @author Matthew Chanco
@@ -14,6 +20,38 @@ package com.fdmgroup.tdd.Calculator;
 
 public class Calculator implements ICalculator {
 
+	final EvaluationLimits limits;
+
+
+	/**
+	 * Creates a calculator without limits.
+	 */
+
+	public Calculator() {
+		this(EvaluationLimits.NONE);
+	}
+
+
+	/**
+	 * Creates a calculator that rejects expressions going over the given limits with a
+	 * {@link LimitExceededException}.
+	 * @param limits Bounds on the work done for one expression
+	 */
+
+	public Calculator(EvaluationLimits limits) {
+		this.limits = limits;
+	}
+
+
+	/**
+	 * @return The bounds on the work done for one expression.
+	 */
+
+	public EvaluationLimits getLimits() {
+		return limits;
+	}
+
+
 	// Basic math operators: Addition, Subtraction, Multiplication, Division
 
 	/**
@@ -70,18 +108,32 @@ public class Calculator implements ICalculator {
 	}
 
 
-	// Exponential operator: with ^ as the operator, integer exponents for now
+	// Exponential operator: with ^ as the operator
 
 	/**
-	 * Evaluates the power of a base number raised to an exponent. It evaluates the 
-	 * expression recursively.
+	 * Evaluates the power of a base number raised to an exponent. Whole number exponents are
+	 * evaluated by repeated squaring, so it takes about log2(exponent) multiplications and no
+	 * recursion. Fractional exponents are split into a whole part and a root, except 0.5 which is
+	 * {@link Math#sqrt(double)}. Zero raised to a positive exponent of at least one is zero, and to
+	 * a negative one is infinite.
 	 * @param base Base number
 	 * @param exponent Exponent
 	 * @return The result of base raised to the power of the exponent.
+	 * @throws IllegalArgumentException If zero is raised to zero, or to a fraction between zero and one.
+	 * @throws LimitExceededException If the exponent is larger than the limits allow.
 	 */
 
 	public double power(double base, double exponent) {
 
+		limits.checkExponent(exponent);
+
+		// Square roots are a single instruction on most hardware. Zero and negative bases take the
+		// same path as every other fractional exponent, so 0^0.5 fails like 0^0.25
+		if ( exponent == 0.5 && base > 0 ) {
+
+			return Math.sqrt(base);
+		}
+
 		if ( exponent == 0 && base !=0 ) {
 
 			return 1;
@@ -97,467 +149,157 @@ public class Calculator implements ICalculator {
 			throw new IllegalArgumentException("Zero raised to zero is undefined");
 		}
 		
+		// NaN and infinite exponents have no whole or fractional part to work with
+		if ( Double.isNaN(exponent) || Double.isInfinite(exponent) ) {
+			
+			return Math.pow(base, exponent);
+		}
+		
 		// Case for fractional exponents. The return will separate the whole number from the fractional part to get the root.
 		if ( exponent%1 != 0) {
 			
 			return multiply( power(base,exponent-exponent%1), fractionalPower( base, exponent%1 ));
 		}
 
-		return base * power(base, exponent - 1);
+		return Exponents.wholePower(base, exponent);
 	}
 	
 	
 	// Fractional exponent operation
 	
 	/**
-	 * This operator iteratively evaluates nth root using Newton-Raphson Method. Documentation for Newton-Raphson can be
-	 * shown in this website: https://calcworkshop.com/derivatives/newtons-method/
+	 * Raises the base to a fraction between zero and one. Fractions of the form 1/n, such as 0.5,
+	 * 0.25 or (1/3), are evaluated as nth roots with the Newton-Raphson Method, starting from an
+	 * estimate taken from the bits of the base, see {@link Exponents}. Documentation for
+	 * Newton-Raphson can be shown in this website: https://calcworkshop.com/derivatives/newtons-method/
 	 * 
 	 * @param base Base number
 	 * @param fraction Fractional exponent evaluated from the power() method
-	 * @return Calls the nthRoot recursive function to evaluate the root
+	 * @return The result of base raised to the power of the fraction.
 	 */
 	
 	public double fractionalPower( double base, double fraction ) {
 		
-		// Use 1 as initial guess. Can be further improved.
-		return nthRoot(base, 1/fraction, 1);
+		return Exponents.fractionalPower(base, fraction, limits.maxRootIterations);
 	}
 	
 	
-	// Newton's iterative approach to solving for roots.
-	public double nthRoot( double base, double n, double guess ) {
-		
-		// This is Newton-Raphson method for approximation of roots. Derivation of the formula can be found from website above.
-		double newGuess = (1/n)*((n-1) * guess + base / power(guess,n-1));
-		
-		// Since Math library (absolute value) cannot be used, the tolerance is squared.
-		if ( (newGuess-guess)*(newGuess-guess) < 0.000000001) {
-			return newGuess;
-		}
-		return nthRoot (base, n, newGuess);
-	}
-
-	
-	
-	// Cleaner Methods
-
-	// Method to adjust expressions with combinations of operators ex. "++", "--", "+-", "-+", ...
-
-	/**
-	 * Simplifies the expression by combining redundant operations such as:
-	 * "++", "+-", "--", "-+", "*+", and "/+"
-	 * @param expression Mathematical expression to be simplified.
-	 * @return Simplified expression
-	 */
-
-	private String simplifyExpression ( String expression ) {
-
-		if ( expression.contains("++") ) {
-
-			int index = expression.indexOf("++");
-			return simplifyExpression(expression.substring(0, index) + "+" + (index + 2 < expression.length() ? expression.substring(index + 2) : ""));
-
-		} else if ( expression.contains("--") ) {
-
-			int index = expression.indexOf("--");
-			return simplifyExpression(expression.substring(0, index) + "+" + (index + 2 < expression.length() ? expression.substring(index + 2) : "") );
-
-		} else if ( expression.contains("+-") ) {
-
-			int index = expression.indexOf("+-");
-			return simplifyExpression(expression.substring(0, index) + "-" + (index + 2 < expression.length() ? expression.substring(index + 2) : "") );
-
-		} else if ( expression.contains("-+") ) {
-
-			int index = expression.indexOf("-+");
-			return simplifyExpression(expression.substring(0, index) + "-" + (index + 2 < expression.length() ? expression.substring(index + 2) : "") );
-
-		} else if ( expression.contains("*+") ) {
-
-			int index = expression.indexOf("*+");
-			return simplifyExpression(expression.substring(0, index) + "*" + (index + 2 < expression.length() ? expression.substring(index + 2) : "") );
-
-		} else if ( expression.contains("/+") ) {
-
-			int index = expression.indexOf("/+");
-			return simplifyExpression(expression.substring(0, index) + "/" + (index + 2 < expression.length() ? expression.substring(index + 2) : "") );
-
-		}
-
-		return expression;
-	}
-
-	// Method to adjust expression if leading with a '+' or '-'
-
-	/**
-	 * Cleans the expression by removing any leading '+' or '-' signs to make it
-	 * readable by the code.
-	 * @param expression Mathematical expression to be cleaned
-	 * @return Cleaned operation
-	 */
-
-	private String cleanExpression( String expression ) {
-
-		if ( expression.charAt(0) == '+' ) {
-
-			return expression.substring(1);
-
-		} else if ( expression.charAt(0) == '-' ) {
-
-			return "0" + expression;
-		}
-
-		return expression;
-	}
-
-	// Method to check for invalid input.
-
 	/**
-	 * Checks for any invalid operations within the expression such as:
-	 * "+*", "-*", "**", "/*", "+/", "-/", "//"..
-	 * It does not return anything.
+	 * Newton's iterative approach to solving for roots, starting from the given guess. Stops when a
+	 * step changes the guess by less than {@link Exponents#TOLERANCE} relative to its size, or after
+	 * {@link Exponents#MAX_ITERATIONS} steps.
 	 * 
-	 * @param expression Mathematical expression to be checked.
-	 * @throws IllegalArgumentException If invalid operators are detected.
+	 * @param base Number to take the root of
+	 * @param n Degree of the root
+	 * @param guess Starting guess
+	 * @return The nth root of the base.
+	 * @throws LimitExceededException If the root has not converged within the root iterations the limits allow.
 	 */
-
-	private void checkInvalidOperations( String expression ) {
-		if ( expression.contains("-*") || expression.contains("+*") || expression.contains("-/")
-				|| expression.contains("+/") || expression.contains("**") || expression.contains("//")) {
-
-			throw new IllegalArgumentException("Invalid argument detected.");
-		}
-	}
-
 	
-	// BODMAS Methods
-
-	// Check for Parenthesis
-
-	/**
-	 * This is the first function to be called when running the code.
-	 * 
-	 * Evaluates the mathematical expression inside parentheses (B) and recursively 
-	 * replaces the expression with the evaluated value to remove the brackets "()"
-	 * until all are evaluated.
-	 * 
-	 * It finds the innermost parenthesis first then works its way outwards until
-	 * all the parentheses are removed. It then calls the function for evaluating
-	 * exponents.
-	 * 
-	 * @param expression Mathematical expression to be evaluated that contains "()"
-	 * @return Calls the function again to detect and evaluate expressions in parenthesis.
-	 * If none, calls the function for evaluating exponents.
-	 */
-
-	private double performParenthesesOperations(String expression) {
-		expression = expression.replaceAll(" ", "");
-		expression = simplifyExpression(expression);
+	public double nthRoot( double base, double n, double guess ) {
 		
-
-		if (!expression.contains("(")) {
-			return performExponentsOperations(expression);
-		}
+		int iterations = Math.min(limits.maxRootIterations, Exponents.MAX_ITERATIONS);
 		
-
-		// Find the innermost parentheses then evaluates
-		int start = expression.lastIndexOf('(');
-		int end = findClosingParenthesis(expression, start);
-		String innerExpression = expression.substring(start + 1, end);
-		double innerResult = performExponentsOperations(innerExpression);
-
-
-		// Updates the expression by removing brackets and calls the function again with the new expression
-		String newExpression = expression.substring(0, start) + innerResult + expression.substring(end + 1);
-
-
-		return performParenthesesOperations(newExpression);
-	}
-
-	
-	
-	
-	// This method detects the first closing bracket with respect to the first opening bracket.
-	private int findClosingParenthesis ( String expression, int index ) {
-
-		if ( expression.charAt(index) == ')' ) {
-
-			return index;
+		for ( int i = 0; i < iterations; i++ ) {
+			
+			// This is Newton-Raphson method for approximation of roots. Derivation of the formula can be found from website above.
+			double newGuess = (1/n)*((n-1) * guess + base / power(guess,n-1));
+			
+			if ( Math.abs(newGuess - guess) <= Exponents.TOLERANCE * Math.abs(newGuess) ) {
+				return newGuess;
+			}
+			
+			guess = newGuess;
 		}
-
-		return findClosingParenthesis ( expression, index + 1);
-
-	}
-
-
-	// Check for Exponents
-
-	/**
-	 * This is the second function to be called after clearing all the expressions in parenthesis.
-	 * 
-	 * Evaluates any exponential(O) operations symbolized by a caret "^" recursively until all
-	 * carets are evaluated. Note that it only evaluates the first number succeeding the symbol
-	 * as the exponent and the first number preceding the symbol as the base. Any other inputs
-	 * must be enclosed in a bracket to be properly evaluated.
-	 * 
-	 * @param expression Mathematical expression to be evaluated that contains ^
-	 * @return Calls the function again to detect and evaluate exponential expressions.
-	 * If none, calls the function for evaluating multiplication/division operations.
-	 */
-
-	private double performExponentsOperations ( String expression ) {
-		expression = expression.replaceAll(" ", "");
-		expression = cleanExpression(expression);
-		expression = simplifyExpression(expression);
 		
-
-		if (!expression.contains("^")) {
-			return performMDOperations( expression );
+		if ( iterations < Exponents.MAX_ITERATIONS ) {
+			throw new LimitExceededException(Limit.ROOT_ITERATIONS, "Root did not converge within " + iterations + " iterations.");
 		}
-
-		// Find the rightmost exponential operation then evaluates
-		int caretIndex = expression.lastIndexOf('^');
-		
-		// Splits the exponential expression into base and exponent
-		int baseStart = findBaseStart( expression, caretIndex - 1);
-		int exponentEnd = findExponentEnd( expression, caretIndex + 1);
 		
-		double base = Double.parseDouble(expression.substring(baseStart, caretIndex));
-		double exponent = Double.parseDouble(expression.substring(caretIndex + 1, exponentEnd + 1));
-		
-		double result = power(base, exponent);
-
-
-		// Updates the expression to remove the ^ symbol then calls the function with the new expression
-		String newExpression = expression.substring(0, baseStart) + result + expression.substring(exponentEnd + 1);
-
-		return performExponentsOperations(newExpression);
+		return guess;
 	}
 
 	
 	
-	
-	// This method finds the first number to the left of the ^ symbol
-	private int findBaseStart(String expression, int index) {
-		
-		// Base case: Start of the string or previous character is an operator
-		if (index < 0 || isOperator(expression.charAt(index))) {
-			return index + 1;
-		}
-
-		return findBaseStart(expression, index - 1);
-	}
-
-	// This method finds the first number to the right of the ^ symbol
-	private int findExponentEnd(String expression, int index) {
-		
-		// Base case: End of the string or next character is an operator
-		if (index >= expression.length() - 1 || isOperator(expression.charAt(index + 1))) {
-			return index;
-		}
-
-		return findExponentEnd(expression, index + 1);
-	}
-
-
+	// Interface method for the user to use the calculator.
 
-	// Check for Multiplication/Division Operations
-	
 	/**
-	 * This is the next function to be called after evaluating exponential expressions.
-	 * 
-	 * Evaluates any multiplication(M) or division(D) operations in the expression, 
-	 * symbolized by an asterisk "*" or a backslash "/". Recursively calls the function
-	 * until all MD operations are done.
+	 * Evaluates the expression in a single pass. The expression is tokenized once, parsed into a tree
+	 * following BODMAS and the tree is then evaluated in postfix order with the operations above.
+	 * Whole numbers are kept exact as {@code long} values while they fit, so large integer sums
+	 * and products are only rounded once at the end.
 	 * 
-	 * The code works such that it splits the expression into two at the index where
-	 * the operator is. It then extracts the numbers directly next to the operator
-	 * on both sides, including the '-' sign, indicating if it is a subtraction operator
-	 * or if it signifies a negative sign.
-	 *  
-	 * @param expression Mathematical expression to evaluate * and / operators
-	 * @return Calls the function again to detect and evaluate MD expressions.
-	 * If none, calls the function for evaluating addition/subtraction operations.
+	 * @param expression Mathematical expression to be evaluated
+	 * @return The value of the expression.
+	 * @throws IllegalArgumentException If invalid operators are detected or if dividing by zero.
+	 * @throws LimitExceededException If the expression goes over the limits of this calculator.
 	 */
 
-	private double performMDOperations(String expression) {
-		
-		// Cleaner methods to ensure string readability for the code
-		expression = cleanExpression(expression);
-		expression = simplifyExpression(expression);
-		
-
-		if (!expression.contains("*") && !expression.contains("/")) {
-			return performASOperations(expression);
-		}
-		
-		
-		// Compares the indices of MD operators and executes whichever comes first
-		int mulIndex = expression.indexOf('*');
-		int divIndex = expression.indexOf('/');
-		
-
-		int index;
-
-		if ( mulIndex != -1 && (divIndex == -1 || mulIndex < divIndex) )  {
-			index = mulIndex;
-
-			// This is where the expression is split into two parts
-			String left = expression.substring(extractLeftNumber(expression, index - 1), index);
-			String right = expression.substring(index + 1, extractRightNumber(expression, index+1));
-
-			double result = multiply(performMDOperations(left), performMDOperations(right));
-
-			// Updates the expression then calls the function again with the new expression
-			String newExpression = expression.substring(0, extractLeftNumber(expression, index))
-					+ result
-					+ expression.substring(extractRightNumber(expression, index + 1));
-			
-
-			return performMDOperations(newExpression);
-		}
-
-		if ( divIndex != -1 && (mulIndex == -1 || divIndex < mulIndex) ) {
-			index = divIndex;
-
-			// This is where the expression is split into two parts
-			String left = expression.substring(extractLeftNumber(expression, index - 1), index);
-			String right = expression.substring(index + 1, extractRightNumber(expression, index+1));
-
-			double result = divide(performMDOperations(left), performMDOperations(right));
-
-			// Updates the expression then calls the function again with the new expression
-			String newExpression = expression.substring(0, extractLeftNumber(expression, index))
-					+ result
-					+ expression.substring(extractRightNumber(expression, index + 1));
-			
-
-			return performMDOperations(newExpression);
-		}
-
-		return performMDOperations(expression);
+	@Override
+	public double evaluate(String expression) {
 
+		return evaluate((CharSequence) expression);
 	}
 
-	
-	
 
-	// Methods to extract the numbers on both sides of the operator
-	private int extractLeftNumber(String expression, int index) {
+	// Evaluates text that is not a String, such as a line of a memory-mapped file, without copying it
+	double evaluate(CharSequence expression) {
 
-		// Base case: Start of the string or previous character is an operator
-		if (index <= 0 || isOperator(expression.charAt(index - 1))) {
-			return index;
-		}
-
-		return extractLeftNumber(expression, index - 1);
+		return evaluate(expression, limits.deadline());
 	}
 
 
-	private int extractRightNumber(String expression, int index) {
-
-		// Base case: End of the string
-		if (index >= expression.length()) {
-			return index;
-		}
-
-		if (isOperator(expression.charAt(index))) {
-
-			if ( expression.charAt(index) == '-' && !isOperator(expression.charAt(index-1)) ) {
+	// Evaluates text whose deadline has already started, such as that of an incremental expression
+	double evaluate(CharSequence expression, long deadline) {
 
-				return index;
-			}
-
-			// Directly handles negative numbers
-			if (expression.charAt(index) == '-' && index + 1 < expression.length() 
-					&& !isOperator(expression.charAt(index + 1))) {
+		limits.checkLength(expression.length());
+		Program program = Parser.parse(expression, limits, deadline);
 
-
-				return extractRightNumber(expression, index + 1);
-			}
-			return index;
+		if ( program.variables.length > 0 ) {
+			throw new IllegalArgumentException("Variable '" + program.variables[0] + "' has no value. Use compile() to bind variables.");
 		}
 
-		return extractRightNumber(expression, index + 1);
+		limits.checkTime(deadline);
+		long start = EvaluationMetrics.start();
+		double value = program.executeExact(this);
+		EvaluationMetrics.record(Stage.EVALUATE, start, expression.length(), program.nesting);
+		return value;
 	}
 
-	
-	
-	
-	// Method to detect if the character in check is an operator
-	private boolean isOperator(char c) {
-		return c == '+' || c == '-' || c == '*' || c == '/' || c == '^';
-	}
-
-
-	// Check for Addition/Subtraction Operations
 
 	/**
-	 * This is the last function to be called after performing multiplication and division.
+	 * Tokenizes and parses the expression once. The returned expression can be evaluated any
+	 * number of times, from any thread, without reading the text again. Variables in the
+	 * expression are given values through {@link CompiledExpression#newBindings()}.
 	 * 
-	 * Evaluates any addition(A) or subtraction(S) operations in the expression, 
-	 * symbolized by a plus "+" or a minus "-". Recursively calls the function
-	 * until all AS operations are done. It is expected that all other operators
-	 * do not exist at this point except for "+" and "-".
-	 *  
-	 * @param expression Mathematical expression to evaluate + and - operators
-	 * @return Calls the function again to detect and evaluate AS expressions.
-	 * If none, parses the final expression into a double.
+	 * @param expression Mathematical expression to be compiled
+	 * @return The compiled expression.
+	 * @throws IllegalArgumentException If invalid operators are detected or if dividing by a literal zero.
+	 * @throws LimitExceededException If the expression goes over the limits of this calculator.
 	 */
-	
-	
-	private double performASOperations ( String expression ) {
-		expression = cleanExpression(expression);
-		expression = simplifyExpression(expression);
-		
 
-		if ( expression.charAt(0) == '+' || expression.charAt(0) == '-' ) {
-
-			expression = cleanExpression(expression);
-			expression = simplifyExpression(expression);
-
-		}
-
-		if ( expression.contains("+") ) {
-
-			int index = expression.lastIndexOf("+");
-
-			String left = expression.substring(0, index);
-			String right = expression.substring(index + 1);
-
-
-			return add(performASOperations(left), performASOperations(right));
-
-		} else if ( expression.contains("-") ) {
-
-			int index = expression.lastIndexOf("-");
-
-			String left = expression.substring(0, index);
-			String right = expression.substring(index + 1);
-
-
-			return minus(performASOperations(left), performASOperations(right));
-		}
+	@Override
+	public CompiledExpression compile(String expression) {
 
-		return Double.parseDouble(expression);
+		long deadline = limits.deadline();
+		limits.checkLength(expression.length());
+		Program program = Parser.parse(expression, limits, deadline);
+		limits.checkTime(deadline);
+		return new CompiledExpression(expression, program, this);
 	}
 
 
-	// Interface method for the user to use the calculator.
-	@Override
-	public double evaluate(String expression) {
-		
-		// Cleans the expression of whitespace
-		expression = expression.replaceAll(" ", "");
-		
-		// Preliminary check for invalid operations
-		checkInvalidOperations(expression);
-		
-		// Cleans redundant operators
-		expression = simplifyExpression(expression);
+	/**
+	 * Starts an expression that will be edited and evaluated again after each edit, such as a line
+	 * being typed. Evaluating after an edit only parses the parenthesized group the edit was in.
+	 * 
+	 * @param expression Initial text, which does not have to be valid yet
+	 * @return The expression, ready to be edited and evaluated.
+	 */
+
+	public IncrementalExpression incremental(String expression) {
 
-		return performParenthesesOperations(expression);
+		return new IncrementalExpression(this, expression);
 	}
 
 }
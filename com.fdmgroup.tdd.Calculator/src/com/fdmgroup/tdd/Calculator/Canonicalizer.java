@@ -0,0 +1,151 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Rewrites an expression into a canonical form in one left-to-right pass, so that texts which
+ * parse to the same program share one form, such as "1 + -2", "1-2" and "+1-+2".
+ *
+ * The rules are the same as the {@link Lexer}'s, and the old "++", "--", "+-", "-+", "*+" and
+ * "/+" rewrites:
+ * <ul>
+ * <li>Spaces are removed, except a single one between two numbers or names, which keeps them
+ * apart so "1 2" stays invalid instead of becoming 12.</li>
+ * <li>A run of signs, with any spaces in it, becomes one sign. After an operand or ')' it is the
+ * binary '+' or '-'; anywhere else it is a sign of what follows, which is written as '-' when
+ * negative and dropped when positive, so a leading '+' goes away.</li>
+ * <li>The sign of an exponent is part of its number and is never folded, and 'E' is written 'e'.</li>
+ * </ul>
+ *
+ * Every character is read once and written at most once into a single buffer, so the time is
+ * linear in the length of the text whatever the runs of signs. Parsing the canonical form gives
+ * the same program as the original text, or fails as well if the text is invalid. A number with
+ * an 'e' but no exponent digits cannot be told apart from a name cheaply, so such texts, which
+ * are always invalid, are returned unchanged.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class Canonicalizer {
+
+	// What the characters being copied belong to
+	private static final int NONE = 0;
+	private static final int NUMBER = 1;
+	private static final int NAME = 2;
+
+
+	private Canonicalizer() {
+	}
+
+
+	/**
+	 * @param expression Mathematical expression, which does not have to be valid
+	 * @return The canonical form of the expression, the same for every text that parses to the
+	 * same program.
+	 */
+
+	static String canonicalize( String expression ) {
+		int length = expression.length();
+		char[] canonical = new char[length];
+		int size = 0;
+
+		// Whether an operand or ')' was written last, which makes a sign binary
+		boolean operand = false;
+		int token = NONE;
+		boolean spaced = false;
+		int index = 0;
+
+		while ( index < length ) {
+			char c = expression.charAt(index);
+
+			if ( c == ' ' ) {
+				spaced = true;
+				token = NONE;
+				index++;
+				continue;
+			}
+
+			if ( c == '+' || c == '-' ) {
+
+				// Fold the whole run of signs, ignoring whitespace in between
+				boolean negative = false;
+
+				while ( index < length && isSignOrSpace(expression.charAt(index)) ) {
+					if ( expression.charAt(index) == '-' ) {
+						negative = !negative;
+					}
+					index++;
+				}
+
+				if ( operand ) {
+					canonical[size++] = negative ? '-' : '+';
+					operand = false;
+				} else if ( negative ) {
+					canonical[size++] = '-';
+				}
+
+				token = NONE;
+				spaced = false;
+				continue;
+			}
+
+			boolean word = isWord(c);
+
+			// Spaces only matter between two numbers or names, where they keep the tokens apart
+			if ( spaced && word && size > 0 && isWord(canonical[size - 1]) ) {
+				canonical[size++] = ' ';
+			}
+
+			spaced = false;
+
+			if ( token == NUMBER && (c == 'e' || c == 'E') ) {
+				int digits = index + 1;
+
+				if ( digits < length && (expression.charAt(digits) == '+' || expression.charAt(digits) == '-') ) {
+					digits++;
+				}
+
+				// Invalid either way, keep the text for the error message
+				if ( digits >= length || !isDigit(expression.charAt(digits)) ) {
+					return expression;
+				}
+
+				canonical[size++] = 'e';
+
+				for ( index++; index < digits; index++ ) {
+					canonical[size++] = expression.charAt(index);
+				}
+
+				continue;
+			}
+
+			if ( isDigit(c) || c == '.' ) {
+				token = token == NONE ? NUMBER : token;
+			} else {
+				token = word ? NAME : NONE;
+			}
+
+			operand = word || c == ')';
+			canonical[size++] = c;
+			index++;
+		}
+
+		return new String(canonical, 0, size);
+	}
+
+
+	private static boolean isSignOrSpace( char c ) {
+		return c == '+' || c == '-' || c == ' ';
+	}
+
+
+	// Characters of numbers and names
+	private static boolean isWord( char c ) {
+		return isDigit(c) || c == '.' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+
+	private static boolean isDigit( char c ) {
+		return c >= '0' && c <= '9';
+	}
+
+}
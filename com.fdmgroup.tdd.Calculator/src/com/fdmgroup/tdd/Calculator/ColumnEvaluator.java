@@ -0,0 +1,342 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.Arrays;
+
+import com.fdmgroup.tdd.Calculator.Columns.ErrorPolicy;
+
+/**
+ * Evaluates a {@link Program} over whole columns of variable values. Instead of running every
+ * instruction once per row, each instruction runs once per block of {@link #BLOCK} rows as a
+ * plain loop over arrays, so the work of reading the program is shared by the whole block and the
+ * JIT can turn the loops for '+', '-', '*' and '/' into SIMD instructions. A block of registers
+ * is small enough to stay in the CPU cache between instructions.
+ *
+ * The results are the same, row by row, as {@link Program#execute(Calculator, double[], double[])}:
+ * <ul>
+ * <li>Addition, subtraction, multiplication and negation are the {@link Calculator} operations,
+ * which are plain double arithmetic, written as loops over the block.</li>
+ * <li>Division checks the whole divisor block for zeros first, and divides with a plain loop when
+ * there are none.</li>
+ * <li>Powers are worked out row by row with {@link Calculator#power(double, double)}, except
+ * squares and square roots by a constant, which are a multiplication and {@link Math#sqrt(double)}
+ * as they are in the calculator.</li>
+ * <li>Calls of {@link BuiltInFunction}s that the JIT vectorizes are loops over the block, other
+ * functions are called row by row.</li>
+ * </ul>
+ * A subclass of {@link Calculator} may change the operations, so with one every operation is
+ * called row by row instead.
+ *
+ * A row that cannot be evaluated either throws, or with {@link ErrorPolicy#NAN} is marked as
+ * failed, unless it went over the calculator's {@link EvaluationLimits}, which always throws.
+ * Marked rows keep being computed with the others, so the loops need no branches, and are set to
+ * NaN at the end, even where a later operation such as "^0" would have hidden the error.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class ColumnEvaluator {
+
+	/** Rows evaluated together, small enough for the registers of a block to stay in the cache. */
+	static final int BLOCK = 1024;
+
+
+	private ColumnEvaluator() {
+	}
+
+
+	/**
+	 * Evaluates the program for every row of the columns.
+	 * @param program Program to be evaluated
+	 * @param calculator Calculator providing add, minus, multiply, divide and power
+	 * @param columns Columns of the variables, with the working space of the evaluation
+	 * @param output Receives the value of each row
+	 * @throws IllegalArgumentException If a row divides by zero or raises zero to zero, and the
+	 * error policy is {@link ErrorPolicy#THROW}.
+	 * @throws LimitExceededException If the evaluation takes longer than the calculator's limits
+	 * allow, or the thread is interrupted, checked before each block.
+	 */
+
+	static void evaluate( Program program, Calculator calculator, Columns columns, double[] output ) {
+		boolean plain = calculator.getClass() == Calculator.class;
+		EvaluationLimits limits = calculator.limits;
+		long deadline = limits.deadline();
+
+		for ( int from = 0; from < columns.rows; from += BLOCK ) {
+			limits.checkTime(deadline);
+			evaluateBlock(program, calculator, plain, columns, from, Math.min(BLOCK, columns.rows - from), output);
+		}
+	}
+
+
+	private static void evaluateBlock( Program program, Calculator calculator, boolean plain, Columns columns,
+			int from, int rows, double[] output ) {
+
+		double[][] stack = columns.registers;
+		boolean[] constant = columns.constant;
+		boolean[] failed = columns.failed;
+		boolean masked = columns.errorPolicy == ErrorPolicy.NAN;
+		int top = -1;
+
+		Arrays.fill(failed, 0, rows, false);
+
+		for ( int pc = 0; pc < program.length; pc++ ) {
+
+			switch ( program.code[pc] ) {
+			case Program.NUMBER:
+				top++;
+				Arrays.fill(stack[top], 0, rows, program.numbers[pc]);
+				constant[top] = true;
+				break;
+
+			case Program.VARIABLE:
+				top++;
+				System.arraycopy(columns.columns[program.slots[pc]], from, stack[top], 0, rows);
+				constant[top] = false;
+				break;
+
+			case Program.STORE:
+				System.arraycopy(stack[top], 0, stack[program.maxStack + program.slots[pc]], 0, rows);
+				break;
+
+			case Program.LOAD:
+				top++;
+				System.arraycopy(stack[program.maxStack + program.slots[pc]], 0, stack[top], 0, rows);
+				constant[top] = false;
+				break;
+
+			case Program.NEGATE:
+				negate(calculator, plain, stack[top], rows);
+				constant[top] = false;
+				break;
+
+			case Program.ADD:
+			case Program.SUBTRACT:
+			case Program.MULTIPLY:
+				top--;
+				arithmetic(program.code[pc], calculator, plain, stack[top], stack[top + 1], rows);
+				constant[top] = false;
+				break;
+
+			case Program.DIVIDE:
+				top--;
+				divide(calculator, plain, masked, stack[top], stack[top + 1], failed, rows);
+				constant[top] = false;
+				break;
+
+			case Program.POWER:
+				top--;
+				power(calculator, plain && constant[top + 1], masked, stack[top], stack[top + 1], failed, rows);
+				constant[top] = false;
+				break;
+
+			case Program.CALL:
+				MathFunction function = program.functions[program.slots[pc]];
+				top -= function.getArity() - 1;
+				call(function, masked, stack, top, columns.arguments, failed, rows);
+				constant[top] = false;
+				break;
+
+			default:
+				throw new IllegalStateException("Unknown instruction " + program.code[pc]);
+			}
+		}
+
+		System.arraycopy(stack[0], 0, output, from, rows);
+
+		if ( masked ) {
+			for ( int row = 0; row < rows; row++ ) {
+				if ( failed[row] ) {
+					output[from + row] = Double.NaN;
+				}
+			}
+		}
+	}
+
+
+	// A leading '-' is "0-", so -0 never appears
+	private static void negate( Calculator calculator, boolean plain, double[] x, int rows ) {
+
+		if ( plain ) {
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] = 0 - x[row];
+			}
+		} else {
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] = calculator.minus(0, x[row]);
+			}
+		}
+	}
+
+
+	// The result replaces the left operand
+	private static void arithmetic( byte instruction, Calculator calculator, boolean plain, double[] x, double[] y, int rows ) {
+
+		if ( !plain ) {
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] = instruction == Program.ADD ? calculator.add(x[row], y[row])
+						: instruction == Program.SUBTRACT ? calculator.minus(x[row], y[row])
+						: calculator.multiply(x[row], y[row]);
+			}
+			return;
+		}
+
+		// One loop per operation, without branches, so each can be vectorized
+		switch ( instruction ) {
+		case Program.ADD:
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] += y[row];
+			}
+			break;
+
+		case Program.SUBTRACT:
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] -= y[row];
+			}
+			break;
+
+		default:
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] *= y[row];
+			}
+		}
+	}
+
+
+	private static void divide( Calculator calculator, boolean plain, boolean masked, double[] x, double[] y,
+			boolean[] failed, int rows ) {
+
+		if ( !plain ) {
+			for ( int row = 0; row < rows; row++ ) {
+				try {
+					x[row] = calculator.divide(x[row], y[row]);
+				} catch ( IllegalArgumentException e ) {
+					fail(masked, e, x, failed, row);
+				}
+			}
+			return;
+		}
+
+		int zero = 0;
+
+		while ( zero < rows && y[zero] != 0 ) {
+			zero++;
+		}
+
+		// The usual case, no divisor is zero
+		if ( zero == rows ) {
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] /= y[row];
+			}
+			return;
+		}
+
+		if ( !masked ) {
+			calculator.divide(x[zero], y[zero]);
+		}
+
+		for ( int row = 0; row < rows; row++ ) {
+			if ( y[row] == 0 ) {
+				failed[row] = true;
+				x[row] = Double.NaN;
+			} else {
+				x[row] /= y[row];
+			}
+		}
+	}
+
+
+	// Constant exponents of 2, and of 0.5 on positive bases, give the same results as the calculator without calling it
+	private static void power( Calculator calculator, boolean constant, boolean masked, double[] x, double[] y,
+			boolean[] failed, int rows ) {
+
+		if ( constant ) {
+			calculator.limits.checkExponent(y[0]);
+		}
+
+		if ( constant && y[0] == 2 ) {
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] *= x[row];
+			}
+		} else if ( constant && y[0] == 0.5 ) {
+			for ( int row = 0; row < rows; row++ ) {
+				if ( x[row] > 0 ) {
+					x[row] = Math.sqrt(x[row]);
+				} else {
+					power(calculator, masked, x, y, failed, row);
+				}
+			}
+		} else {
+			for ( int row = 0; row < rows; row++ ) {
+				power(calculator, masked, x, y, failed, row);
+			}
+		}
+	}
+
+
+	private static void power( Calculator calculator, boolean masked, double[] x, double[] y, boolean[] failed, int row ) {
+
+		try {
+			x[row] = calculator.power(x[row], y[row]);
+		} catch ( IllegalArgumentException e ) {
+			fail(masked, e, x, failed, row);
+		}
+	}
+
+
+	// The arguments are the registers from first on, the result replaces the first
+	private static void call( MathFunction function, boolean masked, double[][] stack, int first, double[] arguments,
+			boolean[] failed, int rows ) {
+
+		double[] x = stack[first];
+
+		if ( function == BuiltInFunction.SQRT ) {
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] = Math.sqrt(x[row]);
+			}
+		} else if ( function == BuiltInFunction.ABS ) {
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] = Math.abs(x[row]);
+			}
+		} else if ( function == BuiltInFunction.MIN ) {
+			double[] y = stack[first + 1];
+
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] = Math.min(x[row], y[row]);
+			}
+		} else if ( function == BuiltInFunction.MAX ) {
+			double[] y = stack[first + 1];
+
+			for ( int row = 0; row < rows; row++ ) {
+				x[row] = Math.max(x[row], y[row]);
+			}
+		} else {
+			int arity = function.getArity();
+
+			for ( int row = 0; row < rows; row++ ) {
+				for ( int argument = 0; argument < arity; argument++ ) {
+					arguments[argument] = stack[first + argument][row];
+				}
+
+				try {
+					x[row] = function.apply(arguments, 0);
+				} catch ( IllegalArgumentException e ) {
+					fail(masked, e, x, failed, row);
+				}
+			}
+		}
+	}
+
+
+	// Going over a limit is about the whole evaluation, not the row, so it is never masked
+	private static void fail( boolean masked, IllegalArgumentException e, double[] x, boolean[] failed, int row ) {
+
+		if ( !masked || e instanceof LimitExceededException ) {
+			throw e;
+		}
+
+		failed[row] = true;
+		x[row] = Double.NaN;
+	}
+
+}
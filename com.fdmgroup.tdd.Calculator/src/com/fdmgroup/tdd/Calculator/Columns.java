@@ -0,0 +1,110 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Binds every variable of one {@link CompiledExpression} to a column of values, so the
+ * expression can be evaluated for many rows at once with
+ * {@link CompiledExpression#evaluate(Columns, double[])}. Row i of the result is the value of the
+ * expression with each variable set to row i of its column.
+ *
+ * Columns hold the working space of the evaluation, so evaluating again, with the same or new
+ * columns, creates no objects. They are not thread-safe: each thread should use its own columns
+ * from {@link CompiledExpression#newColumns(int)}.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public final class Columns {
+
+	/** What happens to a row that cannot be evaluated, such as one dividing by zero. */
+	public enum ErrorPolicy {
+		/** The exception evaluating that row alone would throw is thrown, as for a single value. */
+		THROW,
+		/** The row is NaN and the other rows are evaluated as usual. */
+		NAN
+	}
+
+	final CompiledExpression owner;
+	final double[][] columns;
+	final int rows;
+	ErrorPolicy errorPolicy = ErrorPolicy.THROW;
+
+	// Working space for one block of rows
+	final double[][] registers;
+	final boolean[] constant;
+	final boolean[] failed;
+	final double[] arguments;
+
+
+	Columns( CompiledExpression owner, int variables, int rows, int frameSize, int maxArity ) {
+
+		if ( rows < 0 ) {
+			throw new IllegalArgumentException("Number of rows cannot be negative.");
+		}
+
+		int block = Math.min(rows, ColumnEvaluator.BLOCK);
+
+		this.owner = owner;
+		this.columns = new double[variables][];
+		this.rows = rows;
+		this.registers = new double[frameSize][block];
+		this.constant = new boolean[frameSize];
+		this.failed = new boolean[block];
+		this.arguments = new double[maxArity];
+	}
+
+
+	/**
+	 * Binds the variable in the given slot to a column. The column is read when evaluating, not
+	 * copied, so changing its values and evaluating again gives the new result.
+	 * @param slot Slot of the variable, see {@link CompiledExpression#slot(String)}
+	 * @param column Values of the variable, at least one per row
+	 * @return These columns, so that calls can be chained.
+	 * @throws IllegalArgumentException If the column is shorter than the number of rows.
+	 */
+
+	public Columns set( int slot, double[] column ) {
+
+		if ( column.length < rows ) {
+			throw new IllegalArgumentException("Column has " + column.length + " values but " + rows + " rows are evaluated.");
+		}
+
+		columns[slot] = column;
+		return this;
+	}
+
+
+	/**
+	 * Binds a variable to a column by name.
+	 * @param name Name of the variable
+	 * @param column Values of the variable, at least one per row
+	 * @return These columns, so that calls can be chained.
+	 * @throws IllegalArgumentException If the expression has no variable with this name, or the
+	 * column is shorter than the number of rows.
+	 */
+
+	public Columns set( String name, double[] column ) {
+		return set(owner.slot(name), column);
+	}
+
+
+	/**
+	 * @param errorPolicy What happens to rows that cannot be evaluated, {@link ErrorPolicy#THROW} by default
+	 * @return These columns, so that calls can be chained.
+	 */
+
+	public Columns setErrorPolicy( ErrorPolicy errorPolicy ) {
+		this.errorPolicy = errorPolicy;
+		return this;
+	}
+
+
+	/**
+	 * @return Number of rows evaluated.
+	 */
+
+	public int getRows() {
+		return rows;
+	}
+
+}
@@ -0,0 +1,268 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.HashMap;
+
+/**
+ * Makes a {@link Program} evaluate each distinct subexpression only once, so that
+ * "(a+b)^2/(a+b)" works out "a+b" a single time.
+ *
+ * The postfix code is first hash-consed into a DAG: every operator with the same instruction and
+ * the same operand nodes becomes the same node, so structurally identical subexpressions share
+ * one node however deeply they are nested. The DAG is then written back in the original
+ * left-to-right order. The first time a shared node is reached its code is written followed by a
+ * {@link Program#STORE}, every later time a {@link Program#LOAD} takes its place.
+ *
+ * Only identical structure is shared. The tree from the {@link Parser} already records that
+ * "^" groups from the right and "*" and "/" from the left, and nothing is reordered, so
+ * "a/b*c" and "a/(b*c)" stay different and every operation keeps its operands and its rounding.
+ * Numbers and variables are never stored, pushing them again is as cheap as a load. Function
+ * calls are shared like operators, as functions always give the same result for the same
+ * arguments; programs calling functions of more than two arguments are left unchanged.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class CommonSubexpressions {
+
+	private final Program program;
+
+	// The DAG, one entry per distinct node
+	private final byte[] instructions;
+	private final double[] numbers;
+	private final int[] slots;
+	private final int[] lefts;
+	private final int[] rights;
+	private final int[] references;
+	private int nodes;
+
+	// Instructions before and after sharing, operators only
+	private int operators;
+	private int sharedOperators;
+
+
+	private CommonSubexpressions( Program program ) {
+		this.program = program;
+		this.instructions = new byte[program.length];
+		this.numbers = new double[program.length];
+		this.slots = new int[program.length];
+		this.lefts = new int[program.length];
+		this.rights = new int[program.length];
+		this.references = new int[program.length];
+	}
+
+
+	/**
+	 * @param program Program to be rewritten, which is not changed
+	 * @return The program with every repeated subexpression evaluated once, or the same program
+	 * if nothing is repeated.
+	 */
+
+	static Program eliminate( Program program ) {
+
+		if ( hasWideCalls(program) ) {
+			return program;
+		}
+
+		CommonSubexpressions dag = new CommonSubexpressions(program);
+		int root = dag.build();
+
+		if ( dag.sharedOperators == dag.operators ) {
+			return program;
+		}
+
+		return dag.write(root);
+	}
+
+
+	/**
+	 * @param original Program before {@link #eliminate(Program)}
+	 * @param eliminated Program after it
+	 * @return Number of repeated operator nodes that were collapsed into one.
+	 */
+
+	static int collapsed( Program original, Program eliminated ) {
+		return operatorCount(original) - operatorCount(eliminated);
+	}
+
+
+	// Hash-conses the postfix code, returning the node of the whole expression
+	private int build() {
+		HashMap<Key, Integer> known = new HashMap<>();
+		int[] stack = new int[program.maxStack];
+		int top = -1;
+
+		for ( int pc = 0; pc < program.length; pc++ ) {
+			byte instruction = program.code[pc];
+			int left = -1;
+			int right = -1;
+
+			int arity = instruction == Program.CALL ? program.functions[program.slots[pc]].getArity() : 0;
+
+			if ( instruction == Program.NUMBER || instruction == Program.VARIABLE ) {
+				top++;
+			} else if ( instruction == Program.NEGATE || arity == 1 ) {
+				left = stack[top];
+				operators++;
+			} else {
+				right = stack[top--];
+				left = stack[top];
+				operators++;
+			}
+
+			// Only numbers, variables and calls have a value or slot, operators are told apart by their operands
+			long number = instruction == Program.NUMBER ? Double.doubleToRawLongBits(program.numbers[pc]) : 0;
+			int slot = instruction == Program.VARIABLE || instruction == Program.CALL ? program.slots[pc] : 0;
+
+			Key key = new Key(instruction, number, slot, left, right);
+			Integer node = known.get(key);
+
+			if ( node == null ) {
+				node = nodes++;
+				known.put(key, node);
+				instructions[node] = instruction;
+				numbers[node] = Double.longBitsToDouble(number);
+				slots[node] = slot;
+				lefts[node] = left;
+				rights[node] = right;
+
+				if ( left >= 0 ) {
+					references[left]++;
+					sharedOperators++;
+				}
+
+				if ( right >= 0 ) {
+					references[right]++;
+				}
+			}
+
+			stack[top] = node;
+		}
+
+		return stack[0];
+	}
+
+
+	// Writes the DAG back as postfix code, depth first and left to right, without recursion
+	private Program write( int root ) {
+		byte[] code = new byte[program.length];
+		double[] values = new double[program.length];
+		int[] operands = new int[program.length];
+		int length = 0;
+
+		int[] temporary = new int[nodes];
+		int temporaries = 0;
+
+		// Each entry is a node and whether its operands have been written
+		int[] pending = new int[2 * program.length + 1];
+		int top = -1;
+		pending[++top] = root << 1;
+
+		while ( top >= 0 ) {
+			int entry = pending[top--];
+			int node = entry >> 1;
+			boolean operandsWritten = (entry & 1) != 0;
+
+			if ( temporary[node] > 0 ) {
+				code[length] = Program.LOAD;
+				operands[length++] = temporary[node] - 1;
+				continue;
+			}
+
+			if ( !operandsWritten && lefts[node] >= 0 ) {
+				pending[++top] = (node << 1) | 1;
+
+				if ( rights[node] >= 0 ) {
+					pending[++top] = rights[node] << 1;
+				}
+
+				pending[++top] = lefts[node] << 1;
+				continue;
+			}
+
+			code[length] = instructions[node];
+			values[length] = numbers[node];
+			operands[length++] = slots[node];
+
+			// Operators used more than once keep their value for the later uses
+			if ( references[node] > 1 && lefts[node] >= 0 ) {
+				temporary[node] = ++temporaries;
+				code[length] = Program.STORE;
+				operands[length++] = temporaries - 1;
+			}
+		}
+
+		return new Program(code, values, null, operands, length, Program.stackDepth(code, operands, program.functions, length),
+				temporaries, program.variables, program.functions, program.nesting, program.tokens);
+	}
+
+
+	// Nodes hold at most two operands, so calls of functions taking more are left as they are
+	private static boolean hasWideCalls( Program program ) {
+
+		for ( int pc = 0; pc < program.length; pc++ ) {
+			if ( program.code[pc] == Program.CALL && program.functions[program.slots[pc]].getArity() > 2 ) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+
+	private static int operatorCount( Program program ) {
+		int count = 0;
+
+		for ( int pc = 0; pc < program.length; pc++ ) {
+			byte instruction = program.code[pc];
+
+			if ( instruction != Program.NUMBER && instruction != Program.VARIABLE
+					&& instruction != Program.STORE && instruction != Program.LOAD ) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+
+	// Identity of a node: its instruction, its number or slot, and the nodes of its operands
+	private static final class Key {
+
+		final byte instruction;
+		final long number;
+		final int slot;
+		final int left;
+		final int right;
+
+		Key( byte instruction, long number, int slot, int left, int right ) {
+			this.instruction = instruction;
+			this.number = number;
+			this.slot = slot;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public boolean equals( Object other ) {
+
+			if ( !(other instanceof Key) ) {
+				return false;
+			}
+
+			Key key = (Key) other;
+			return instruction == key.instruction && number == key.number && slot == key.slot
+					&& left == key.left && right == key.right;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = instruction;
+			hash = 31 * hash + Long.hashCode(number);
+			hash = 31 * hash + slot;
+			hash = 31 * hash + left;
+			return 31 * hash + right;
+		}
+	}
+
+}
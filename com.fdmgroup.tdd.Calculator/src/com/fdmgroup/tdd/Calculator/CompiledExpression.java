@@ -0,0 +1,301 @@
+package com.fdmgroup.tdd.Calculator;
+
+import com.fdmgroup.tdd.Calculator.EvaluationMetrics.Stage;
+
+/**
+ * An expression that has already been tokenized and parsed by {@link ICalculator#compile(String)}.
+ * Evaluating it only runs the parsed operations, no text is read again. Constant parts of the
+ * expression are worked out once while compiling, see {@link Optimizer}, and parts repeated in
+ * the expression are evaluated once per call, see {@link CommonSubexpressions}.
+ * 
+ * Variables are given a slot each when the expression is compiled. Their values are set on a
+ * {@link Bindings} object, which can be updated and evaluated again in a loop without creating
+ * any garbage:
+ * 
+ * <pre>
+ * CompiledExpression interest = calculator.compile("principal * rate");
+ * int rate = interest.slot("rate");
+ * Bindings bindings = interest.newBindings().set("principal", 1000);
+ * 
+ * for ( double r = 0.01; r &lt; 0.1; r += 0.01 ) {
+ *     bindings.set(rate, r);
+ *     double result = interest.evaluate(bindings);
+ * }
+ * </pre>
+ * 
+ * To evaluate one expression over many rows of values, bind each variable to a column with
+ * {@link #newColumns(int)} and evaluate all rows in one call with {@link #evaluate(Columns, double[])}.
+ * 
+ * Once an expression has been evaluated {@link #COMPILE_THRESHOLD} times with bindings it is turned
+ * into JVM bytecode by {@link BytecodeCompiler}, which gives the same results faster.
+ * 
+ * Instances can be shared freely between threads.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public final class CompiledExpression {
+
+	/** Evaluations with bindings after which the expression is compiled to bytecode. */
+	static final int COMPILE_THRESHOLD = 10_000;
+
+	private final String expression;
+	private final Program program;
+	private final Calculator calculator;
+	private final int originalNodeCount;
+	private final int collapsedNodeCount;
+
+	// Counted without synchronization, a lost update only delays compiling a little
+	private int evaluations;
+	private volatile ExpressionFunction function;
+
+
+	/**
+	 * Simplifies the parsed program with the {@link Optimizer} and evaluates repeated parts once
+	 * with {@link CommonSubexpressions} before storing it.
+	 * @throws IllegalArgumentException If a constant part of the expression divides by zero or raises zero to zero.
+	 */
+
+	CompiledExpression( String expression, Program program, Calculator calculator ) {
+		long start = EvaluationMetrics.start();
+		this.expression = expression;
+		Program optimized = Optimizer.optimize(program, calculator);
+		this.program = CommonSubexpressions.eliminate(optimized);
+		this.calculator = calculator;
+		this.originalNodeCount = program.length;
+		this.collapsedNodeCount = CommonSubexpressions.collapsed(optimized, this.program);
+		EvaluationMetrics.record(Stage.OPTIMIZE, start, expression.length(), program.nesting);
+	}
+
+
+	/**
+	 * Evaluates the compiled expression.
+	 * @return The value of the expression.
+	 * @throws IllegalArgumentException If the expression has variables, or if dividing by zero or raising zero to zero.
+	 */
+
+	public double evaluate() {
+
+		if ( program.variables.length > 0 ) {
+			throw new IllegalArgumentException("Variable '" + program.variables[0] + "' has no value. Use evaluate(Bindings).");
+		}
+
+		long start = EvaluationMetrics.start();
+		double value = program.execute(calculator, new double[program.frameSize()], null);
+		EvaluationMetrics.record(Stage.EVALUATE, start, expression.length(), program.nesting);
+		return value;
+	}
+
+
+	/**
+	 * Evaluates the compiled expression with the variable values in the given bindings.
+	 * @param bindings Bindings created by {@link #newBindings()} of this expression
+	 * @return The value of the expression.
+	 * @throws IllegalArgumentException If the bindings belong to another expression, or if dividing by zero or raising zero to zero.
+	 */
+
+	public double evaluate( Bindings bindings ) {
+
+		if ( bindings.owner != this ) {
+			throw new IllegalArgumentException("Bindings were created for a different expression.");
+		}
+
+		long start = EvaluationMetrics.start();
+		ExpressionFunction compiled = function;
+		double value;
+
+		if ( compiled != null ) {
+			value = compiled.eval(bindings.values);
+		} else {
+
+			if ( ++evaluations == COMPILE_THRESHOLD ) {
+				function = BytecodeCompiler.compile(program, calculator);
+			}
+
+			value = program.execute(calculator, bindings.stack, bindings.values);
+		}
+
+		EvaluationMetrics.record(Stage.EVALUATE, start, expression.length(), program.nesting);
+		return value;
+	}
+
+
+	/**
+	 * Evaluates the compiled expression for every row of the given columns, giving the same value
+	 * for each row as {@link #evaluate(Bindings)} with the values of that row. All rows are worked
+	 * out together, an operation at a time, see {@link ColumnEvaluator}.
+	 * @param columns Columns created by {@link #newColumns(int)} of this expression, with every variable set
+	 * @return A new array with the value of each row.
+	 * @throws IllegalArgumentException If the columns belong to another expression or a variable
+	 * has no column, or if a row divides by zero or raises zero to zero and the error policy of the
+	 * columns is {@link Columns.ErrorPolicy#THROW}.
+	 */
+
+	public double[] evaluate( Columns columns ) {
+		return evaluate(columns, new double[columns.rows]);
+	}
+
+
+	/**
+	 * Evaluates the compiled expression for every row of the given columns into an existing array,
+	 * like {@link #evaluate(Columns)}, so that evaluating again creates no garbage.
+	 * @param columns Columns created by {@link #newColumns(int)} of this expression, with every variable set
+	 * @param output Receives the value of each row, at least as long as the number of rows
+	 * @return The output array.
+	 * @throws IllegalArgumentException If the columns belong to another expression, a variable has
+	 * no column or the output is too short, or if a row divides by zero or raises zero to zero and
+	 * the error policy of the columns is {@link Columns.ErrorPolicy#THROW}.
+	 */
+
+	public double[] evaluate( Columns columns, double[] output ) {
+
+		if ( columns.owner != this ) {
+			throw new IllegalArgumentException("Columns were created for a different expression.");
+		}
+
+		for ( int slot = 0; slot < program.variables.length; slot++ ) {
+			if ( columns.columns[slot] == null ) {
+				throw new IllegalArgumentException("Variable '" + program.variables[slot] + "' has no column.");
+			}
+		}
+
+		if ( output.length < columns.rows ) {
+			throw new IllegalArgumentException("Output has room for " + output.length + " values but " + columns.rows + " rows are evaluated.");
+		}
+
+		long start = EvaluationMetrics.start();
+		ColumnEvaluator.evaluate(program, calculator, columns, output);
+		EvaluationMetrics.record(Stage.EVALUATE, start, expression.length(), program.nesting);
+		return output;
+	}
+
+
+	/**
+	 * Compiles the expression to JVM bytecode, for loops where even evaluating with bindings is too
+	 * slow. The function reads the variables by slot from the array it is given and is safe to call
+	 * from many threads. Very large expressions, whose bytecode the JIT would not compile, are
+	 * evaluated by the interpreter instead.
+	 * 
+	 * Expressions evaluated often through {@link #evaluate(Bindings)} are compiled the same way
+	 * automatically.
+	 * 
+	 * @return A function evaluating this expression.
+	 */
+
+	public ExpressionFunction toFunction() {
+		ExpressionFunction compiled = function;
+
+		if ( compiled == null ) {
+			compiled = BytecodeCompiler.compile(program, calculator);
+		}
+
+		if ( compiled == null ) {
+			return values -> program.execute(calculator, new double[program.frameSize()], values);
+		}
+
+		function = compiled;
+		return compiled;
+	}
+
+
+	/**
+	 * @return New bindings for the variables of this expression, all set to zero.
+	 */
+
+	public Bindings newBindings() {
+		return new Bindings(this, program.variables.length, program.frameSize());
+	}
+
+
+	/**
+	 * @param rows Number of rows to be evaluated
+	 * @return New columns for the variables of this expression, with no column set yet.
+	 * @throws IllegalArgumentException If the number of rows is negative.
+	 */
+
+	public Columns newColumns( int rows ) {
+		int maxArity = 0;
+
+		// Programs without calls have no functions
+		if ( program.functions != null ) {
+			for ( MathFunction function : program.functions ) {
+				maxArity = Math.max(maxArity, function.getArity());
+			}
+		}
+
+		return new Columns(this, program.variables.length, rows, program.frameSize(), maxArity);
+	}
+
+
+	/**
+	 * Finds the slot of a variable, to be used with {@link Bindings#set(int, double)}.
+	 * @param name Name of the variable
+	 * @return The slot of the variable.
+	 * @throws IllegalArgumentException If the expression has no variable with this name.
+	 */
+
+	public int slot( String name ) {
+
+		for ( int slot = 0; slot < program.variables.length; slot++ ) {
+			if ( program.variables[slot].equals(name) ) {
+				return slot;
+			}
+		}
+
+		throw new IllegalArgumentException("Unknown variable '" + name + "'.");
+	}
+
+
+	/**
+	 * @return The names of the variables in slot order.
+	 */
+
+	public String[] getVariables() {
+		return program.variables.clone();
+	}
+
+
+	/**
+	 * @return The expression this was compiled from.
+	 */
+
+	public String getExpression() {
+		return expression;
+	}
+
+
+	/**
+	 * @return Number of instructions evaluated, after constants were folded, identities removed and
+	 * repeated parts replaced by loads of their value.
+	 */
+
+	public int getNodeCount() {
+		return program.length;
+	}
+
+
+	/**
+	 * @return Number of operands and operators of the expression as it was written.
+	 */
+
+	public int getOriginalNodeCount() {
+		return originalNodeCount;
+	}
+
+
+	/**
+	 * @return Number of operators that repeated an earlier identical subexpression and are no longer evaluated.
+	 */
+
+	public int getCollapsedNodeCount() {
+		return collapsedNodeCount;
+	}
+
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+}
@@ -0,0 +1,211 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.time.Duration;
+
+import com.fdmgroup.tdd.Calculator.LimitExceededException.Limit;
+
+/**
+ * Bounds on the work a {@link Calculator} does for one expression, so that a single hostile input
+ * cannot hold a thread of a shared evaluator for long. Going over a bound throws a
+ * {@link LimitExceededException} naming it.
+ *
+ * The length is checked before the text is read, the nesting depth and token count while it is
+ * tokenized, so over-long or deeply nested input is rejected after reading no more of it than
+ * the limit. Exponents are checked by {@link Calculator#power(double, double)} and root iterations
+ * by the Newton-Raphson root finder. The time limit, and interruption of the evaluating thread,
+ * are checked while the text is tokenized, between the stages of evaluating it, and between
+ * blocks of rows of {@link Columns}.
+ *
+ * Limits are immutable. {@link #NONE} has no bounds, and each {@code with} method returns a copy
+ * with one bound changed:
+ *
+ * <pre>
+ * EvaluationLimits limits = EvaluationLimits.NONE
+ *     .withMaxLength(10_000)
+ *     .withMaxDepth(100)
+ *     .withMaxExponent(1_000)
+ *     .withTimeout(Duration.ofMillis(50));
+ * Calculator calculator = new Calculator(limits);
+ * </pre>
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public final class EvaluationLimits {
+
+	/** No bounds, the default of every calculator. Roots still stop after 64 steps, as they always have. */
+	public static final EvaluationLimits NONE = new EvaluationLimits(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+			Double.POSITIVE_INFINITY, Exponents.MAX_ITERATIONS, 0);
+
+	final int maxLength;
+	final int maxDepth;
+	final int maxTokens;
+	final double maxExponent;
+	final int maxRootIterations;
+
+	// Zero when there is no time limit
+	final long timeoutNanos;
+
+
+	private EvaluationLimits( int maxLength, int maxDepth, int maxTokens, double maxExponent, int maxRootIterations,
+			long timeoutNanos ) {
+		this.maxLength = maxLength;
+		this.maxDepth = maxDepth;
+		this.maxTokens = maxTokens;
+		this.maxExponent = maxExponent;
+		this.maxRootIterations = maxRootIterations;
+		this.timeoutNanos = timeoutNanos;
+	}
+
+
+	/**
+	 * @param maxLength Most characters an expression may have
+	 * @return A copy of these limits with the given maximum length.
+	 */
+
+	public EvaluationLimits withMaxLength( int maxLength ) {
+		return new EvaluationLimits(positive(maxLength), maxDepth, maxTokens, maxExponent, maxRootIterations, timeoutNanos);
+	}
+
+
+	/**
+	 * @param maxDepth Deepest nesting of parentheses, including the parentheses of function calls
+	 * @return A copy of these limits with the given maximum depth.
+	 */
+
+	public EvaluationLimits withMaxDepth( int maxDepth ) {
+		return new EvaluationLimits(maxLength, positive(maxDepth), maxTokens, maxExponent, maxRootIterations, timeoutNanos);
+	}
+
+
+	/**
+	 * @param maxTokens Most numbers, names, operators, signs, parentheses and commas an expression may have
+	 * @return A copy of these limits with the given maximum token count.
+	 */
+
+	public EvaluationLimits withMaxTokens( int maxTokens ) {
+		return new EvaluationLimits(maxLength, maxDepth, positive(maxTokens), maxExponent, maxRootIterations, timeoutNanos);
+	}
+
+
+	/**
+	 * @param maxExponent Largest magnitude of an exponent, at least 1
+	 * @return A copy of these limits with the given maximum exponent.
+	 */
+
+	public EvaluationLimits withMaxExponent( double maxExponent ) {
+
+		if ( !(maxExponent >= 1) ) {
+			throw new IllegalArgumentException("Maximum exponent must be at least 1.");
+		}
+
+		return new EvaluationLimits(maxLength, maxDepth, maxTokens, maxExponent, maxRootIterations, timeoutNanos);
+	}
+
+
+	/**
+	 * @param maxRootIterations Most Newton-Raphson steps of one root, no more than 64 are ever taken
+	 * @return A copy of these limits with the given maximum root iterations.
+	 */
+
+	public EvaluationLimits withMaxRootIterations( int maxRootIterations ) {
+		return new EvaluationLimits(maxLength, maxDepth, maxTokens, maxExponent, positive(maxRootIterations), timeoutNanos);
+	}
+
+
+	/**
+	 * @param timeout Longest time evaluating one expression, or one set of columns, may take
+	 * @return A copy of these limits with the given timeout.
+	 */
+
+	public EvaluationLimits withTimeout( Duration timeout ) {
+
+		if ( timeout.isNegative() || timeout.isZero() ) {
+			throw new IllegalArgumentException("Timeout must be positive.");
+		}
+
+		long nanos = timeout.compareTo(Duration.ofNanos(Long.MAX_VALUE)) >= 0 ? Long.MAX_VALUE : timeout.toNanos();
+		return new EvaluationLimits(maxLength, maxDepth, maxTokens, maxExponent, maxRootIterations, nanos);
+	}
+
+
+	/**
+	 * @return The time by which an evaluation starting now must finish, in {@link System#nanoTime()}
+	 * units, meaningless when there is no time limit.
+	 */
+
+	long deadline() {
+		return timeoutNanos == 0 ? 0 : System.nanoTime() + timeoutNanos;
+	}
+
+
+	/**
+	 * Checks whether the evaluating thread was interrupted or the deadline has passed. Cheap
+	 * enough to call every few thousand steps.
+	 * @param deadline Deadline from {@link #deadline()}
+	 * @throws LimitExceededException If the thread was interrupted or the deadline has passed.
+	 */
+
+	void checkTime( long deadline ) {
+
+		// The interrupt is left set for the code that asked for it
+		if ( Thread.currentThread().isInterrupted() ) {
+			throw new LimitExceededException(Limit.CANCELLED, "Evaluation was cancelled.");
+		}
+
+		if ( timeoutNanos != 0 && System.nanoTime() - deadline > 0 ) {
+			throw new LimitExceededException(Limit.TIME, "Evaluation took longer than " + Duration.ofNanos(timeoutNanos) + ".");
+		}
+	}
+
+
+	void checkLength( int length ) {
+
+		if ( length > maxLength ) {
+			throw new LimitExceededException(Limit.LENGTH, "Expression has " + length + " characters, at most " + maxLength + " are allowed.");
+		}
+	}
+
+
+	void checkDepth( int depth, int position ) {
+
+		if ( depth > maxDepth ) {
+			throw new LimitExceededException(Limit.DEPTH, "Parentheses nested deeper than " + maxDepth + " at position " + position + ".");
+		}
+	}
+
+
+	void checkTokens( int count, int position ) {
+
+		if ( count > maxTokens ) {
+			throw new LimitExceededException(Limit.TOKENS, "More than " + maxTokens + " tokens at position " + position + ".");
+		}
+	}
+
+
+	void checkExponent( double exponent ) {
+
+		if ( Math.abs(exponent) > maxExponent ) {
+			throw new LimitExceededException(Limit.EXPONENT, "Exponent " + exponent + " is larger than " + maxExponent + ".");
+		}
+	}
+
+
+	private static int positive( int limit ) {
+
+		if ( limit <= 0 ) {
+			throw new IllegalArgumentException("Limit must be positive.");
+		}
+
+		return limit;
+	}
+
+
+	@Override
+	public String toString() {
+		return "EvaluationLimits[length=" + maxLength + ", depth=" + maxDepth + ", tokens=" + maxTokens + ", exponent=" + maxExponent
+				+ ", rootIterations=" + maxRootIterations + ", timeout=" + (timeoutNanos == 0 ? "none" : timeoutNanos + "ns") + "]";
+	}
+
+}
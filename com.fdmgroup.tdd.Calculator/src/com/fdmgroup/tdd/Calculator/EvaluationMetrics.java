@@ -0,0 +1,362 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Counts and times every stage of evaluating an expression: tokenizing, parsing, optimizing,
+ * evaluating and taking roots. For each stage it keeps the number of calls, the total and maximum
+ * time, a latency histogram and the number of characters processed, or of iterations for roots,
+ * all in striped counters so that threads do not contend on them.
+ *
+ * Metrics are off by default. They are switched on with {@link #setEnabled(boolean)} or by starting
+ * the JVM with {@code -Dcalculator.metrics=true}. While off, every stage only reads one volatile flag.
+ * Once on they are published as MBeans under {@code com.fdmgroup.tdd.Calculator:type=EvaluationMetrics},
+ * and every stage also emits a {@code com.fdmgroup.tdd.Calculator.Stage} JFR event with the length
+ * and parenthesis nesting depth of the expression.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public final class EvaluationMetrics {
+
+	/** Stages of the evaluation pipeline. */
+	public enum Stage {
+		/** Turning the text into tokens. */
+		TOKENIZE,
+		/** Building the postfix program from the tokens. */
+		PARSE,
+		/** Folding constants when compiling. */
+		OPTIMIZE,
+		/** Running the program. */
+		EVALUATE,
+		/** Newton's method for fractional exponents, counting its iterations rather than characters. */
+		ROOT
+	}
+
+	private static final String DOMAIN = "com.fdmgroup.tdd.Calculator";
+
+	// Read on every stage. Volatile so that switching it from another thread, such as over JMX, is
+	// seen by loops already running; on x86 a volatile read is an ordinary load
+	static volatile boolean enabled;
+
+	private static final StageMetrics[] STAGES = new StageMetrics[Stage.values().length];
+
+	static {
+		for ( Stage stage : Stage.values() ) {
+			STAGES[stage.ordinal()] = new StageMetrics();
+		}
+
+		if ( Boolean.getBoolean("calculator.metrics") ) {
+			setEnabled(true);
+		}
+	}
+
+
+	private EvaluationMetrics() {
+	}
+
+
+	/**
+	 * Switches recording on or off. Switching it on also registers the MBeans with the platform
+	 * MBean server, if that has not happened yet.
+	 * @param on Whether to record metrics
+	 */
+
+	public static synchronized void setEnabled( boolean on ) {
+
+		if ( on ) {
+			registerMBeans();
+		}
+
+		enabled = on;
+	}
+
+
+	/**
+	 * @return Whether metrics are being recorded.
+	 */
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+
+	/**
+	 * @param stage Stage of the pipeline
+	 * @return The metrics recorded for the stage.
+	 */
+
+	public static StageMetricsMBean get( Stage stage ) {
+		return STAGES[stage.ordinal()];
+	}
+
+
+	/**
+	 * Clears the metrics of every stage.
+	 */
+
+	public static void reset() {
+
+		for ( StageMetrics stage : STAGES ) {
+			stage.reset();
+		}
+	}
+
+
+	/**
+	 * @return The current time to pass to {@link #record}, or 0 when metrics are off.
+	 */
+
+	static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+
+	/**
+	 * Records one run of a stage that began at the given time.
+	 * @param stage Stage that ran
+	 * @param start Value of {@link #start()} when the stage began
+	 * @param length Length of the expression
+	 * @param nesting Deepest parenthesis nesting of the expression
+	 */
+
+	static void record( Stage stage, long start, int length, int nesting ) {
+
+		if ( start != 0 ) {
+			record(stage, System.nanoTime() - start, length, nesting, 0);
+		}
+	}
+
+
+	/**
+	 * Records one run of {@link Stage#ROOT} that began at the given time.
+	 * @param start Value of {@link #start()} when the root finder began
+	 * @param iterations Newton-Raphson steps taken
+	 */
+
+	static void recordRoot( long start, int iterations ) {
+
+		if ( start != 0 ) {
+			record(Stage.ROOT, System.nanoTime() - start, 0, 0, iterations);
+		}
+	}
+
+
+	private static void record( Stage stage, long nanos, int length, int nesting, int iterations ) {
+		STAGES[stage.ordinal()].add(nanos, length, iterations);
+
+		StageEvent event = new StageEvent();
+
+		if ( event.shouldCommit() ) {
+			event.stage = stage.name();
+			event.time = nanos;
+			event.expressionLength = length;
+			event.nestingDepth = nesting;
+			event.iterations = iterations;
+			event.commit();
+		}
+	}
+
+
+	private static void registerMBeans() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		for ( Stage stage : Stage.values() ) {
+			try {
+				ObjectName name = new ObjectName(DOMAIN + ":type=EvaluationMetrics,stage=" + stage.name().toLowerCase());
+				server.registerMBean(new StandardMBean(get(stage), StageMetricsMBean.class), name);
+			} catch ( InstanceAlreadyExistsException e ) {
+				// Registered when metrics were switched on before
+			} catch ( JMException e ) {
+				throw new IllegalStateException("Metrics could not be registered.", e);
+			}
+		}
+	}
+
+
+	/**
+	 * Metrics of one stage, as published over JMX. Times are in nanoseconds.
+	 */
+
+	public interface StageMetricsMBean {
+
+		/** @return Number of times the stage ran. */
+		long getCount();
+
+		/** @return Total time spent in the stage. */
+		long getTotalNanos();
+
+		/** @return Average time per run. */
+		double getMeanNanos();
+
+		/** @return Longest run. */
+		long getMaxNanos();
+
+		/** @return Median time, rounded up to a power of two. */
+		long getMedianNanos();
+
+		/** @return 99th percentile time, rounded up to a power of two. */
+		long getP99Nanos();
+
+		/** @return Total characters of the expressions processed, zero for roots. */
+		long getCharacters();
+
+		/** @return Total Newton-Raphson iterations, zero for every stage but roots. */
+		long getIterations();
+
+		/** @return Runs per second since the metrics were last reset. */
+		double getThroughput();
+	}
+
+
+	// Counters and a histogram with one bucket per power of two nanoseconds
+	private static final class StageMetrics implements StageMetricsMBean {
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAdder characters = new LongAdder();
+		private final LongAdder iterations = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		private final LongAdder[] buckets = new LongAdder[64];
+		private volatile long since = System.nanoTime();
+
+		StageMetrics() {
+			for ( int i = 0; i < buckets.length; i++ ) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void add( long nanos, int length, int steps ) {
+			count.increment();
+			totalNanos.add(nanos);
+			characters.add(length);
+			iterations.add(steps);
+			maxNanos.accumulate(nanos);
+			buckets[64 - Long.numberOfLeadingZeros(Math.max(nanos, 1) - 1)].increment();
+		}
+
+		void reset() {
+			count.reset();
+			totalNanos.reset();
+			characters.reset();
+			iterations.reset();
+			maxNanos.reset();
+
+			for ( LongAdder bucket : buckets ) {
+				bucket.reset();
+			}
+
+			since = System.nanoTime();
+		}
+
+		@Override
+		public long getCount() {
+			return count.sum();
+		}
+
+		@Override
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		@Override
+		public double getMeanNanos() {
+			long runs = count.sum();
+			return runs == 0 ? 0 : (double) totalNanos.sum() / runs;
+		}
+
+		@Override
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		@Override
+		public long getMedianNanos() {
+			return percentile(0.5);
+		}
+
+		@Override
+		public long getP99Nanos() {
+			return percentile(0.99);
+		}
+
+		@Override
+		public long getCharacters() {
+			return characters.sum();
+		}
+
+		@Override
+		public long getIterations() {
+			return iterations.sum();
+		}
+
+		@Override
+		public double getThroughput() {
+			return count.sum() * 1e9 / Math.max(1, System.nanoTime() - since);
+		}
+
+		// Upper bound of the bucket holding the given fraction of the runs
+		private long percentile( double fraction ) {
+			long[] counts = new long[buckets.length];
+			long total = 0;
+
+			for ( int i = 0; i < buckets.length; i++ ) {
+				counts[i] = buckets[i].sum();
+				total += counts[i];
+			}
+
+			long seen = 0;
+
+			for ( int i = 0; i < counts.length; i++ ) {
+				seen += counts[i];
+
+				if ( seen > 0 && seen >= fraction * total ) {
+					return i == 63 ? Long.MAX_VALUE : 1L << i;
+				}
+			}
+
+			return 0;
+		}
+	}
+
+
+	// One run of a stage, visible in Java Flight Recorder
+	@Name(DOMAIN + ".Stage")
+	@Label("Calculator Stage")
+	@Category("Calculator")
+	@Description("One stage of evaluating an expression")
+	static final class StageEvent extends jdk.jfr.Event {
+
+		@Label("Stage")
+		String stage;
+
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+
+		@Label("Expression Length")
+		int expressionLength;
+
+		@Label("Nesting Depth")
+		int nestingDepth;
+
+		@Label("Iterations")
+		int iterations;
+	}
+
+}
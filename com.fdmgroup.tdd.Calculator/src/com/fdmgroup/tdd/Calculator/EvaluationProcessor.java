@@ -0,0 +1,324 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Evaluates a stream of expressions published by a {@link Flow.Publisher}, such as a message
+ * consumer, and publishes a {@link Result} for each one to a single subscriber. Every expression
+ * gets its own result, so an invalid expression is reported in it and the stream carries on.
+ *
+ * Expressions are evaluated on the given executor, many at a time. Memory stays bounded by the
+ * buffer size: no more expressions are requested from the publisher than there is room for in
+ * the buffer, and room is only made when the subscriber takes results out with
+ * {@link Flow.Subscription#request(long)}. A slow subscriber therefore slows the publisher down
+ * instead of letting results pile up.
+ *
+ * Results are published in the order the expressions arrived, or, if the order does not matter,
+ * as soon as each is evaluated, so a slow expression does not hold back faster ones behind it.
+ * When the publisher completes or fails, the subscriber is told so after the results of every
+ * expression received before.
+ *
+ * <pre>
+ * EvaluationProcessor processor = new EvaluationProcessor(calculator, executor, 256, false);
+ * consumer.subscribe(processor);
+ * processor.subscribe(resultSubscriber);
+ * </pre>
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public final class EvaluationProcessor implements Flow.Processor<String, Result> {
+
+	private final ICalculator calculator;
+	private final Executor executor;
+	private final boolean ordered;
+
+	// Results not yet published, at the index of their sequence number modulo the buffer size
+	private final AtomicReferenceArray<Result> buffer;
+	private final int size;
+
+	// Expressions requested from the publisher at a time, once as many results have been published
+	private final int replenish;
+
+	private volatile Flow.Subscription upstream;
+	private final AtomicReference<Flow.Subscriber<? super Result>> downstream = new AtomicReference<>();
+
+	// Set once the subscriber has been given its subscription, results are only published to it then
+	private volatile Flow.Subscriber<? super Result> subscriber;
+
+	// Results the subscriber has asked for and not received yet
+	private final AtomicLong requested = new AtomicLong();
+
+	// Only one thread publishes at a time, the others leave their work to it
+	private final AtomicInteger work = new AtomicInteger();
+
+	// Expressions received, written by the publisher's thread only
+	private volatile long received;
+
+	// Sequence numbers of results evaluated when the order does not matter
+	private final AtomicLong evaluated = new AtomicLong();
+
+	// Results published, written by the thread publishing only
+	private volatile long published;
+
+	// Only used by the thread publishing
+	private int consumed;
+
+	private volatile boolean done;
+	private volatile Throwable error;
+	private volatile boolean cancelled;
+	private volatile IllegalArgumentException invalidRequest;
+
+
+	/**
+	 * Creates a processor evaluating on the common fork/join pool and publishing results in order.
+	 * @param calculator Calculator used to evaluate the expressions, must be safe to share between threads
+	 */
+
+	public EvaluationProcessor( ICalculator calculator ) {
+		this(calculator, ForkJoinPool.commonPool(), Flow.defaultBufferSize(), true);
+	}
+
+
+	/**
+	 * @param calculator Calculator used to evaluate the expressions, must be safe to share between threads
+	 * @param executor Executor evaluating the expressions
+	 * @param bufferSize Most expressions requested from the publisher and not yet published as results
+	 * @param ordered True to publish results in the order the expressions arrived, false to publish
+	 * each as soon as it is evaluated
+	 */
+
+	public EvaluationProcessor( ICalculator calculator, Executor executor, int bufferSize, boolean ordered ) {
+
+		if ( bufferSize <= 0 ) {
+			throw new IllegalArgumentException("Buffer size must be positive.");
+		}
+
+		this.calculator = Objects.requireNonNull(calculator);
+		this.executor = Objects.requireNonNull(executor);
+		this.ordered = ordered;
+		this.buffer = new AtomicReferenceArray<>(bufferSize);
+		this.size = bufferSize;
+		this.replenish = Math.max(1, bufferSize / 2);
+	}
+
+
+	/**
+	 * Subscribes the only subscriber of the results. Any later subscriber is sent an
+	 * {@link IllegalStateException}.
+	 */
+
+	@Override
+	public void subscribe( Flow.Subscriber<? super Result> subscriber ) {
+		Objects.requireNonNull(subscriber);
+
+		if ( !downstream.compareAndSet(null, subscriber) ) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request( long n ) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("Only one subscriber is supported."));
+			return;
+		}
+
+		subscriber.onSubscribe(new Subscription());
+		this.subscriber = subscriber;
+		drain();
+	}
+
+
+	@Override
+	public void onSubscribe( Flow.Subscription subscription ) {
+
+		if ( upstream != null ) {
+			subscription.cancel();
+			return;
+		}
+
+		upstream = subscription;
+
+		if ( cancelled ) {
+			subscription.cancel();
+			return;
+		}
+
+		subscription.request(size);
+	}
+
+
+	/**
+	 * Evaluates the expression. A publisher sending more expressions than were requested would
+	 * overwrite results not yet published, so it is cancelled instead and the subscriber is sent
+	 * an {@link IllegalStateException} after the results of the expressions received before.
+	 */
+
+	@Override
+	public void onNext( String expression ) {
+		Objects.requireNonNull(expression);
+
+		if ( done ) {
+			return;
+		}
+
+		long sequence = received;
+
+		if ( sequence - published >= size ) {
+			cancelUpstream();
+			error = new IllegalStateException("Publisher sent more than the " + size + " expressions requested.");
+			done = true;
+			drain();
+			return;
+		}
+
+		received = sequence + 1;
+
+		try {
+			executor.execute(() -> complete(sequence, Result.of(calculator, expression)));
+		} catch ( RejectedExecutionException e ) {
+			complete(sequence, Result.failure(expression, e));
+		}
+	}
+
+
+	@Override
+	public void onError( Throwable throwable ) {
+		Objects.requireNonNull(throwable);
+
+		// Keeps the error of a publisher cancelled for sending too much
+		if ( done ) {
+			return;
+		}
+
+		error = throwable;
+		done = true;
+		drain();
+	}
+
+
+	@Override
+	public void onComplete() {
+		done = true;
+		drain();
+	}
+
+
+	// Puts the result of one expression in the buffer and publishes what can be published
+	private void complete( long sequence, Result result ) {
+		long index = ordered ? sequence : evaluated.getAndIncrement();
+		buffer.set((int) (index % size), result);
+		drain();
+	}
+
+
+	// Publishes results in sequence while the subscriber wants them, then the end of the stream
+	private void drain() {
+
+		if ( work.getAndIncrement() != 0 ) {
+			return;
+		}
+
+		int missed = 1;
+
+		do {
+			Flow.Subscriber<? super Result> subscriber = this.subscriber;
+
+			if ( subscriber != null && !cancelled ) {
+
+				if ( invalidRequest != null ) {
+					cancelled = true;
+					subscriber.onError(invalidRequest);
+					return;
+				}
+
+				long demand = requested.get();
+				long sent = 0;
+
+				while ( sent != demand && !cancelled ) {
+					int index = (int) (published % size);
+					Result result = buffer.get(index);
+
+					// The next result in sequence is still being evaluated
+					if ( result == null ) {
+						break;
+					}
+
+					buffer.set(index, null);
+					published++;
+					sent++;
+					subscriber.onNext(result);
+
+					if ( ++consumed == replenish ) {
+						consumed = 0;
+						upstream.request(replenish);
+					}
+				}
+
+				if ( sent != 0 && demand != Long.MAX_VALUE ) {
+					requested.addAndGet(-sent);
+				}
+
+				if ( done && published == received && !cancelled ) {
+					cancelled = true;
+
+					if ( error != null ) {
+						subscriber.onError(error);
+					} else {
+						subscriber.onComplete();
+					}
+
+					return;
+				}
+			}
+
+			missed = work.addAndGet(-missed);
+		} while ( missed != 0 );
+	}
+
+
+	// The subscriber's side of the processor
+	private final class Subscription implements Flow.Subscription {
+
+		@Override
+		public void request( long n ) {
+
+			if ( n <= 0 ) {
+				invalidRequest = new IllegalArgumentException("Requested " + n + " results, must be positive.");
+				cancelUpstream();
+			} else {
+				requested.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+			}
+
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			cancelUpstream();
+		}
+	}
+
+
+	private void cancelUpstream() {
+		Flow.Subscription subscription = upstream;
+
+		if ( subscription != null ) {
+			subscription.cancel();
+		}
+	}
+
+}
@@ -0,0 +1,414 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TCP server that evaluates expressions for other processes, so they can share one warmed up
+ * {@link ICalculator} and its caches.
+ *
+ * The protocol is line based: every line a client sends is an expression, and the server answers
+ * every line with "OK " followed by the value, or "ERROR " followed by the message of the
+ * exception. Clients may pipeline, sending many lines without waiting. Up to the configured number
+ * of lines per client are evaluated at the same time, and the answers always come back in the
+ * order the lines were sent. Lines longer than {@link #MAX_LINE_LENGTH} characters are answered
+ * with an error and the rest of them is skipped without being kept, so a client sending an endless
+ * line cannot use up the memory shared with other clients.
+ *
+ * Each connection is served by its own threads, virtual threads when the JVM supports them (Java 21
+ * and later) so that tens of thousands of idle connections cost little, and ordinary threads
+ * otherwise.
+ *
+ * Usage: {@code java com.fdmgroup.tdd.Calculator.EvaluationServer [port] [maxInFlightPerClient]}
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class EvaluationServer implements Closeable {
+
+	/** Answer prefix for evaluated lines. */
+	public static final String OK = "OK ";
+
+	/** Answer prefix for lines that could not be evaluated. */
+	public static final String ERROR = "ERROR ";
+
+	/** Longest line read, in characters, longer lines are answered with an error. */
+	public static final int MAX_LINE_LENGTH = 1 << 16;
+
+	// Marks the end of the answers of a connection
+	private static final CompletableFuture<String> END = CompletableFuture.completedFuture(null);
+
+	private final ICalculator calculator;
+	private final int port;
+	private final int maxInFlight;
+	private final ExecutorService threads = newThreadPerTaskExecutor();
+	private ServerSocket server;
+
+	// Open connections, plus one until the server is closed. The threads are shut down when it
+	// reaches zero, so connections open at close keep being served until their clients leave
+	private final AtomicInteger users = new AtomicInteger(1);
+	private boolean closed;
+
+
+	/**
+	 * @param calculator Calculator shared by all clients, must be safe to use from many threads
+	 * @param port Port to listen on, 0 picks a free port
+	 * @param maxInFlight Maximum number of lines of one client evaluated at the same time
+	 */
+
+	public EvaluationServer( ICalculator calculator, int port, int maxInFlight ) {
+
+		if ( maxInFlight <= 0 ) {
+			throw new IllegalArgumentException("Maximum lines in flight must be positive.");
+		}
+
+		this.calculator = calculator;
+		this.port = port;
+		this.maxInFlight = maxInFlight;
+	}
+
+
+	/**
+	 * Starts listening on all interfaces and accepting clients in the background.
+	 * @throws IOException If the port cannot be opened.
+	 */
+
+	public void start() throws IOException {
+		start(null);
+	}
+
+
+	/**
+	 * Starts listening on the given address and accepting clients in the background.
+	 * @param address Address to listen on, for example the loopback address in tests, or null for all
+	 * @throws IOException If the port cannot be opened.
+	 */
+
+	public void start( InetAddress address ) throws IOException {
+		server = new ServerSocket();
+		server.bind(new InetSocketAddress(address, port), 4096);
+		threads.execute(this::accept);
+	}
+
+
+	/**
+	 * @return The port the server listens on, useful when started on port 0.
+	 */
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+
+	/**
+	 * Stops accepting clients. Connections that are already open are still served, every line they
+	 * send is answered, until they are closed by their clients.
+	 */
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+
+		synchronized ( this ) {
+			if ( closed ) {
+				return;
+			}
+			closed = true;
+		}
+
+		release();
+	}
+
+
+	/**
+	 * Waits for the connections still open after {@link #close()} to be closed by their clients, and
+	 * their last lines to be answered.
+	 * @param timeout Longest time to wait
+	 * @param unit Unit of the timeout
+	 * @return True if every connection has finished, false if the timeout elapsed first.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+
+	public boolean awaitTermination( long timeout, TimeUnit unit ) throws InterruptedException {
+		return threads.awaitTermination(timeout, unit);
+	}
+
+
+	private void accept() {
+
+		while ( !server.isClosed() ) {
+			try {
+				Socket client = server.accept();
+
+				// Accepted just as the server was closed and its threads stopped
+				if ( !retain() ) {
+					client.close();
+					continue;
+				}
+
+				threads.execute(() -> {
+					try {
+						serve(client);
+					} finally {
+						release();
+					}
+				});
+			} catch ( IOException e ) {
+				// Thrown when the server is closed, the loop then ends
+			}
+		}
+	}
+
+
+	// Reads lines and starts evaluating them, while a second thread writes the answers in order
+	private void serve( Socket client ) {
+		Semaphore permits = new Semaphore(maxInFlight);
+		BlockingQueue<CompletableFuture<String>> answers = new ArrayBlockingQueue<>(maxInFlight + 1);
+
+		try ( Socket socket = client;
+				BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)) ) {
+
+			socket.setTcpNoDelay(true);
+
+			Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			CompletableFuture<Void> writing = CompletableFuture.runAsync(() -> write(socket, writer, answers, permits), threads);
+
+			try {
+				LineReader lines = new LineReader(reader);
+				String line;
+
+				while ( (line = lines.readLine()) != null ) {
+					permits.acquire();
+
+					if ( line == LineReader.TOO_LONG ) {
+						answers.put(CompletableFuture.completedFuture(ERROR + "Line is longer than " + MAX_LINE_LENGTH + " characters."));
+						lines.skipLine();
+						continue;
+					}
+
+					String expression = line;
+					answers.put(CompletableFuture.supplyAsync(() -> answer(expression), threads));
+				}
+
+			} finally {
+				answers.put(END);
+				writing.join();
+			}
+
+		} catch ( IOException | RuntimeException e ) {
+			// The client went away, nothing is left to answer
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private void write( Socket socket, Writer writer, BlockingQueue<CompletableFuture<String>> answers, Semaphore permits ) {
+		boolean failed = false;
+
+		try {
+			while ( true ) {
+				CompletableFuture<String> next = answers.take();
+
+				if ( next == END ) {
+					break;
+				}
+
+				// Once the client stops reading, answers are still taken and dropped until the reading
+				// side stops, so it never waits for room in the queue or for a permit
+				if ( failed ) {
+					permits.release();
+					continue;
+				}
+
+				try {
+					writer.write(next.join());
+					writer.write('\n');
+
+					// Flush once nothing else is ready, so pipelined answers go out together
+					if ( answers.isEmpty() ) {
+						writer.flush();
+					}
+				} catch ( IOException e ) {
+					// Closing the socket also stops the reading side once it has used up what it buffered
+					failed = true;
+					close(socket);
+				}
+
+				permits.release();
+			}
+
+			if ( !failed ) {
+				writer.flush();
+			}
+
+		} catch ( IOException e ) {
+			// The client stopped reading before the last answers
+			close(socket);
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	// Counts a new connection, unless the threads have already been shut down
+	private boolean retain() {
+		int count;
+
+		do {
+			count = users.get();
+
+			if ( count == 0 ) {
+				return false;
+			}
+		} while ( !users.compareAndSet(count, count + 1) );
+
+		return true;
+	}
+
+
+	private void release() {
+
+		if ( users.decrementAndGet() == 0 ) {
+			threads.shutdown();
+		}
+	}
+
+
+	private static void close( Socket socket ) {
+		try {
+			socket.close();
+		} catch ( IOException e ) {
+			// Already closed
+		}
+	}
+
+
+	private String answer( String expression ) {
+		try {
+			return OK + calculator.evaluate(expression);
+		} catch ( RuntimeException e ) {
+			return ERROR + e.getMessage();
+		}
+	}
+
+
+	// Reads lines ended by "\n", "\r" or "\r\n" as BufferedReader.readLine does, but never holds more
+	// than the longest line allowed
+	private static final class LineReader {
+
+		// Returned instead of a line that is too long, compared by identity
+		static final String TOO_LONG = new String("");
+
+		private final BufferedReader reader;
+		private final StringBuilder line = new StringBuilder();
+
+		// A line just ended with '\r', so a '\n' right after it belongs to the same line end
+		private boolean skipNewline;
+
+		LineReader( BufferedReader reader ) {
+			this.reader = reader;
+		}
+
+		// Returns the next line, TOO_LONG once it has more characters than allowed, or null at the end
+		String readLine() throws IOException {
+			line.setLength(0);
+			int c;
+
+			while ( (c = next()) != -1 ) {
+
+				if ( c == '\n' || c == '\r' ) {
+					skipNewline = c == '\r';
+					return line.toString();
+				}
+
+				if ( line.length() == MAX_LINE_LENGTH ) {
+					return TOO_LONG;
+				}
+
+				line.append((char) c);
+			}
+
+			return line.length() == 0 ? null : line.toString();
+		}
+
+		// Drops the rest of a line that was too long
+		void skipLine() throws IOException {
+			int c;
+
+			while ( (c = next()) != -1 && c != '\n' && c != '\r' ) {
+				// Skipped
+			}
+
+			skipNewline = c == '\r';
+		}
+
+		private int next() throws IOException {
+			int c = reader.read();
+
+			if ( skipNewline ) {
+				skipNewline = false;
+
+				if ( c == '\n' ) {
+					c = reader.read();
+				}
+			}
+
+			return c;
+		}
+	}
+
+
+	// Virtual threads only exist from Java 21, so they are looked up rather than referenced
+	private static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch ( ReflectiveOperationException e ) {
+			return Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task, "evaluation-server");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+
+	/**
+	 * Starts a server and keeps it running.
+	 * @param args Optional port, default 7070, and optional lines in flight per client, default 16
+	 * @throws IOException If the port cannot be opened.
+	 * @throws InterruptedException If the main thread is interrupted.
+	 */
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+		int maxInFlight = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+		EvaluationServer server = new EvaluationServer(new CachingCalculator(10_000), port, maxInFlight);
+		server.start();
+		System.out.println("Evaluating expressions on port " + server.getPort());
+
+		// Serving happens on background threads, keep running until the process is stopped
+		Thread.currentThread().join();
+	}
+
+}
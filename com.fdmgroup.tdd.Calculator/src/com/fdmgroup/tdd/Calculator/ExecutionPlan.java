@@ -0,0 +1,153 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * How a {@link PlanningCalculator} evaluates an expression, and why: the strategy it chose, what
+ * each strategy was estimated to cost, and the features of the expression the estimates came
+ * from. Returned by {@link PlanningCalculator#explain(String)} for tuning.
+ *
+ * Costs are estimated nanoseconds per evaluation, see {@link CostEstimator}. They are meant for
+ * comparing strategies with each other, not as a measurement.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public final class ExecutionPlan {
+
+	/** Ways of evaluating an expression. */
+	public enum Strategy {
+		/** Tokenize, parse and evaluate the text in one pass, keeping nothing. */
+		INTERPRET,
+		/** Compile the text without caching it, for {@link PlanningCalculator#compile(String)} of expressions seen once. */
+		COMPILE,
+		/** Look the expression up in a cache, compiling and remembering it the first time. */
+		CACHE
+	}
+
+	private final Strategy strategy;
+	private final double interpretCost;
+	private final double compileCost;
+	private final double cacheHitCost;
+	private final int frequency;
+	private final CostEstimator.Features features;
+
+
+	ExecutionPlan( Strategy strategy, CostEstimator.Features features, int frequency ) {
+		this.strategy = strategy;
+		this.interpretCost = features.interpretCost();
+		this.compileCost = features.compileCost();
+		this.cacheHitCost = features.cacheHitCost();
+		this.frequency = frequency;
+		this.features = features;
+	}
+
+
+	/**
+	 * @return The chosen strategy.
+	 */
+
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+
+	/**
+	 * @return Estimated nanoseconds per evaluation with the chosen strategy. For {@link Strategy#CACHE}
+	 * the cost of compiling is spread over the times the expression has been seen.
+	 */
+
+	public double getEstimatedCost() {
+
+		switch ( strategy ) {
+		case INTERPRET:
+			return interpretCost;
+		case COMPILE:
+			return compileCost;
+		default:
+			return (compileCost + (frequency - 1) * cacheHitCost) / frequency;
+		}
+	}
+
+
+	/**
+	 * @return Estimated nanoseconds to interpret the expression once.
+	 */
+
+	public double getInterpretCost() {
+		return interpretCost;
+	}
+
+
+	/**
+	 * @return Estimated nanoseconds to compile the expression and evaluate it once.
+	 */
+
+	public double getCompileCost() {
+		return compileCost;
+	}
+
+
+	/**
+	 * @return Estimated nanoseconds to find the value of the expression in the cache.
+	 */
+
+	public double getCacheHitCost() {
+		return cacheHitCost;
+	}
+
+
+	/**
+	 * @return Estimated number of times the expression has been seen recently, including this
+	 * time, at most 15.
+	 */
+
+	public int getFrequency() {
+		return frequency;
+	}
+
+
+	/**
+	 * @return Estimated number of tokens of the expression.
+	 */
+
+	public int getTokens() {
+		return features.tokens;
+	}
+
+
+	/**
+	 * @return Deepest nesting of parentheses.
+	 */
+
+	public int getDepth() {
+		return features.depth;
+	}
+
+
+	/**
+	 * @return Number of exponents worked out by repeated squaring or a square root.
+	 */
+
+	public int getPowers() {
+		return features.powers;
+	}
+
+
+	/**
+	 * @return Number of exponents that look fractional, which need a root found with Newton's method.
+	 */
+
+	public int getRoots() {
+		return features.roots;
+	}
+
+
+	@Override
+	public String toString() {
+		return String.format("%s (estimated %.0f ns): interpret %.0f ns, compile %.0f ns, cached %.0f ns; "
+				+ "%d tokens, depth %d, %d powers, %d roots, seen %d times",
+				strategy, getEstimatedCost(), interpretCost, compileCost, cacheHitCost,
+				features.tokens, features.depth, features.powers, features.roots, frequency);
+	}
+
+}
@@ -0,0 +1,208 @@
+package com.fdmgroup.tdd.Calculator;
+
+import com.fdmgroup.tdd.Calculator.LimitExceededException.Limit;
+
+/**
+ * Loops behind {@link Calculator#power(double, double)}: exponentiation by squaring for whole
+ * exponents and a bounded Newton-Raphson root finder for fractional ones.
+ *
+ * Roots start from exp(log(base)/n), which is within a few ulps of the root for every degree, so
+ * Newton's method (which doubles the number of correct digits each step) converges in one or two
+ * iterations. Starting that close also keeps guess^(n-1) near base/root, so it cannot overflow
+ * even for degrees in the millions. Iteration stops once a step changes the guess by less than
+ * {@link #TOLERANCE} relative to its size, and never runs more than {@link #MAX_ITERATIONS} times,
+ * or fewer when {@link EvaluationLimits} ask for it. A root that has not converged by then is
+ * taken from {@link Math#pow(double, double)} instead.
+ *
+ * Error bound: square roots are {@link Math#sqrt(double)}, correctly rounded. For other unit
+ * fractions, exponents equal to the double nearest 1/n, the result is within 2 ulps of the exact
+ * root, the same order as {@link Math#pow(double, double)} which guarantees 1 ulp. Other fractions
+ * are passed to {@link Math#pow(double, double)} directly.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class Exponents {
+
+	/** Relative change below which Newton's method has converged, about 2 ulps. */
+	static final double TOLERANCE = 0x1p-51;
+
+	/** Upper bound on Newton steps. Convergence normally takes fewer than 10. */
+	static final int MAX_ITERATIONS = 64;
+
+	// Largest root degree taken with Newton's method, beyond this 1/n is too close to 0 to tell apart
+	private static final long MAX_DEGREE = 1L << 20;
+
+
+	private Exponents() {
+	}
+
+
+	/**
+	 * Raises a number to a positive whole exponent by repeated squaring.
+	 * @param base Base number
+	 * @param exponent Positive whole number exponent
+	 * @return The result of base raised to the power of the exponent.
+	 */
+
+	static double wholePower( double base, double exponent ) {
+
+		// Bit operations on a long are much cheaper than % on a double
+		if ( exponent < 0x1p63 ) {
+			return wholePower(base, (long) exponent);
+		}
+
+		double result = 1;
+		double square = base;
+
+		while ( true ) {
+
+			if ( exponent % 2 == 1 ) {
+				result *= square;
+			}
+
+			exponent = (exponent - exponent % 2) / 2;
+
+			if ( exponent < 0x1p63 ) {
+				return result * wholePower(square * square, (long) exponent);
+			}
+
+			square *= square;
+		}
+	}
+
+
+	/**
+	 * Raises a number to a positive whole exponent by repeated squaring.
+	 * @param base Base number
+	 * @param exponent Positive whole number exponent
+	 * @return The result of base raised to the power of the exponent.
+	 */
+
+	static double wholePower( double base, long exponent ) {
+		double result = 1;
+		double square = base;
+
+		while ( true ) {
+
+			if ( (exponent & 1) != 0 ) {
+				result *= square;
+			}
+
+			exponent >>>= 1;
+
+			if ( exponent == 0 ) {
+				return result;
+			}
+
+			square *= square;
+
+			// Squares are never negative, so once they overflow or underflow the result is decided
+			if ( square == 0 || Double.isInfinite(square) || Double.isInfinite(result) ) {
+				return result * square;
+			}
+		}
+	}
+
+
+	/**
+	 * Raises a number to a fraction between zero and one.
+	 * @param base Base number
+	 * @param fraction Fractional exponent
+	 * @param maxIterations Most Newton-Raphson steps, see {@link #newton(double, long, double, int)}
+	 * @return The result of base raised to the power of the fraction.
+	 */
+
+	static double fractionalPower( double base, double fraction, int maxIterations ) {
+		double degree = 1 / fraction;
+		double rounded = Math.rint(degree);
+
+		// Only exponents that are exactly the double nearest 1/n, such as 0.5, 0.25 or (1/3), are
+		// roots. A fraction merely close to 1/n, such as 0.333333333, is a different power and left
+		// to Math.pow
+		if ( rounded <= MAX_DEGREE && fraction == 1.0 / rounded ) {
+			return root(base, (long) rounded, maxIterations);
+		}
+
+		return Math.pow(base, fraction);
+	}
+
+
+	/**
+	 * Finds the nth root of a number. Odd roots of negative numbers are negative, even roots of
+	 * negative numbers are NaN.
+	 * @param base Number to take the root of
+	 * @param n Degree of the root, at least 1
+	 * @param maxIterations Most Newton-Raphson steps, see {@link #newton(double, long, double, int)}
+	 * @return The nth root of the base.
+	 */
+
+	static double root( double base, long n, int maxIterations ) {
+
+		if ( n == 1 || base == 0 || Double.isNaN(base) ) {
+			return base;
+		}
+
+		// Square roots are a single instruction on most hardware and correctly rounded
+		if ( n == 2 ) {
+			return Math.sqrt(base);
+		}
+
+		if ( base < 0 ) {
+			return n % 2 == 1 ? -root(-base, n, maxIterations) : Double.NaN;
+		}
+
+		if ( Double.isInfinite(base) ) {
+			return base;
+		}
+
+		return newton(base, n, estimate(base, n), maxIterations);
+	}
+
+
+	/**
+	 * Refines a guess of the nth root with Newton-Raphson steps until it stops changing.
+	 * @param base Positive number to take the root of
+	 * @param n Degree of the root
+	 * @param guess Starting guess
+	 * @param maxIterations Most steps, {@link #MAX_ITERATIONS} or fewer
+	 * @return The refined root, or {@link Math#pow(double, double)} of 1/n if it did not converge.
+	 * @throws LimitExceededException If a limit below {@link #MAX_ITERATIONS} is reached before the root converged.
+	 */
+
+	static double newton( double base, long n, double guess, int maxIterations ) {
+		long start = EvaluationMetrics.start();
+		int iterations = Math.min(maxIterations, MAX_ITERATIONS);
+
+		for ( int i = 0; i < iterations; i++ ) {
+
+			// Same update as ((n-1)*guess + base/guess^(n-1))/n, written as a correction to keep rounding small
+			double next = guess - (guess - base / wholePower(guess, n - 1)) / n;
+
+			if ( Math.abs(next - guess) <= TOLERANCE * next ) {
+				EvaluationMetrics.recordRoot(start, i + 1);
+				return next;
+			}
+
+			guess = next;
+		}
+
+		EvaluationMetrics.recordRoot(start, iterations);
+
+		// Only a tighter limit is an error, running out of the built-in steps means the guess was poor
+		if ( iterations < MAX_ITERATIONS ) {
+			throw new LimitExceededException(Limit.ROOT_ITERATIONS, "Root did not converge within " + iterations + " iterations.");
+		}
+
+		return Math.pow(base, 1.0 / n);
+	}
+
+
+	// Dividing the logarithm keeps the estimate within a few ulps of the root whatever the degree,
+	// a linear estimate of the logarithm is off by up to 6% and guess^(n-1) overflows for large n
+	private static double estimate( double base, long n ) {
+		return Math.exp(Math.log(base) / n);
+	}
+
+}
@@ -0,0 +1,22 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * A compiled expression as a plain function of its variables, returned by
+ * {@link CompiledExpression#toFunction()}.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public interface ExpressionFunction {
+
+	/**
+	 * Evaluates the expression. Safe to call from many threads at the same time.
+	 * @param vars Value of each variable by slot, see {@link CompiledExpression#slot(String)}
+	 * @return The value of the expression.
+	 * @throws IllegalArgumentException If dividing by zero or raising zero to zero.
+	 */
+
+	double eval( double[] vars );
+
+}
@@ -0,0 +1,81 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Thrown when the text of an expression is not valid, before any of it is evaluated. It tells
+ * what is wrong, as a {@link Kind}, and the index of the character where the problem was found.
+ *
+ * Invalid input is rejected often and the position already says where it went wrong, so no
+ * stack trace is filled in, which makes rejecting it cheap.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class ExpressionSyntaxException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	/** What is wrong with the expression. */
+	public enum Kind {
+		/** An operator where an operand was expected, such as "2*^3" or "*2". */
+		INVALID_OPERATOR,
+		/** An operator or sign with nothing after it, such as "2+" or "(2-)". */
+		MISSING_OPERAND,
+		/** Two operands next to each other, such as "2(3)" or "x y". */
+		MISSING_OPERATOR,
+		/** A ')' without its '(' or a '(' without its ')'. */
+		UNBALANCED_PARENTHESES,
+		/** Parentheses with nothing inside, "()". */
+		EMPTY_PARENTHESES,
+		/** A character that cannot appear in an expression. */
+		UNEXPECTED_CHARACTER,
+		/** A number that is not written correctly, such as "." or "1.2.3". */
+		MALFORMED_NUMBER,
+		/** A call of a function that does not exist. */
+		UNKNOWN_FUNCTION,
+		/** A function called with more or fewer arguments than it takes, such as "sqrt(1, 2)". */
+		WRONG_ARGUMENT_COUNT
+	}
+
+	private final Kind kind;
+	private final int position;
+
+
+	/**
+	 * @param kind What is wrong with the expression
+	 * @param position Index of the character where the problem was found
+	 * @param message Description of the problem
+	 */
+
+	public ExpressionSyntaxException( Kind kind, int position, String message ) {
+		super(message);
+		this.kind = kind;
+		this.position = position;
+	}
+
+
+	/**
+	 * @return What is wrong with the expression.
+	 */
+
+	public Kind getKind() {
+		return kind;
+	}
+
+
+	/**
+	 * @return Index of the character where the problem was found, the length of the expression
+	 * if it ended too early.
+	 */
+
+	public int getPosition() {
+		return position;
+	}
+
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
@@ -0,0 +1,246 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Evaluates a file with one expression per line and writes one result per line.
+ *
+ * The input file is memory-mapped a window at a time and every line is tokenized in place through
+ * a {@link ByteLine}, so no String is created for the input and heap usage does not grow with the
+ * size of the file. Results are collected in a fixed-size buffer that is written to the output
+ * whenever it fills up.
+ *
+ * Line N of the output belongs to line N of the input. It holds the value of the expression, or
+ * "ERROR: " followed by the same message {@link Calculator#evaluate(String)} throws. Empty input lines
+ * give empty output lines. Lines may end with "\n" or "\r\n" and must be ASCII.
+ *
+ * Usage: {@code java com.fdmgroup.tdd.Calculator.FileEvaluator input.txt output.txt}
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class FileEvaluator {
+
+	/** Prefix of output lines for expressions that could not be evaluated. */
+	public static final String ERROR_PREFIX = "ERROR: ";
+
+	private static final int DEFAULT_WINDOW = 64 * 1024 * 1024;
+	private static final int OUTPUT_BUFFER = 64 * 1024;
+
+	private final Calculator calculator;
+	private final int window;
+
+
+	/**
+	 * Creates an evaluator that maps the input 64 MB at a time.
+	 * @param calculator Calculator used to evaluate each line
+	 */
+
+	public FileEvaluator( Calculator calculator ) {
+		this(calculator, DEFAULT_WINDOW);
+	}
+
+
+	/**
+	 * @param calculator Calculator used to evaluate each line
+	 * @param window Number of bytes of the input mapped at a time, which is also the longest allowed line
+	 */
+
+	public FileEvaluator( Calculator calculator, int window ) {
+
+		if ( window <= 0 ) {
+			throw new IllegalArgumentException("Window must be positive.");
+		}
+
+		this.calculator = calculator;
+		this.window = window;
+	}
+
+
+	/**
+	 * Evaluates every line of the input file into the output file, replacing the output if it exists.
+	 * @param input File with one expression per line
+	 * @param output File that receives one result per line
+	 * @return Number of lines and errors.
+	 * @throws IOException If either file cannot be read or written, or a line is longer than the window.
+	 */
+
+	public Summary evaluate( Path input, Path output ) throws IOException {
+
+		try ( FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING) ) {
+
+			return evaluate(input, channel);
+		}
+	}
+
+
+	/**
+	 * Evaluates every line of the input file into the output channel. The channel is not closed.
+	 * @param input File with one expression per line
+	 * @param output Channel that receives one result per line
+	 * @return Number of lines and errors.
+	 * @throws IOException If the file cannot be read, the channel cannot be written, or a line is longer than the window.
+	 */
+
+	public Summary evaluate( Path input, WritableByteChannel output ) throws IOException {
+		ByteBuffer results = ByteBuffer.allocate(OUTPUT_BUFFER);
+		ByteLine line = new ByteLine();
+		long lines = 0;
+		long errors = 0;
+
+		try ( FileChannel channel = FileChannel.open(input, StandardOpenOption.READ) ) {
+			long size = channel.size();
+			long position = 0;
+
+			while ( position < size ) {
+				int length = (int) Math.min(window, size - position);
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				boolean last = position + length == size;
+				int start = 0;
+
+				for ( int i = 0; i < length; i++ ) {
+
+					if ( mapped.get(i) == '\n' ) {
+						errors += evaluateLine(mapped, start, i, line, results, output);
+						lines++;
+						start = i + 1;
+					}
+				}
+
+				// The final line may have no line break, otherwise remap from the start of the unfinished line
+				if ( last && start < length ) {
+					errors += evaluateLine(mapped, start, length, line, results, output);
+					lines++;
+					start = length;
+				}
+
+				if ( start == 0 && !last ) {
+					throw new IOException("Line " + (lines + 1) + " is longer than " + window + " bytes.");
+				}
+
+				position += start;
+			}
+		}
+
+		results.flip();
+		while ( results.hasRemaining() ) {
+			output.write(results);
+		}
+
+		return new Summary(lines, errors);
+	}
+
+
+	// Evaluates the bytes from start to end and appends the result, returning 1 if it was an error
+	private int evaluateLine( ByteBuffer input, int start, int end, ByteLine line, ByteBuffer results,
+			WritableByteChannel output ) throws IOException {
+
+		if ( end > start && input.get(end - 1) == '\r' ) {
+			end--;
+		}
+
+		String result;
+		int error = 0;
+
+		if ( end == start ) {
+			result = "";
+		} else {
+			line.set(input, start, end - start);
+
+			try {
+				result = Double.toString(calculator.evaluate(line));
+			} catch ( RuntimeException e ) {
+				result = ERROR_PREFIX + e.getMessage();
+				error = 1;
+			}
+		}
+
+		write(result, results, output);
+		write("\n", results, output);
+		return error;
+	}
+
+
+	// Results and messages are ASCII, so each character is written as one byte
+	private static void write( String text, ByteBuffer results, WritableByteChannel output ) throws IOException {
+
+		for ( int i = 0; i < text.length(); i++ ) {
+
+			if ( !results.hasRemaining() ) {
+				results.flip();
+				while ( results.hasRemaining() ) {
+					output.write(results);
+				}
+				results.clear();
+			}
+
+			char c = text.charAt(i);
+			results.put(c < 128 ? (byte) c : (byte) '?');
+		}
+	}
+
+
+	/**
+	 * Evaluates the file named by the first argument into the file named by the second.
+	 * @param args Input and output file names
+	 * @throws IOException If either file cannot be read or written.
+	 */
+
+	public static void main(String[] args) throws IOException {
+
+		if ( args.length != 2 ) {
+			System.err.println("Usage: FileEvaluator <input> <output>");
+			return;
+		}
+
+		Summary summary = new FileEvaluator(new Calculator()).evaluate(Paths.get(args[0]), Paths.get(args[1]));
+		System.out.println(summary);
+	}
+
+
+	/**
+	 * Counts of one file evaluation.
+	 */
+
+	public static final class Summary {
+
+		private final long lines;
+		private final long errors;
+
+		Summary( long lines, long errors ) {
+			this.lines = lines;
+			this.errors = errors;
+		}
+
+		/**
+		 * @return Number of lines read.
+		 */
+
+		public long getLines() {
+			return lines;
+		}
+
+		/**
+		 * @return Number of lines that could not be evaluated.
+		 */
+
+		public long getErrors() {
+			return errors;
+		}
+
+		@Override
+		public String toString() {
+			return lines + " lines, " + errors + " errors";
+		}
+	}
+
+}
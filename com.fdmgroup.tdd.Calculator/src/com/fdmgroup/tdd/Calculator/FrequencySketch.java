@@ -0,0 +1,103 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * A count-min sketch that estimates how often a key has been seen, using four 4-bit counters per
+ * key packed into a {@code long[]}. Once the number of recorded accesses reaches ten times the
+ * capacity all counters are halved, so keys that were popular a long time ago fade out.
+ *
+ * The sketch is not thread-safe, callers guard it with their own lock.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class FrequencySketch {
+
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long ONE_MASK = 0x1111111111111111L;
+	private static final int[] SEEDS = { 0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f };
+
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int additions;
+
+
+	/**
+	 * @param capacity Number of keys the owner expects to hold
+	 */
+
+	FrequencySketch( int capacity ) {
+		int size = Integer.highestOneBit(Math.max(capacity, 4) - 1) << 1;
+		this.table = new long[size];
+		this.tableMask = size - 1;
+		this.sampleSize = 10 * Math.max(capacity, 1);
+	}
+
+
+	/**
+	 * @param hash Hash code of the key
+	 * @return The estimated number of times the key was recorded, at most 15.
+	 */
+
+	int frequency( int hash ) {
+		int frequency = Integer.MAX_VALUE;
+
+		for ( int i = 0; i < 4; i++ ) {
+			int counter = (int) ((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xF);
+			frequency = Math.min(frequency, counter);
+		}
+
+		return frequency;
+	}
+
+
+	/**
+	 * Records one access of a key.
+	 * @param hash Hash code of the key
+	 */
+
+	void increment( int hash ) {
+		boolean added = false;
+
+		for ( int i = 0; i < 4; i++ ) {
+			int index = indexOf(hash, i);
+			int offset = offsetOf(hash, i);
+
+			if ( ((table[index] >>> offset) & 0xF) != 0xF ) {
+				table[index] += 1L << offset;
+				added = true;
+			}
+		}
+
+		if ( added && ++additions == sampleSize ) {
+			reset();
+		}
+	}
+
+
+	// Halves every counter
+	private void reset() {
+		int odd = 0;
+
+		for ( int i = 0; i < table.length; i++ ) {
+			odd += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+
+		additions = (additions - (odd >>> 2)) >>> 1;
+	}
+
+
+	private int indexOf( int hash, int i ) {
+		int h = (hash + SEEDS[i]) * SEEDS[(i + 1) & 3];
+		return (h ^ (h >>> 16)) & tableMask;
+	}
+
+
+	// Each long holds sixteen counters, pick one of four for each hash function
+	private static int offsetOf( int hash, int i ) {
+		return ((((hash >>> (i << 3)) & 3) << 2) + i) << 2;
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.Collection;
+
+/**
+ * Supplies domain functions to every calculator, found with {@link java.util.ServiceLoader}.
+ *
+ * To add functions, implement this interface with a public no-argument constructor and list the
+ * class in a file named
+ * {@code META-INF/services/com.fdmgroup.tdd.Calculator.FunctionProvider} on the class path.
+ * Providers are loaded once, the first time an expression calls a function. A function named
+ * like a built-in one, or like one already supplied, is ignored. A function without a name or
+ * without arguments, and a provider that cannot be created or throws, is skipped with a warning.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public interface FunctionProvider {
+
+	/**
+	 * @return The functions this provider adds.
+	 */
+
+	Collection<? extends MathFunction> getFunctions();
+
+}
@@ -0,0 +1,93 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.lang.System.Logger.Level;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The functions expressions can call by name: the {@link BuiltInFunction}s, then those of every
+ * {@link FunctionProvider} found with {@link ServiceLoader}. The providers are only loaded the
+ * first time a name is looked up, so expressions without calls never load them. A provider that
+ * cannot be loaded or fails, and a function without a name or without arguments, is left out with
+ * a warning, so one bad provider on the class path does not stop every expression from calling
+ * the others.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class Functions {
+
+	private static final System.Logger LOG = System.getLogger(Functions.class.getName());
+
+	private static final Map<String, MathFunction> FUNCTIONS = load(ServiceLoader.load(FunctionProvider.class));
+
+
+	private Functions() {
+	}
+
+
+	/**
+	 * @param name Name used in the expression
+	 * @return The function with that name, or null if there is none.
+	 */
+
+	static MathFunction get( String name ) {
+		return FUNCTIONS.get(name);
+	}
+
+
+	/**
+	 * Collects the built-in functions, then the valid functions of the providers that are not named
+	 * like one already collected.
+	 * @param providers Providers of further functions
+	 * @return The functions by name.
+	 */
+
+	static Map<String, MathFunction> load( Iterable<FunctionProvider> providers ) {
+		Map<String, MathFunction> functions = new HashMap<>();
+
+		for ( BuiltInFunction function : BuiltInFunction.values() ) {
+			functions.put(function.getName(), function);
+		}
+
+		Iterator<FunctionProvider> iterator = providers.iterator();
+
+		while ( true ) {
+			FunctionProvider provider = null;
+			Collection<? extends MathFunction> provided;
+
+			// This runs while the class is initialized, anything thrown here would leave the class unusable
+			try {
+				if ( !iterator.hasNext() ) {
+					break;
+				}
+
+				provider = iterator.next();
+				provided = provider.getFunctions();
+			} catch ( ServiceConfigurationError | RuntimeException e ) {
+				LOG.log(Level.WARNING, "Skipped function provider " + (provider == null ? "" : provider.getClass().getName() + " ")
+						+ "that could not be loaded.", e);
+				continue;
+			}
+
+			for ( MathFunction function : provided ) {
+
+				if ( function.getName() == null || function.getArity() < 1 ) {
+					LOG.log(Level.WARNING, "Skipped function '" + function.getName() + "' of " + provider.getClass().getName()
+							+ ", functions must have a name and take at least one argument.");
+					continue;
+				}
+
+				functions.putIfAbsent(function.getName(), function);
+			}
+		}
+
+		return functions;
+	}
+
+}
@@ -1,7 +1,41 @@
 package com.fdmgroup.tdd.Calculator;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
 public interface ICalculator {
 
 	double evaluate(String expression);
 	
+	/**
+	 * Parses the expression once so it can be evaluated many times without parsing it again.
+	 * @param expression Mathematical expression to be compiled
+	 * @return The compiled expression
+	 * @throws IllegalArgumentException If the expression is invalid or divides by a literal zero.
+	 */
+	CompiledExpression compile(String expression);
+	
+	/**
+	 * Evaluates independent expressions in parallel on the common fork/join pool. An expression
+	 * that fails is reported in its own result and does not stop the others.
+	 * @param expressions Mathematical expressions to be evaluated
+	 * @return The result of each expression, in the same order as the input
+	 */
+	default List<Result> evaluateAll(List<String> expressions) {
+		
+		return BatchEvaluator.evaluateAll(this, expressions, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Evaluates a stream of independent expressions in parallel. The returned stream keeps the
+	 * encounter order of the input, and an expression that fails is reported in its own result.
+	 * @param expressions Mathematical expressions to be evaluated
+	 * @return A parallel stream of the result of each expression
+	 */
+	default Stream<Result> evaluateAll(Stream<String> expressions) {
+		
+		return expressions.parallel().map(expression -> Result.of(this, expression));
+	}
+	
 }
@@ -0,0 +1,401 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.fdmgroup.tdd.Calculator.LimitExceededException.Limit;
+import com.fdmgroup.tdd.Calculator.Program.Operand;
+
+/**
+ * An expression that is edited a little at a time, such as a line being typed in a console, and
+ * evaluated after every edit. Created by {@link Calculator#incremental(String)}.
+ *
+ * The expression is split into its parenthesized groups. Each group is parsed on its own, with
+ * the groups nested in it standing in as single operands, and keeps its value until an edit
+ * touches it. An edit inside a group only reparses that group; the groups around it are
+ * evaluated again from their already parsed programs and the values of the groups they contain,
+ * and every other group keeps its value. Only edits that add or remove parentheses rebuild the
+ * groups, as the nesting itself has changed.
+ *
+ * <pre>
+ * IncrementalExpression line = calculator.incremental("2*(3+4)");
+ * line.evaluate();               // 14
+ * line.edit(5, 1, "40");         // "2*(3+40)"
+ * line.evaluate();               // 86, only "3+40" is parsed again
+ * </pre>
+ *
+ * The results, and the exceptions, are always the same as those of {@link Calculator#evaluate(String)}
+ * for the current text: whenever the groups cannot be evaluated on their own the whole text is
+ * evaluated instead.
+ *
+ * The limits of the calculator apply to the whole text, not to each group: its length, nesting
+ * and number of tokens are checked as a whole on every evaluation, and the time limit covers
+ * parsing the edited groups and evaluating the rest.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public final class IncrementalExpression {
+
+	private final Calculator calculator;
+	private final StringBuilder text;
+
+	// Null while the parentheses are unbalanced
+	private Group root;
+
+	// Deepest nesting of the groups, which edits without parentheses leave unchanged
+	private int depth;
+
+
+	IncrementalExpression( Calculator calculator, String expression ) {
+		this.calculator = calculator;
+		this.text = new StringBuilder(expression);
+		this.root = build();
+	}
+
+
+	/**
+	 * Replaces part of the expression.
+	 * @param offset Index of the first character to replace
+	 * @param removed Number of characters removed from the offset
+	 * @param inserted Text inserted at the offset
+	 * @return This expression, so that calls can be chained.
+	 * @throws IllegalArgumentException If the removed range is outside the expression.
+	 */
+
+	public IncrementalExpression edit( int offset, int removed, String inserted ) {
+
+		if ( offset < 0 || removed < 0 || offset + removed > text.length() ) {
+			throw new IllegalArgumentException("Edit of " + removed + " characters at " + offset
+					+ " is outside the expression of length " + text.length() + ".");
+		}
+
+		boolean structural = root == null || hasParenthesis(text, offset, offset + removed)
+				|| hasParenthesis(inserted, 0, inserted.length());
+
+		text.replace(offset, offset + removed, inserted);
+
+		if ( structural ) {
+			root = build();
+		} else {
+			shift(offset, removed, inserted.length() - removed);
+		}
+
+		return this;
+	}
+
+
+	/**
+	 * Evaluates the current expression, reusing the value of every group the edits since the last
+	 * evaluation did not touch.
+	 * @return The value of the expression.
+	 * @throws IllegalArgumentException If the expression is invalid or cannot be evaluated.
+	 * @throws LimitExceededException If the expression goes over the limits of the calculator.
+	 */
+
+	public double evaluate() {
+		EvaluationLimits limits = calculator.limits;
+		long deadline = limits.deadline();
+		limits.checkLength(text.length());
+
+		// Nested too deeply, the whole text below reports where as evaluate(String) would
+		if ( root != null && depth <= limits.maxDepth ) {
+			try {
+				prepare(root, limits, deadline);
+				limits.checkTime(deadline);
+				return evaluate(root);
+			} catch ( LimitExceededException e ) {
+				// Running out of time again on the whole text would only take longer
+				if ( e.getLimit() == Limit.TIME || e.getLimit() == Limit.CANCELLED ) {
+					throw e;
+				}
+			} catch ( IllegalArgumentException e ) {
+				// Evaluating the whole text below gives the same error as evaluate(String) would
+			}
+		}
+
+		return calculator.evaluate(text, deadline);
+	}
+
+
+	/**
+	 * @return The current expression.
+	 */
+
+	public String getExpression() {
+		return text.toString();
+	}
+
+
+	@Override
+	public String toString() {
+		return text.toString();
+	}
+
+
+	// Method to split the expression into its groups.
+
+	/**
+	 * Matches the parentheses of the whole text and builds the tree of groups, the whole text
+	 * being the root.
+	 * @return The root group, or null if the parentheses are unbalanced.
+	 */
+
+	private Group build() {
+		Group top = new Group(null, -1);
+		Deque<Group> open = new ArrayDeque<>();
+		depth = 0;
+
+		for ( int i = 0; i < text.length(); i++ ) {
+			char c = text.charAt(i);
+
+			if ( c == '(' ) {
+				open.push(top);
+				Group group = new Group(top, i);
+				top.children.add(group);
+				top = group;
+				depth = Math.max(depth, open.size());
+
+			} else if ( c == ')' ) {
+
+				if ( open.isEmpty() ) {
+					return null;
+				}
+
+				top.close = i;
+				top = open.pop();
+			}
+		}
+
+		if ( !open.isEmpty() ) {
+			return null;
+		}
+
+		top.close = text.length();
+		return top;
+	}
+
+
+	/**
+	 * Moves the groups after an edit that changed no parentheses, and forgets the value of the
+	 * innermost group containing the edit and of every group around it. Only the innermost group
+	 * has to be parsed again, the text of the others is unchanged.
+	 */
+
+	private void shift( int offset, int removed, int delta ) {
+		Group edited = root;
+
+		// Walk down to the innermost group whose inside holds the whole edit
+		while ( true ) {
+			Group inner = null;
+
+			for ( Group child : edited.children ) {
+				if ( child.open < offset && offset + removed <= child.close ) {
+					inner = child;
+					break;
+				}
+				if ( child.open >= offset ) {
+					break;
+				}
+			}
+
+			if ( inner == null ) {
+				break;
+			}
+
+			edited = inner;
+		}
+
+		edited.program = null;
+
+		for ( Group group = edited; group != null; group = group.parent ) {
+			group.value = null;
+			group.next = 0;
+		}
+
+		// Every parenthesis at or after the edit moves by the change in length
+		Deque<Group> pending = new ArrayDeque<>();
+		pending.push(root);
+
+		while ( !pending.isEmpty() ) {
+			Group group = pending.pop();
+
+			if ( group.close < offset ) {
+				continue;
+			}
+
+			if ( group.open >= offset ) {
+				group.open += delta;
+			}
+
+			group.close += delta;
+
+			for ( Group child : group.children ) {
+				pending.push(child);
+			}
+		}
+	}
+
+
+	/**
+	 * Parses the groups that lost their program within the limits, and checks the tokens of the
+	 * whole text. Each nested group stands in for its parentheses and the tokens inside them, so
+	 * adds one token more than its own.
+	 * @throws LimitExceededException If a group, or the whole text, goes over a limit.
+	 */
+
+	private void prepare( Group top, EvaluationLimits limits, long deadline ) {
+		Deque<Group> pending = new ArrayDeque<>();
+		pending.push(top);
+
+		// The root has no parentheses of its own
+		int tokens = -1;
+
+		while ( !pending.isEmpty() ) {
+			Group group = pending.pop();
+
+			if ( group.program == null ) {
+				group.program = parse(group, limits, deadline);
+			}
+
+			tokens += group.program.tokens + 1;
+			limits.checkTokens(tokens, group.open + 1);
+
+			for ( Group child : group.children ) {
+				pending.push(child);
+			}
+		}
+	}
+
+
+	// Evaluates the groups that lost their value, innermost first, without recursion
+	private double evaluate( Group top ) {
+		Deque<Group> pending = new ArrayDeque<>();
+		pending.push(top);
+
+		while ( !pending.isEmpty() ) {
+			Group group = pending.peek();
+
+			if ( group.value != null ) {
+				pending.pop();
+				continue;
+			}
+
+			while ( group.next < group.children.size() && group.children.get(group.next).value != null ) {
+				group.next++;
+			}
+
+			if ( group.next < group.children.size() ) {
+				pending.push(group.children.get(group.next));
+				continue;
+			}
+
+			pending.pop();
+			Operand[] values = new Operand[group.children.size()];
+
+			for ( int i = 0; i < values.length; i++ ) {
+				values[i] = group.children.get(i).value;
+			}
+
+			Operand value = new Operand();
+			group.program.executeExact(calculator, values, value);
+			group.value = value;
+			group.next = 0;
+		}
+
+		return top.value.value;
+	}
+
+
+	/**
+	 * Parses the text inside a group with each nested group replaced by a variable "_0", "_1" and
+	 * so on, which take the slots in the same order.
+	 * @throws IllegalArgumentException If the group cannot be parsed on its own.
+	 * @throws LimitExceededException If the group goes over a limit.
+	 */
+
+	private Program parse( Group group, EvaluationLimits limits, long deadline ) {
+		StringBuilder own = new StringBuilder();
+		int index = group.open + 1;
+
+		for ( int i = 0; i < group.children.size(); i++ ) {
+			Group child = group.children.get(i);
+			append(own, index, child.open);
+			own.append('_').append(i);
+			index = child.close + 1;
+		}
+
+		append(own, index, group.close);
+		Program program = Parser.parse(own, limits, deadline);
+
+		// Adjacent groups or numbers would run into the names, let evaluate(String) report those
+		for ( int slot = 0; slot < program.variables.length; slot++ ) {
+			if ( slot >= group.children.size() || !program.variables[slot].equals("_" + slot) ) {
+				throw new IllegalArgumentException("Group cannot be evaluated on its own.");
+			}
+		}
+
+		if ( program.variables.length != group.children.size() ) {
+			throw new IllegalArgumentException("Group cannot be evaluated on its own.");
+		}
+
+		return program;
+	}
+
+
+	// Copies text between two indexes, refusing letters the expression may not contain
+	private void append( StringBuilder own, int start, int end ) {
+
+		for ( int i = start; i < end; i++ ) {
+			char c = text.charAt(i);
+
+			if ( (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' ) {
+				throw new IllegalArgumentException("Variables cannot be evaluated.");
+			}
+
+			own.append(c);
+		}
+	}
+
+
+	private static boolean hasParenthesis( CharSequence characters, int start, int end ) {
+
+		for ( int i = start; i < end; i++ ) {
+			if ( characters.charAt(i) == '(' || characters.charAt(i) == ')' ) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+
+	// A parenthesized part of the expression, or the whole expression for the root
+	private static final class Group {
+
+		final Group parent;
+		final List<Group> children = new ArrayList<>(2);
+
+		// Indexes of the parentheses, -1 and the text length for the root
+		int open;
+		int close;
+
+		// Parsed own text, and the value once evaluated
+		Program program;
+		Operand value;
+
+		// Children before this index are known to have a value
+		int next;
+
+		Group( Group parent, int open ) {
+			this.parent = parent;
+			this.open = open;
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Exact {@code long} arithmetic for the parts of an expression that only involve whole numbers.
+ * A double holds every integer up to 2^53 but rounds larger ones, so "9007199254740993-1" used
+ * to come out as 9007199254740991 instead of 9007199254740992. Working in {@code long} keeps such
+ * values exact until the final result is converted to a double once.
+ *
+ * Every operation gives up, returning false, whenever the exact result is not a {@code long} that
+ * converts to the same double the double arithmetic would give: on overflow (detected with the
+ * {@code Math.*Exact} methods), division that leaves a remainder, negative exponents, results
+ * that are -0 as doubles, and the operations that throw such as dividing by zero. The caller then
+ * carries on with the double operations of {@link Calculator}.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class IntegerArithmetic {
+
+	private IntegerArithmetic() {
+	}
+
+
+	/**
+	 * @param value Any double
+	 * @return Whether the value is a whole number that a {@code long} holds exactly, -0 excluded.
+	 */
+
+	static boolean isExact( double value ) {
+		return Math.abs(value) < 0x1p63 && (long) value == value && Double.doubleToRawLongBits(value) != Long.MIN_VALUE;
+	}
+
+
+	/**
+	 * Replaces the two values on top of the stack with the result of the operation, if it is exact.
+	 * @param instruction One of the binary instructions of {@link Program}
+	 * @param stack Operand stack, the operands are at top and top + 1
+	 * @param top Index of the first operand and of the result
+	 * @return Whether the result was exact and has been stored, otherwise the stack is unchanged.
+	 */
+
+	static boolean apply( byte instruction, long[] stack, int top ) {
+		long x = stack[top];
+		long y = stack[top + 1];
+
+		try {
+			switch ( instruction ) {
+			case Program.ADD:
+				stack[top] = Math.addExact(x, y);
+				return true;
+
+			case Program.SUBTRACT:
+				stack[top] = Math.subtractExact(x, y);
+				return true;
+
+			case Program.MULTIPLY:
+
+				// Zero times a negative number is -0 as a double
+				if ( (x == 0 && y < 0) || (y == 0 && x < 0) ) {
+					return false;
+				}
+
+				stack[top] = Math.multiplyExact(x, y);
+				return true;
+
+			case Program.DIVIDE:
+
+				if ( y == 0 || x % y != 0 || (x == 0 && y < 0) || (x == Long.MIN_VALUE && y == -1) ) {
+					return false;
+				}
+
+				stack[top] = x / y;
+				return true;
+
+			case Program.POWER:
+
+				if ( y < 0 || (x == 0 && y == 0) ) {
+					return false;
+				}
+
+				stack[top] = power(x, y);
+				return true;
+
+			default:
+				return false;
+			}
+
+		} catch ( ArithmeticException overflow ) {
+			return false;
+		}
+	}
+
+
+	/**
+	 * Negates the value on top of the stack, if the result is exact.
+	 * @param stack Operand stack
+	 * @param top Index of the value
+	 * @return Whether the value was negated.
+	 */
+
+	static boolean negate( long[] stack, int top ) {
+
+		if ( stack[top] == Long.MIN_VALUE ) {
+			return false;
+		}
+
+		stack[top] = -stack[top];
+		return true;
+	}
+
+
+	// Exponentiation by squaring, throwing ArithmeticException on overflow
+	private static long power( long base, long exponent ) {
+		long result = 1;
+
+		while ( exponent != 0 ) {
+
+			if ( (exponent & 1) != 0 ) {
+				result = Math.multiplyExact(result, base);
+			}
+
+			exponent >>>= 1;
+
+			if ( exponent != 0 ) {
+				base = Math.multiplyExact(base, base);
+			}
+		}
+
+		return result;
+	}
+
+}
@@ -0,0 +1,517 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.Arrays;
+
+import com.fdmgroup.tdd.Calculator.ExpressionSyntaxException.Kind;
+
+/**
+ * Splits an expression into tokens in a single left-to-right pass.
+ *
+ * Whitespace is skipped and runs of '+' and '-' signs are folded as they are read, which gives the
+ * same result as the old "++", "--", "+-", "-+", "*+" and "/+" rewrites. A folded run that follows
+ * an operand is a binary operator, anywhere else it is a sign: a negative sign becomes a NEGATE
+ * token and a positive sign is dropped. An operator that appears where an operand is expected
+ * ("+*", "-/", "**", "//", ...) is rejected the same way the old invalid operator check did.
+ *
+ * The same pass validates the whole expression. Every character is classified with a lookup
+ * table, and a second table gives, for whether an operand or an operator comes next, the classes
+ * that are not allowed and why. Parentheses are counted as they are read. Any problem is reported
+ * as an {@link ExpressionSyntaxException} with its position as soon as it is found, so invalid
+ * input is rejected without being parsed.
+ *
+ * Names made of letters, digits and underscores that start with a letter or underscore, such as
+ * "rate" or "x1", are read as variables, or as functions when a '(' follows them. Commas are only
+ * allowed between the arguments of a function.
+ *
+ * Tokens are stored in parallel arrays that are allocated once per expression.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class Lexer {
+
+	// Token types
+	static final byte NUMBER = 0;
+	static final byte PLUS = 1;
+	static final byte MINUS = 2;
+	static final byte TIMES = 3;
+	static final byte DIVIDE = 4;
+	static final byte CARET = 5;
+	static final byte NEGATE = 6;
+	static final byte OPEN = 7;
+	static final byte CLOSE = 8;
+	static final byte END = 9;
+	static final byte VARIABLE = 10;
+	static final byte FUNCTION = 11;
+	static final byte COMMA = 12;
+
+	// Character classes
+	private static final byte SPACE = 0;
+	private static final byte SIGN = 1;
+	private static final byte BINARY = 2;
+	private static final byte LEFT = 3;
+	private static final byte RIGHT = 4;
+	private static final byte DIGIT = 5;
+	private static final byte LETTER = 6;
+	private static final byte SEPARATOR = 7;
+	private static final byte OTHER = 8;
+
+	// Class of every ASCII character, the rest are OTHER
+	private static final byte[] CHARACTERS = new byte[128];
+
+	// States, whether an operand or an operator comes next
+	private static final int OPERAND = 0;
+	private static final int OPERATOR = 1;
+
+	// What is wrong with a character class in a state, null where it is allowed
+	private static final Kind[][] REJECTED = new Kind[2][OTHER + 1];
+
+	static {
+		Arrays.fill(CHARACTERS, OTHER);
+		CHARACTERS[' '] = SPACE;
+		CHARACTERS['+'] = SIGN;
+		CHARACTERS['-'] = SIGN;
+		CHARACTERS['*'] = BINARY;
+		CHARACTERS['/'] = BINARY;
+		CHARACTERS['^'] = BINARY;
+		CHARACTERS['('] = LEFT;
+		CHARACTERS[')'] = RIGHT;
+		CHARACTERS[','] = SEPARATOR;
+		CHARACTERS['.'] = DIGIT;
+
+		for ( char c = '0'; c <= '9'; c++ ) {
+			CHARACTERS[c] = DIGIT;
+		}
+
+		for ( char c = 'a'; c <= 'z'; c++ ) {
+			CHARACTERS[c] = LETTER;
+			CHARACTERS[Character.toUpperCase(c)] = LETTER;
+		}
+
+		CHARACTERS['_'] = LETTER;
+
+		REJECTED[OPERAND][BINARY] = Kind.INVALID_OPERATOR;
+		REJECTED[OPERAND][RIGHT] = Kind.MISSING_OPERAND;
+		REJECTED[OPERAND][SEPARATOR] = Kind.MISSING_OPERAND;
+		REJECTED[OPERATOR][LEFT] = Kind.MISSING_OPERATOR;
+		REJECTED[OPERATOR][DIGIT] = Kind.MISSING_OPERATOR;
+		REJECTED[OPERATOR][LETTER] = Kind.MISSING_OPERATOR;
+		REJECTED[OPERAND][OTHER] = Kind.UNEXPECTED_CHARACTER;
+		REJECTED[OPERATOR][OTHER] = Kind.UNEXPECTED_CHARACTER;
+	}
+
+	private final CharSequence expression;
+	private final EvaluationLimits limits;
+	private final long deadline;
+
+	final byte[] types;
+	final double[] values;
+	final int[] positions;
+	int count;
+
+	// Deepest parenthesis nesting seen, for metrics
+	int maxDepth;
+	private int depth;
+
+	// Variable and function names by token index, only allocated once a name is found
+	String[] names;
+
+	// Depths of the parentheses holding function arguments, innermost last, only allocated once a
+	// function is called
+	private int[] calls;
+	private int callCount;
+
+	// Exact values of whole numbers above 2^53, which doubles round, only allocated once one is found
+	long[] integers;
+
+
+	/**
+	 * Tokenizes the expression.
+	 * @param expression Mathematical expression to be tokenized
+	 * @throws ExpressionSyntaxException If the expression contains invalid operators, characters or
+	 * numbers, or its parentheses are unbalanced or empty.
+	 */
+
+	Lexer( CharSequence expression ) {
+		this(expression, EvaluationLimits.NONE, 0);
+	}
+
+
+	/**
+	 * Tokenizes the expression, stopping as soon as it goes over the depth, token or time limits.
+	 * @param expression Mathematical expression to be tokenized
+	 * @param limits Limits of the calculator
+	 * @param deadline Deadline from {@link EvaluationLimits#deadline()}
+	 * @throws ExpressionSyntaxException If the expression contains invalid operators, characters or
+	 * numbers, or its parentheses are unbalanced or empty.
+	 * @throws LimitExceededException If the expression goes over a limit.
+	 */
+
+	Lexer( CharSequence expression, EvaluationLimits limits, long deadline ) {
+		this.expression = expression;
+		this.limits = limits;
+		this.deadline = deadline;
+
+		// There can never be more tokens than characters, plus the END marker
+		int capacity = expression.length() + 1;
+		this.types = new byte[capacity];
+		this.values = new double[capacity];
+		this.positions = new int[capacity];
+
+		tokenize();
+	}
+
+
+	private void tokenize() {
+		int length = expression.length();
+		int index = 0;
+		int state = OPERAND;
+
+		while ( index < length ) {
+			char c = expression.charAt(index);
+			byte type = c < CHARACTERS.length ? CHARACTERS[c] : OTHER;
+			Kind rejected = REJECTED[state][type];
+
+			if ( rejected != null ) {
+				throw rejected(rejected, index, c);
+			}
+
+			switch ( type ) {
+			case SPACE:
+				index++;
+				break;
+
+			case SIGN:
+				// Fold the whole run of signs, ignoring whitespace in between
+				int start = index;
+				boolean negative = false;
+
+				while ( index < length && isSignOrSpace(expression.charAt(index)) ) {
+					if ( expression.charAt(index) == '-' ) {
+						negative = !negative;
+					}
+					index++;
+				}
+
+				if ( state == OPERATOR ) {
+					add(negative ? MINUS : PLUS, 0, start);
+					state = OPERAND;
+
+				} else if ( negative ) {
+					add(NEGATE, 0, start);
+				}
+				break;
+
+			case BINARY:
+				add(c == '*' ? TIMES : c == '/' ? DIVIDE : CARET, 0, index);
+				state = OPERAND;
+				index++;
+				break;
+
+			case LEFT:
+				add(OPEN, 0, index);
+				maxDepth = Math.max(maxDepth, ++depth);
+				limits.checkDepth(depth, index);
+
+				if ( count > 1 && types[count - 2] == FUNCTION ) {
+					calls[callCount++] = depth;
+				}
+
+				index++;
+				break;
+
+			case SEPARATOR:
+				// Commas only separate the arguments of a call
+				if ( callCount == 0 || calls[callCount - 1] != depth ) {
+					throw rejected(Kind.UNEXPECTED_CHARACTER, index, c);
+				}
+
+				add(COMMA, 0, index);
+				state = OPERAND;
+				index++;
+				break;
+
+			case RIGHT:
+				if ( depth == 0 ) {
+					throw new ExpressionSyntaxException(Kind.UNBALANCED_PARENTHESES, index,
+							"Unbalanced parentheses at position " + index + ".");
+				}
+
+				if ( callCount > 0 && calls[callCount - 1] == depth ) {
+					callCount--;
+				}
+
+				add(CLOSE, 0, index);
+				depth--;
+				index++;
+				break;
+
+			case DIGIT:
+				index = readNumber(index);
+				state = OPERATOR;
+				break;
+
+			default:
+				index = readName(index);
+				state = types[count - 1] == FUNCTION ? OPERAND : OPERATOR;
+				break;
+			}
+		}
+
+		if ( state == OPERAND ) {
+			throw new ExpressionSyntaxException(Kind.MISSING_OPERAND, length, "Expression ends without an operand.");
+		}
+
+		// A '(' left open is found where its ')' was missing, at the end
+		if ( depth > 0 ) {
+			throw new ExpressionSyntaxException(Kind.UNBALANCED_PARENTHESES, length,
+					"Unbalanced parentheses at position " + length + ".");
+		}
+
+		add(END, 0, length);
+	}
+
+
+	// Describes a character the table rejects in the current state
+	private ExpressionSyntaxException rejected( Kind kind, int index, char c ) {
+
+		switch ( kind ) {
+		case INVALID_OPERATOR:
+			return new ExpressionSyntaxException(kind, index, "Invalid argument detected.");
+		case MISSING_OPERAND:
+			if ( c == ')' && count > 0 && types[count - 1] == OPEN ) {
+				return new ExpressionSyntaxException(Kind.EMPTY_PARENTHESES, index, "Empty parentheses at position " + index + ".");
+			}
+			return new ExpressionSyntaxException(kind, index, "Missing operand before '" + c + "' at position " + index + ".");
+		case MISSING_OPERATOR:
+			String before = c == '(' ? "'('" : CHARACTERS[c] == LETTER ? "variable" : "number";
+			return new ExpressionSyntaxException(kind, index, "Missing operator before " + before + " at position " + index + ".");
+		default:
+			return new ExpressionSyntaxException(kind, index, "Unexpected character '" + c + "' at position " + index + ".");
+		}
+	}
+
+
+	// Reads digits with an optional fraction and exponent, returning the index after the number
+	private int readNumber( int start ) {
+		int length = expression.length();
+		int index = skipDigits(start);
+		boolean digits = index > start;
+
+		if ( index < length && expression.charAt(index) == '.' ) {
+			int fractionStart = index + 1;
+			index = skipDigits(fractionStart);
+			digits |= index > fractionStart;
+		}
+
+		if ( !digits ) {
+			throw malformed(start);
+		}
+
+		// The exponent is only consumed when digits follow it, so "e" never swallows an operator
+		if ( index < length && (expression.charAt(index) == 'e' || expression.charAt(index) == 'E') ) {
+			int exponentStart = index + 1;
+
+			if ( exponentStart < length && (expression.charAt(exponentStart) == '+' || expression.charAt(exponentStart) == '-') ) {
+				exponentStart++;
+			}
+
+			int exponentEnd = skipDigits(exponentStart);
+
+			if ( exponentEnd > exponentStart ) {
+				index = exponentEnd;
+			}
+		}
+
+		// A second point, or an exponent without digits, cannot start anything else
+		if ( index < length && (expression.charAt(index) == '.' || expression.charAt(index) == 'e' || expression.charAt(index) == 'E') ) {
+			throw malformed(start);
+		}
+
+		double value = parseNumber(start, index);
+
+		if ( value >= 0x1p53 && value <= 0x1p63 ) {
+			readInteger(start, index);
+		}
+
+		add(NUMBER, value, start);
+		return index;
+	}
+
+
+	// Keeps the exact value of a number written with digits only, for IntegerArithmetic
+	private void readInteger( int start, int end ) {
+		long integer = 0;
+
+		for ( int index = start; index < end; index++ ) {
+			char c = expression.charAt(index);
+
+			if ( !isDigit(c) || integer > (Long.MAX_VALUE - (c - '0')) / 10 ) {
+				return;
+			}
+
+			integer = integer * 10 + (c - '0');
+		}
+
+		if ( integers == null ) {
+			integers = new long[types.length];
+		}
+
+		integers[count] = integer;
+	}
+
+
+	// Powers of ten that a double holds exactly
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+
+	/**
+	 * Converts the number between start and end straight from the characters of the expression.
+	 * When the digits fit in 53 bits and the power of ten is exact, a single multiplication or
+	 * division gives the correctly rounded value without creating a String. Anything else, such as
+	 * very long or very large numbers, is left to {@link Double#parseDouble(String)}.
+	 * 
+	 * @param start Index of the first character of the number
+	 * @param end Index after the last character of the number
+	 * @return The value of the number.
+	 */
+
+	private double parseNumber( int start, int end ) {
+		long digits = 0;
+		int significant = 0;
+		int scale = 0;
+		boolean fraction = false;
+		int index = start;
+
+		for ( ; index < end; index++ ) {
+			char c = expression.charAt(index);
+
+			if ( c == '.' ) {
+				fraction = true;
+				continue;
+			}
+
+			if ( !isDigit(c) ) {
+				break;
+			}
+
+			if ( digits != 0 || c != '0' ) {
+				significant++;
+			}
+
+			digits = digits * 10 + (c - '0');
+
+			if ( fraction ) {
+				scale--;
+			}
+		}
+
+		// Exponent part
+		if ( index < end ) {
+			boolean negative = expression.charAt(++index) == '-';
+
+			if ( expression.charAt(index) == '+' || negative ) {
+				index++;
+			}
+
+			int exponent = 0;
+
+			for ( ; index < end && exponent < 1000; index++ ) {
+				exponent = exponent * 10 + (expression.charAt(index) - '0');
+			}
+
+			scale += negative ? -exponent : exponent;
+		}
+
+		if ( significant > 18 || digits > (1L << 53) || scale < -22 || scale > 22 ) {
+			return Double.parseDouble(expression.subSequence(start, end).toString());
+		}
+
+		return scale < 0 ? digits / POWERS_OF_TEN[-scale] : digits * POWERS_OF_TEN[scale];
+	}
+
+
+	// Reads a name, a function call when a '(' follows it, returning the index after the name
+	private int readName( int start ) {
+		int index = start + 1;
+
+		while ( index < expression.length() && (isLetter(expression.charAt(index)) || isDigit(expression.charAt(index))) ) {
+			index++;
+		}
+
+		if ( names == null ) {
+			names = new String[types.length];
+		}
+
+		names[count] = expression.subSequence(start, index).toString();
+
+		int next = index;
+
+		while ( next < expression.length() && expression.charAt(next) == ' ' ) {
+			next++;
+		}
+
+		if ( next < expression.length() && expression.charAt(next) == '(' ) {
+
+			if ( calls == null ) {
+				calls = new int[types.length];
+			}
+
+			add(FUNCTION, 0, start);
+		} else {
+			add(VARIABLE, 0, start);
+		}
+
+		return index;
+	}
+
+
+	private static ExpressionSyntaxException malformed( int start ) {
+		return new ExpressionSyntaxException(Kind.MALFORMED_NUMBER, start, "Malformed number at position " + start + ".");
+	}
+
+
+	private int skipDigits( int index ) {
+		while ( index < expression.length() && isDigit(expression.charAt(index)) ) {
+			index++;
+		}
+		return index;
+	}
+
+
+	private void add( byte type, double value, int position ) {
+		// The END marker is not part of the expression
+		if ( type != END ) {
+			limits.checkTokens(count + 1, position);
+		}
+
+		// Often enough to notice a timeout or an interrupt within a few microseconds
+		if ( (count & 4095) == 4095 ) {
+			limits.checkTime(deadline);
+		}
+
+		types[count] = type;
+		values[count] = value;
+		positions[count] = position;
+		count++;
+	}
+
+
+	private static boolean isSignOrSpace( char c ) {
+		return c == '+' || c == '-' || c == ' ';
+	}
+
+
+	private static boolean isLetter( char c ) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+
+	private static boolean isDigit( char c ) {
+		return c >= '0' && c <= '9';
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Thrown when an expression goes over one of the {@link EvaluationLimits} of its calculator, or
+ * its evaluation is cancelled. It tells which {@link Limit} was exceeded, so a shared evaluator
+ * can tell hostile or runaway input apart from expressions that are merely invalid.
+ *
+ * Like {@link ExpressionSyntaxException}, no stack trace is filled in, so rejecting input that
+ * is over a limit stays cheap however often it arrives.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class LimitExceededException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Which limit was exceeded. */
+	public enum Limit {
+		/** The expression has more characters than allowed. */
+		LENGTH,
+		/** Parentheses are nested deeper than allowed. */
+		DEPTH,
+		/** The expression has more tokens than allowed. */
+		TOKENS,
+		/** An exponent is larger in magnitude than allowed. */
+		EXPONENT,
+		/** A root did not converge within the allowed Newton-Raphson steps. */
+		ROOT_ITERATIONS,
+		/** The evaluation took longer than allowed. */
+		TIME,
+		/** The thread evaluating was interrupted. */
+		CANCELLED
+	}
+
+	private final Limit limit;
+
+
+	/**
+	 * @param limit Which limit was exceeded
+	 * @param message Description of the problem
+	 */
+
+	public LimitExceededException( Limit limit, String message ) {
+		super(message);
+		this.limit = limit;
+	}
+
+
+	/**
+	 * @return Which limit was exceeded.
+	 */
+
+	public Limit getLimit() {
+		return limit;
+	}
+
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * A named function that can be called in expressions, such as "sqrt(x)" or "max(a, b)".
+ *
+ * Functions are looked up by name once, when the expression is parsed, and the parsed program
+ * calls {@link #apply(double[], int)} directly. The arguments are read straight from the operand
+ * stack of the evaluation, so a call allocates nothing.
+ *
+ * Implementations must always return the same result for the same arguments and be safe to call
+ * from many threads: calls with constant arguments are worked out once while compiling, and equal
+ * calls in one expression are only made once. Domain functions are added with a
+ * {@link FunctionProvider}.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public interface MathFunction {
+
+	/**
+	 * @return Name the function is called by, made of letters, digits and underscores and not
+	 * starting with a digit.
+	 */
+
+	String getName();
+
+
+	/**
+	 * @return Number of arguments the function takes, at least one.
+	 */
+
+	int getArity();
+
+
+	/**
+	 * Applies the function. The arguments must only be read.
+	 * @param arguments Array holding the arguments, among other values
+	 * @param offset Index of the first argument, the others follow it in order
+	 * @return The result of the function.
+	 * @throws IllegalArgumentException If the function is not defined for the arguments.
+	 */
+
+	double apply( double[] arguments, int offset );
+
+}
@@ -0,0 +1,223 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * Simplifies a {@link Program} before it is evaluated, working directly on the postfix code.
+ *
+ * <ul>
+ * <li>Constant subtrees are folded into a single number, so "(2*3)*x" becomes "6*x" and
+ * "sqrt(2)*x" becomes "1.4142135623730951*x". Whole numbers
+ * are folded exactly with {@link IntegerArithmetic}, anything else with the calculator's own
+ * operations, so dividing by a constant zero or a constant "0^0" throws the usual exception while
+ * compiling. So does dividing anything by a constant zero.</li>
+ * <li>Identities that hold for every double are removed: "x*1", "1*x", "x/1", "x^1" and "x-0"
+ * all become "x". Identities such as "0+x" or "x*0" are kept because they change the sign of
+ * zero, NaN or infinity.</li>
+ * <li>Constant factors in a product are combined, so "x*2*4" becomes "x*8". This is only done for
+ * powers of two of at least one, which scale exactly, so the result is the same to the last bit.</li>
+ * </ul>
+ *
+ * The optimizer reads the program once from left to right, keeping track of where the code of
+ * each operand on the stack begins, and never recurses.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class Optimizer {
+
+	private Optimizer() {
+	}
+
+
+	/**
+	 * @param program Program to be simplified, which is not changed
+	 * @param calculator Calculator providing the operations used for folding
+	 * @return The simplified program.
+	 * @throws IllegalArgumentException If a constant subtree divides by zero or raises zero to zero.
+	 */
+
+	static Program optimize( Program program, Calculator calculator ) {
+		byte[] code = new byte[program.length];
+		double[] numbers = new double[program.length];
+		int[] slots = new int[program.length];
+		int length = 0;
+
+		// For each operand on the stack: where its code starts, whether it is a constant, and where
+		// the constant factor of its product is (or -1)
+		int[] starts = new int[program.maxStack];
+		boolean[] constant = new boolean[program.maxStack];
+		int[] factors = new int[program.maxStack];
+		long[] integers = new long[program.maxStack];
+		boolean[] exact = new boolean[program.maxStack];
+		int top = -1;
+
+		for ( int pc = 0; pc < program.length; pc++ ) {
+			byte instruction = program.code[pc];
+
+			if ( instruction == Program.NUMBER || instruction == Program.VARIABLE ) {
+
+				top++;
+				starts[top] = length;
+				constant[top] = instruction == Program.NUMBER;
+				factors[top] = -1;
+				exact[top] = constant[top] && program.isInteger(pc);
+				integers[top] = exact[top] ? program.integer(pc) : 0;
+
+				code[length] = instruction;
+				numbers[length] = program.numbers[pc];
+				slots[length] = program.slots[pc];
+				length++;
+
+			} else if ( instruction == Program.NEGATE ) {
+
+				if ( exact[top] && IntegerArithmetic.negate(integers, top) ) {
+					numbers[starts[top]] = integers[top];
+				} else if ( constant[top] ) {
+					numbers[starts[top]] = calculator.minus(0, numbers[starts[top]]);
+					exact[top] = false;
+				} else {
+					code[length++] = Program.NEGATE;
+					factors[top] = -1;
+				}
+
+			} else if ( instruction == Program.CALL ) {
+
+				MathFunction function = program.functions[program.slots[pc]];
+				int first = top - function.getArity() + 1;
+				boolean constantArguments = true;
+
+				for ( int argument = first; argument <= top; argument++ ) {
+					constantArguments &= constant[argument];
+				}
+
+				if ( constantArguments ) {
+
+					// The arguments are single numbers in a row, replace them with the result
+					double[] arguments = new double[function.getArity()];
+
+					for ( int argument = first; argument <= top; argument++ ) {
+						arguments[argument - first] = numbers[starts[argument]];
+					}
+
+					numbers[starts[first]] = function.apply(arguments, 0);
+					length = starts[first] + 1;
+				} else {
+					code[length] = Program.CALL;
+					slots[length++] = program.slots[pc];
+					constant[first] = false;
+				}
+
+				top = first;
+				factors[top] = -1;
+				exact[top] = false;
+
+			} else {
+
+				int right = top--;
+				int left = top;
+
+				// Dividing by a constant zero fails whatever the other operand is
+				if ( instruction == Program.DIVIDE && constant[right] && numbers[starts[right]] == 0 ) {
+					calculator.divide(0, 0);
+				}
+
+				// Whole powers folded exactly never reach the calculator, so its exponent limit is checked here
+				if ( instruction == Program.POWER && exact[left] && exact[right] ) {
+					calculator.limits.checkExponent(integers[right]);
+				}
+
+				if ( exact[left] && exact[right] && IntegerArithmetic.apply(instruction, integers, left) ) {
+
+					// Both operands are whole numbers and so is the result
+					numbers[starts[left]] = integers[left];
+					length = starts[left] + 1;
+
+				} else if ( constant[left] && constant[right] ) {
+
+					// Both operands are single numbers, replace them with their result
+					numbers[starts[left]] = apply(calculator, instruction, numbers[starts[left]], numbers[starts[right]]);
+					length = starts[left] + 1;
+					exact[left] = false;
+
+				} else if ( constant[right] && isRightIdentity(instruction, numbers[starts[right]]) ) {
+
+					length = starts[right];
+
+				} else if ( constant[left] && instruction == Program.MULTIPLY && numbers[starts[left]] == 1 ) {
+
+					// Drop the leading 1 by moving the right operand's code down over it
+					int start = starts[left];
+					System.arraycopy(code, start + 1, code, start, length - start - 1);
+					System.arraycopy(numbers, start + 1, numbers, start, length - start - 1);
+					System.arraycopy(slots, start + 1, slots, start, length - start - 1);
+					length--;
+
+					constant[left] = false;
+					exact[left] = false;
+					factors[left] = factors[right] >= 0 ? factors[right] - 1 : -1;
+
+				} else if ( instruction == Program.MULTIPLY && constant[right] && factors[left] >= 0
+						&& canCombine(numbers[factors[left]], numbers[starts[right]]) ) {
+
+					numbers[factors[left]] *= numbers[starts[right]];
+					length = starts[right];
+
+				} else {
+
+					code[length++] = instruction;
+					factors[left] = instruction != Program.MULTIPLY ? -1 : constant[left] ? starts[left] : constant[right] ? starts[right] : -1;
+					constant[left] = false;
+					exact[left] = false;
+				}
+			}
+		}
+
+		return new Program(code, numbers, null, slots, length, Program.stackDepth(code, slots, program.functions, length), 0,
+				program.variables, program.functions, program.nesting, program.tokens);
+	}
+
+
+	private static double apply( Calculator calculator, byte instruction, double x, double y ) {
+
+		switch ( instruction ) {
+		case Program.ADD:
+			return calculator.add(x, y);
+		case Program.SUBTRACT:
+			return calculator.minus(x, y);
+		case Program.MULTIPLY:
+			return calculator.multiply(x, y);
+		case Program.DIVIDE:
+			return calculator.divide(x, y);
+		default:
+			return calculator.power(x, y);
+		}
+	}
+
+
+	// x*1, x/1 and x^1 are x for every x, and so is x-0 as long as the zero is positive
+	private static boolean isRightIdentity( byte instruction, double value ) {
+
+		switch ( instruction ) {
+		case Program.MULTIPLY:
+		case Program.DIVIDE:
+		case Program.POWER:
+			return value == 1;
+		case Program.SUBTRACT:
+			return Double.doubleToRawLongBits(value) == 0;
+		default:
+			return false;
+		}
+	}
+
+
+	// Scaling by powers of two of at least one is exact, so the order of the scalings does not matter
+	private static boolean canCombine( double x, double y ) {
+		return isPowerOfTwo(x) && isPowerOfTwo(y) && x >= 1 && y >= 1 && !Double.isInfinite(x * y);
+	}
+
+
+	private static boolean isPowerOfTwo( double value ) {
+		return value > 0 && !Double.isInfinite(value) && (Double.doubleToRawLongBits(value) & 0x000FFFFFFFFFFFFFL) == 0;
+	}
+
+}
@@ -0,0 +1,311 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fdmgroup.tdd.Calculator.EvaluationMetrics.Stage;
+import com.fdmgroup.tdd.Calculator.ExpressionSyntaxException.Kind;
+
+/**
+ * Builds a {@link Program} from the tokens of a {@link Lexer} in one pass with an operator stack.
+ * Operands are emitted as they are read and each operator once both of its operands have been,
+ * so the expression tree comes out in postfix order.
+ *
+ * A '(' waits on the operator stack until its ')' arrives, which emits every operator of the group
+ * at once, so groups are finished from the innermost outwards without reading any token twice.
+ * The Lexer has already checked that the tokens alternate correctly and that the parentheses are
+ * balanced. Nothing recurses, so the depth of nesting is only limited by memory and the time is
+ * linear in the number of tokens.
+ *
+ * The order of operations is the same as before: parentheses first, then exponents, then
+ * multiplication/division, then addition/subtraction. Exponents group from right to left
+ * ("2^3^2" is "2^(3^2)"), every other operator groups from left to right. A negative sign
+ * applies to the exponent expression that follows it, so "-2^2" is -4 and "2^-1" is 0.5.
+ *
+ * A function call such as "max(a, b+1)" is parsed like a group: each comma finishes an argument,
+ * and the ')' finishes the last one and emits a {@link Program#CALL} of the function, which is
+ * looked up by name here and never again.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class Parser {
+
+	private static final int ADDITIVE = 1;
+	private static final int MULTIPLICATIVE = 2;
+	private static final int EXPONENT = 3;
+
+	private final Lexer tokens;
+	private int index;
+
+	private final byte[] code;
+	private final double[] numbers;
+	private final int[] slots;
+	private long[] integers;
+	private final List<String> variables = new ArrayList<>();
+	private final Map<String, Integer> variableSlots = new HashMap<>();
+	private List<MathFunction> functions;
+	private int length;
+	private int stack;
+	private int maxStack;
+
+
+	private Parser( Lexer tokens ) {
+		this.tokens = tokens;
+
+		// Each token emits at most one instruction
+		this.code = new byte[tokens.count];
+		this.numbers = new double[tokens.count];
+		this.slots = new int[tokens.count];
+	}
+
+
+	/**
+	 * Parses the expression into a program.
+	 * @param expression Mathematical expression to be parsed
+	 * @return The expression tree in postfix order
+	 * @throws IllegalArgumentException If the expression is not valid.
+	 */
+
+	static Program parse( CharSequence expression ) {
+		return parse(expression, EvaluationLimits.NONE, 0);
+	}
+
+
+	/**
+	 * Parses the expression into a program within the given limits.
+	 * @param expression Mathematical expression to be parsed
+	 * @param limits Limits of the calculator, checked while tokenizing
+	 * @param deadline Deadline from {@link EvaluationLimits#deadline()}
+	 * @return The expression tree in postfix order
+	 * @throws IllegalArgumentException If the expression is not valid.
+	 * @throws LimitExceededException If the expression goes over a limit.
+	 */
+
+	static Program parse( CharSequence expression, EvaluationLimits limits, long deadline ) {
+		long start = EvaluationMetrics.start();
+		Lexer tokens = new Lexer(expression, limits, deadline);
+		EvaluationMetrics.record(Stage.TOKENIZE, start, expression.length(), tokens.maxDepth);
+
+		start = EvaluationMetrics.start();
+		Parser parser = new Parser(tokens);
+		parser.parseExpression();
+
+		MathFunction[] functions = parser.functions == null ? null : parser.functions.toArray(new MathFunction[0]);
+		Program program = new Program(parser.code, parser.numbers, parser.integers, parser.slots, parser.length, parser.maxStack, 0,
+				parser.variables.toArray(new String[0]), functions, tokens.maxDepth, tokens.count - 1);
+		EvaluationMetrics.record(Stage.PARSE, start, expression.length(), tokens.maxDepth);
+		return program;
+	}
+
+
+	// Reads every token, emitting operands at once and operators when their right operand is complete
+	private void parseExpression() {
+		byte[] operators = new byte[tokens.count];
+		int top = -1;
+
+		// Calls whose ')' has not been read yet: the function, its token and the commas read so far
+		MathFunction[] calls = null;
+		int[] callTokens = null;
+		int[] commas = null;
+		int call = -1;
+
+		for ( ; tokens.types[index] != Lexer.END; index++ ) {
+			byte type = tokens.types[index];
+
+			switch ( type ) {
+			case Lexer.NUMBER:
+				emitNumber();
+				break;
+
+			case Lexer.VARIABLE:
+				emitVariable(tokens.names[index]);
+				break;
+
+			case Lexer.NEGATE:
+			case Lexer.OPEN:
+				operators[++top] = type;
+				break;
+
+			case Lexer.FUNCTION:
+				// Resolved once here, the program calls the function directly
+				if ( calls == null ) {
+					calls = new MathFunction[tokens.count];
+					callTokens = new int[tokens.count];
+					commas = new int[tokens.count];
+				}
+
+				call++;
+				calls[call] = resolve(tokens.names[index]);
+				callTokens[call] = index;
+				commas[call] = 0;
+				operators[++top] = type;
+				break;
+
+			case Lexer.COMMA:
+				while ( operators[top] != Lexer.OPEN ) {
+					emitOperator(operators[top--]);
+				}
+				commas[call]++;
+				break;
+
+			case Lexer.CLOSE:
+				while ( operators[top] != Lexer.OPEN ) {
+					emitOperator(operators[top--]);
+				}
+				top--;
+
+				if ( top >= 0 && operators[top] == Lexer.FUNCTION ) {
+					top--;
+					emitCall(calls[call], commas[call] + 1, callTokens[call]);
+					call--;
+				}
+				break;
+
+			default:
+				// Exponents are right associative so an earlier '^' waits for this one
+				int precedence = precedence(type);
+
+				while ( top >= 0 && (precedence(operators[top]) > precedence
+						|| (precedence(operators[top]) == precedence && type != Lexer.CARET)) ) {
+					emitOperator(operators[top--]);
+				}
+
+				operators[++top] = type;
+				break;
+			}
+		}
+
+		while ( top >= 0 ) {
+			emitOperator(operators[top--]);
+		}
+	}
+
+
+	private void emitNumber() {
+
+		if ( tokens.integers != null && tokens.integers[index] != 0 ) {
+			if ( integers == null ) {
+				integers = new long[code.length];
+			}
+			integers[length] = tokens.integers[index];
+		}
+
+		emit(Program.NUMBER, tokens.values[index], 1);
+	}
+
+
+	private MathFunction resolve( String name ) {
+		MathFunction function = Functions.get(name);
+
+		if ( function == null ) {
+			throw new ExpressionSyntaxException(Kind.UNKNOWN_FUNCTION, tokens.positions[index],
+					"Unknown function '" + name + "' at position " + tokens.positions[index] + ".");
+		}
+
+		return function;
+	}
+
+
+	// Functions get a slot each, in the order they are first called
+	private void emitCall( MathFunction function, int arguments, int token ) {
+
+		if ( arguments != function.getArity() ) {
+			throw new ExpressionSyntaxException(Kind.WRONG_ARGUMENT_COUNT, tokens.positions[token],
+					"Function '" + function.getName() + "' takes " + function.getArity() + " arguments but was given "
+							+ arguments + " at position " + tokens.positions[token] + ".");
+		}
+
+		if ( functions == null ) {
+			functions = new ArrayList<>(2);
+		}
+
+		int slot = functions.indexOf(function);
+
+		if ( slot < 0 ) {
+			slot = functions.size();
+			functions.add(function);
+		}
+
+		slots[length] = slot;
+		emit(Program.CALL, 0, 1 - arguments);
+	}
+
+
+	private void emitOperator( byte operator ) {
+
+		if ( operator == Lexer.NEGATE ) {
+			emit(Program.NEGATE, 0, 0);
+		} else {
+			emit(instructionOf(operator), 0, -1);
+		}
+	}
+
+
+	// Appends an instruction and tracks how deep the operand stack gets
+	private void emit( byte instruction, double number, int stackChange ) {
+		code[length] = instruction;
+		numbers[length] = number;
+		length++;
+
+		stack += stackChange;
+		if ( stack > maxStack ) {
+			maxStack = stack;
+		}
+	}
+
+
+	// Variables are numbered in the order they first appear
+	private void emitVariable( String name ) {
+		Integer slot = variableSlots.get(name);
+
+		if ( slot == null ) {
+			slot = variables.size();
+			variables.add(name);
+			variableSlots.put(name, slot);
+		}
+
+		slots[length] = slot;
+		emit(Program.VARIABLE, 0, 1);
+	}
+
+
+	private static int precedence( byte type ) {
+
+		switch ( type ) {
+		case Lexer.PLUS:
+		case Lexer.MINUS:
+			return ADDITIVE;
+		case Lexer.TIMES:
+		case Lexer.DIVIDE:
+			return MULTIPLICATIVE;
+		case Lexer.CARET:
+		case Lexer.NEGATE:
+			// A negative sign applies to the exponent expression after it
+			return EXPONENT;
+		default:
+			return 0;
+		}
+	}
+
+
+	private static byte instructionOf( byte operator ) {
+
+		switch ( operator ) {
+		case Lexer.PLUS:
+			return Program.ADD;
+		case Lexer.MINUS:
+			return Program.SUBTRACT;
+		case Lexer.TIMES:
+			return Program.MULTIPLY;
+		case Lexer.DIVIDE:
+			return Program.DIVIDE;
+		default:
+			return Program.POWER;
+		}
+	}
+
+}
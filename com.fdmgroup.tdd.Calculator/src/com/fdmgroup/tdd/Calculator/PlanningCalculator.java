@@ -0,0 +1,207 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.fdmgroup.tdd.Calculator.ExecutionPlan.Strategy;
+
+/**
+ * A calculator that picks, for every expression, the cheapest way to evaluate it. A one-off
+ * "2+3" is interpreted in a single pass and never pays for compiling or for a place in the cache,
+ * while a formula that keeps coming back is compiled once and its value looked up from then on.
+ *
+ * Each call is planned from two things. The cost of the expression is estimated from a quick
+ * scan of its text, see {@link CostEstimator}: its tokens, its nesting and its exponents, with
+ * fractional exponents weighing most as they need Newton's method. How often the expression has
+ * been seen recently is counted in a {@link FrequencySketch}. Having been seen f times, the
+ * expression is expected to come back about as often again, so it is cached once compiling it
+ * and then looking it up f - 1 times costs less than interpreting it f times.
+ *
+ * {@link #explain(String)} shows the plan for an expression without evaluating it or counting it.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public class PlanningCalculator implements ICalculator {
+
+	private final ICalculator delegate;
+	private final CachingCalculator cache;
+	private final Stripe[] stripes;
+	private final int stripeMask;
+	private final LongAdder[] planned = new LongAdder[Strategy.values().length];
+
+
+	/**
+	 * Creates a planner in front of a new {@link Calculator}.
+	 * @param cacheSize Maximum number of cached expressions
+	 */
+
+	public PlanningCalculator( int cacheSize ) {
+		this(new Calculator(), cacheSize);
+	}
+
+
+	/**
+	 * Creates a planner in front of the given calculator.
+	 * @param delegate Calculator that interprets and compiles the expressions
+	 * @param cacheSize Maximum number of cached expressions
+	 * @throws IllegalArgumentException If the cache size is not positive.
+	 */
+
+	public PlanningCalculator( ICalculator delegate, int cacheSize ) {
+		this.delegate = delegate;
+		this.cache = new CachingCalculator(delegate, cacheSize);
+
+		// Frequencies are counted in stripes so threads rarely wait for each other
+		int count = Integer.highestOneBit(Math.min(4 * Runtime.getRuntime().availableProcessors(), Math.max(1, cacheSize / 16)));
+		this.stripes = new Stripe[count];
+		this.stripeMask = count - 1;
+
+		for ( int i = 0; i < count; i++ ) {
+			stripes[i] = new Stripe(Math.max(1, cacheSize / count));
+		}
+
+		for ( int i = 0; i < planned.length; i++ ) {
+			planned[i] = new LongAdder();
+		}
+	}
+
+
+	/**
+	 * Evaluates the expression by interpreting it, or through the cache once it is seen often
+	 * enough for that to be cheaper.
+	 * @param expression Mathematical expression to be evaluated
+	 * @return The value of the expression.
+	 * @throws IllegalArgumentException If the expression is invalid or cannot be evaluated.
+	 */
+
+	@Override
+	public double evaluate(String expression) {
+		ExecutionPlan plan = plan(expression, true);
+
+		if ( plan.getStrategy() == Strategy.CACHE ) {
+			return cache.evaluate(expression);
+		}
+
+		return delegate.evaluate(expression);
+	}
+
+
+	/**
+	 * Compiles the expression, sharing the compiled expression through the cache once the same
+	 * expression is compiled more than once. Expressions compiled once do not take a place in the cache.
+	 * @param expression Mathematical expression to be compiled
+	 * @return The compiled expression.
+	 * @throws IllegalArgumentException If the expression is invalid.
+	 */
+
+	@Override
+	public CompiledExpression compile(String expression) {
+		int frequency = record(expression);
+		Strategy strategy = frequency > 1 ? Strategy.CACHE : Strategy.COMPILE;
+		planned[strategy.ordinal()].increment();
+
+		return strategy == Strategy.CACHE ? cache.compile(expression) : delegate.compile(expression);
+	}
+
+
+	/**
+	 * Plans the evaluation of the expression the way {@link #evaluate(String)} would now, without
+	 * evaluating it or counting it as seen.
+	 * @param expression Mathematical expression, which does not have to be valid
+	 * @return The chosen strategy, its estimated cost and what the estimate is based on.
+	 */
+
+	public ExecutionPlan explain(String expression) {
+
+		return plan(expression, false);
+	}
+
+
+	/**
+	 * @param strategy A strategy
+	 * @return Number of evaluations and compilations planned with the strategy.
+	 */
+
+	public long getPlannedCount(Strategy strategy) {
+
+		return planned[strategy.ordinal()].sum();
+	}
+
+
+	/**
+	 * @return The cache used for expressions seen often, with its hit and miss counts.
+	 */
+
+	public CachingCalculator getCache() {
+
+		return cache;
+	}
+
+
+	private ExecutionPlan plan( String expression, boolean count ) {
+		CostEstimator.Features features = CostEstimator.estimate(expression);
+		int frequency = count ? record(expression) : Math.min(15, frequency(expression) + 1);
+
+		// Caching pays off once compiling and looking up f - 1 times beats interpreting f times
+		double cached = features.compileCost() + (frequency - 1) * features.cacheHitCost();
+		Strategy strategy = cached < frequency * features.interpretCost() ? Strategy.CACHE : Strategy.INTERPRET;
+
+		if ( count ) {
+			planned[strategy.ordinal()].increment();
+		}
+
+		return new ExecutionPlan(strategy, features, frequency);
+	}
+
+
+	// Counts one more sighting of the expression, returning how often it has been seen
+	private int record( String expression ) {
+		int hash = spread(expression.hashCode());
+		return stripes[hash & stripeMask].record(hash);
+	}
+
+
+	private int frequency( String expression ) {
+		int hash = spread(expression.hashCode());
+		return stripes[hash & stripeMask].frequency(hash);
+	}
+
+
+	private static int spread( int hash ) {
+		return (hash ^ (hash >>> 16)) * 0x45d9f3b;
+	}
+
+
+	// One independently locked part of the frequency counts
+	private static final class Stripe {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final FrequencySketch sketch;
+
+		Stripe( int capacity ) {
+			this.sketch = new FrequencySketch(capacity);
+		}
+
+		int record( int hash ) {
+			lock.lock();
+			try {
+				sketch.increment(hash);
+				return Math.max(1, sketch.frequency(hash));
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int frequency( int hash ) {
+			lock.lock();
+			try {
+				return sketch.frequency(hash);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,386 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * A parsed expression tree stored in postfix order. Every instruction either pushes a number or
+ * replaces the operands on top of the stack with the result of its operator, so the tree can be
+ * evaluated with a single loop and no recursion however long the expression is.
+ *
+ * Variables are numbered when the expression is parsed and read from a {@code double[]} by slot,
+ * and functions are resolved to the {@link MathFunction} they call, so evaluating never looks a
+ * name up.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+final class Program {
+
+	// Instructions
+	static final byte NUMBER = 0;
+	static final byte NEGATE = 1;
+	static final byte ADD = 2;
+	static final byte SUBTRACT = 3;
+	static final byte MULTIPLY = 4;
+	static final byte DIVIDE = 5;
+	static final byte POWER = 6;
+	static final byte VARIABLE = 7;
+	static final byte STORE = 8;
+	static final byte LOAD = 9;
+	static final byte CALL = 10;
+
+	final byte[] code;
+	final double[] numbers;
+	final int[] slots;
+
+	// Exact values of literals that doubles round, null when there are none
+	final long[] integers;
+	final int length;
+	final int maxStack;
+
+	// Values kept by STORE for LOAD, held after the operand stack
+	final int temporaries;
+	final String[] variables;
+
+	// Functions called by CALL, by slot, null when there are none
+	final MathFunction[] functions;
+
+	// Deepest parenthesis nesting of the source text, for metrics
+	final int nesting;
+
+	// Tokens of the source text, for the token limit of incremental expressions
+	final int tokens;
+
+
+	Program( byte[] code, double[] numbers, long[] integers, int[] slots, int length, int maxStack, int temporaries,
+			String[] variables, MathFunction[] functions, int nesting, int tokens ) {
+		this.code = code;
+		this.numbers = numbers;
+		this.integers = integers;
+		this.slots = slots;
+		this.length = length;
+		this.maxStack = maxStack;
+		this.temporaries = temporaries;
+		this.variables = variables;
+		this.functions = functions;
+		this.nesting = nesting;
+		this.tokens = tokens;
+	}
+
+
+	/**
+	 * Works out how deep the operand stack of some code gets.
+	 * @param code Instructions
+	 * @param slots Slots of the instructions, used for the arity of calls
+	 * @param functions Functions of the calls, by slot
+	 * @param length Number of instructions
+	 * @return The largest number of values on the stack at once.
+	 */
+
+	static int stackDepth( byte[] code, int[] slots, MathFunction[] functions, int length ) {
+		int depth = 0;
+		int maxDepth = 0;
+
+		for ( int pc = 0; pc < length; pc++ ) {
+			byte instruction = code[pc];
+
+			if ( instruction == NUMBER || instruction == VARIABLE || instruction == LOAD ) {
+				maxDepth = Math.max(maxDepth, ++depth);
+			} else if ( instruction == CALL ) {
+				depth -= functions[slots[pc]].getArity() - 1;
+			} else if ( instruction != NEGATE && instruction != STORE ) {
+				depth--;
+			}
+		}
+
+		return maxDepth;
+	}
+
+
+	/**
+	 * Evaluates the program using the arithmetic of the given calculator.
+	 * @param calculator Calculator providing add, minus, multiply, divide and power
+	 * @param stack Operand stack and temporaries, with room for at least {@link #frameSize()} values
+	 * @param values Value of each variable by slot
+	 * @return The value of the expression.
+	 */
+
+	double execute( Calculator calculator, double[] stack, double[] values ) {
+		int top = -1;
+
+		for ( int pc = 0; pc < length; pc++ ) {
+
+			switch ( code[pc] ) {
+			case NUMBER:
+				stack[++top] = numbers[pc];
+				break;
+
+			case VARIABLE:
+				stack[++top] = values[slots[pc]];
+				break;
+
+			// Common subexpressions are kept after the operand stack
+			case STORE:
+				stack[maxStack + slots[pc]] = stack[top];
+				break;
+
+			case LOAD:
+				stack[++top] = stack[maxStack + slots[pc]];
+				break;
+
+			// A leading '-' has always been read as "0-", keep it that way so -0 never appears
+			case NEGATE:
+				stack[top] = calculator.minus(0, stack[top]);
+				break;
+
+			case ADD:
+				top--;
+				stack[top] = calculator.add(stack[top], stack[top + 1]);
+				break;
+
+			case SUBTRACT:
+				top--;
+				stack[top] = calculator.minus(stack[top], stack[top + 1]);
+				break;
+
+			case MULTIPLY:
+				top--;
+				stack[top] = calculator.multiply(stack[top], stack[top + 1]);
+				break;
+
+			case DIVIDE:
+				top--;
+				stack[top] = calculator.divide(stack[top], stack[top + 1]);
+				break;
+
+			case POWER:
+				top--;
+				stack[top] = calculator.power(stack[top], stack[top + 1]);
+				break;
+
+			// The arguments are on top of the stack, the result replaces them
+			case CALL:
+				MathFunction function = functions[slots[pc]];
+				top -= function.getArity() - 1;
+				stack[top] = function.apply(stack, top);
+				break;
+
+			default:
+				throw new IllegalStateException("Unknown instruction " + code[pc]);
+			}
+		}
+
+		return stack[0];
+	}
+
+
+	/**
+	 * @return Size of the array {@link #execute} needs for the operand stack and the temporaries.
+	 */
+
+	int frameSize() {
+		return maxStack + temporaries;
+	}
+
+
+	/**
+	 * Evaluates a program without variables or temporaries, keeping whole numbers exact as {@code long} values
+	 * for as long as {@link IntegerArithmetic} allows and using the calculator otherwise.
+	 * @param calculator Calculator providing add, minus, multiply, divide and power
+	 * @return The value of the expression, rounded to a double once at the end.
+	 */
+
+	double executeExact( Calculator calculator ) {
+		Operand result = new Operand();
+		executeExact(calculator, null, result);
+		return result.value;
+	}
+
+
+	/**
+	 * Evaluates the program like {@link #executeExact(Calculator)}, reading each variable as an
+	 * operand that may itself be an exact whole number, and keeping the exactness of the result.
+	 * @param calculator Calculator providing add, minus, multiply, divide and power
+	 * @param values Value of each variable by slot
+	 * @param result Receives the value of the expression
+	 */
+
+	void executeExact( Calculator calculator, Operand[] values, Operand result ) {
+		long[] integers = new long[maxStack];
+		int top = -1;
+		int pc = 0;
+
+		// Stay with longs only until the first value that is not a whole number
+		integers:
+		for ( ; pc < length; pc++ ) {
+
+			switch ( code[pc] ) {
+			case NUMBER:
+				if ( !isInteger(pc) ) {
+					break integers;
+				}
+				integers[++top] = integer(pc);
+				break;
+
+			case VARIABLE:
+				if ( !values[slots[pc]].exact ) {
+					break integers;
+				}
+				integers[++top] = values[slots[pc]].integer;
+				break;
+
+			case NEGATE:
+				if ( !IntegerArithmetic.negate(integers, top) ) {
+					break integers;
+				}
+				break;
+
+			case CALL:
+				break integers;
+
+			default:
+				// Whole powers worked out exactly never reach the calculator, so its exponent limit is checked here
+				if ( code[pc] == POWER ) {
+					calculator.limits.checkExponent(integers[top]);
+				}
+
+				if ( !IntegerArithmetic.apply(code[pc], integers, top - 1) ) {
+					break integers;
+				}
+				top--;
+				break;
+			}
+		}
+
+		if ( pc == length ) {
+			result.set(integers[0], true, integers[0]);
+			return;
+		}
+
+		// Carry on from the same instruction, tracking which values are still exact
+		double[] stack = new double[maxStack];
+		boolean[] exact = new boolean[maxStack];
+
+		for ( int i = 0; i <= top; i++ ) {
+			stack[i] = integers[i];
+			exact[i] = true;
+		}
+
+		for ( ; pc < length; pc++ ) {
+			byte instruction = code[pc];
+
+			if ( instruction == NUMBER ) {
+				top++;
+				stack[top] = numbers[pc];
+				exact[top] = isInteger(pc);
+				integers[top] = exact[top] ? integer(pc) : 0;
+				continue;
+			}
+
+			if ( instruction == VARIABLE ) {
+				Operand value = values[slots[pc]];
+				top++;
+				stack[top] = value.value;
+				exact[top] = value.exact;
+				integers[top] = value.integer;
+				continue;
+			}
+
+			if ( instruction == NEGATE ) {
+
+				if ( exact[top] && IntegerArithmetic.negate(integers, top) ) {
+					stack[top] = integers[top];
+				} else {
+					stack[top] = calculator.minus(0, stack[top]);
+					exact[top] = false;
+				}
+
+				continue;
+			}
+
+			// Functions take and give doubles
+			if ( instruction == CALL ) {
+				MathFunction function = functions[slots[pc]];
+				top -= function.getArity() - 1;
+				stack[top] = function.apply(stack, top);
+				exact[top] = false;
+				continue;
+			}
+
+			top--;
+
+			if ( instruction == POWER && exact[top] && exact[top + 1] ) {
+				calculator.limits.checkExponent(integers[top + 1]);
+			}
+
+			if ( exact[top] && exact[top + 1] && IntegerArithmetic.apply(instruction, integers, top) ) {
+				stack[top] = integers[top];
+				continue;
+			}
+
+			exact[top] = false;
+
+			switch ( instruction ) {
+			case ADD:
+				stack[top] = calculator.add(stack[top], stack[top + 1]);
+				break;
+
+			case SUBTRACT:
+				stack[top] = calculator.minus(stack[top], stack[top + 1]);
+				break;
+
+			case MULTIPLY:
+				stack[top] = calculator.multiply(stack[top], stack[top + 1]);
+				break;
+
+			case DIVIDE:
+				stack[top] = calculator.divide(stack[top], stack[top + 1]);
+				break;
+
+			case POWER:
+				stack[top] = calculator.power(stack[top], stack[top + 1]);
+				break;
+
+			default:
+				throw new IllegalStateException("Unknown instruction " + instruction);
+			}
+		}
+
+		result.set(stack[0], exact[0], integers[0]);
+	}
+
+
+	/**
+	 * @param pc Index of a {@link #NUMBER} instruction
+	 * @return Whether the number is whole and known exactly as a {@code long}.
+	 */
+
+	boolean isInteger( int pc ) {
+		return (integers != null && integers[pc] != 0) || IntegerArithmetic.isExact(numbers[pc]);
+	}
+
+
+	/**
+	 * @param pc Index of a {@link #NUMBER} instruction for which {@link #isInteger(int)} holds
+	 * @return The exact value of the number.
+	 */
+
+	long integer( int pc ) {
+		return integers != null && integers[pc] != 0 ? integers[pc] : (long) numbers[pc];
+	}
+
+
+	// A value on the stack of executeExact, with its exact value when it is a whole number
+	static final class Operand {
+
+		double value;
+		boolean exact;
+		long integer;
+
+		void set( double value, boolean exact, long integer ) {
+			this.value = value;
+			this.exact = exact;
+			this.integer = integer;
+		}
+	}
+
+}
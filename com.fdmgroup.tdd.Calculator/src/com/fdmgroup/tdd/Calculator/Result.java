@@ -0,0 +1,104 @@
+package com.fdmgroup.tdd.Calculator;
+
+/**
+ * The outcome of evaluating one expression of a batch: either its value, or the exception that
+ * evaluating it threw. Failing items do not stop the rest of the batch.
+ *
+ * @author Matthew Chanco
+ * @version 19/12/2024
+ */
+
+public final class Result {
+
+	private final String expression;
+	private final double value;
+	private final RuntimeException error;
+
+
+	private Result( String expression, double value, RuntimeException error ) {
+		this.expression = expression;
+		this.value = value;
+		this.error = error;
+	}
+
+
+	/**
+	 * Evaluates the expression, catching any exception instead of throwing it.
+	 * @param calculator Calculator used to evaluate the expression
+	 * @param expression Mathematical expression to be evaluated
+	 * @return The result of the evaluation.
+	 */
+
+	public static Result of( ICalculator calculator, String expression ) {
+		try {
+			return success(expression, calculator.evaluate(expression));
+		} catch ( RuntimeException e ) {
+			return failure(expression, e);
+		}
+	}
+
+
+	/**
+	 * @param expression Expression that was evaluated
+	 * @param value Value of the expression
+	 * @return A successful result.
+	 */
+
+	public static Result success( String expression, double value ) {
+		return new Result(expression, value, null);
+	}
+
+
+	/**
+	 * @param expression Expression that was evaluated
+	 * @param error Exception thrown while evaluating the expression
+	 * @return A failed result.
+	 */
+
+	public static Result failure( String expression, RuntimeException error ) {
+		return new Result(expression, Double.NaN, error);
+	}
+
+
+	/**
+	 * @return True if the expression was evaluated without errors.
+	 */
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+
+	/**
+	 * @return The expression that was evaluated.
+	 */
+
+	public String getExpression() {
+		return expression;
+	}
+
+
+	/**
+	 * @return The value of the expression, or NaN if it failed.
+	 */
+
+	public double getValue() {
+		return value;
+	}
+
+
+	/**
+	 * @return The exception thrown while evaluating the expression, or null if it succeeded.
+	 */
+
+	public RuntimeException getError() {
+		return error;
+	}
+
+
+	@Override
+	public String toString() {
+		return isSuccess() ? expression + " = " + value : expression + " failed: " + error.getMessage();
+	}
+
+}
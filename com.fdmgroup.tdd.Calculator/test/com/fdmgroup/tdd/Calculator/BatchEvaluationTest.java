@@ -0,0 +1,65 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class BatchEvaluationTest {
+	
+	Calculator calculator = new Calculator();
+	
+	// Tests for evaluating lists
+	
+	@Test
+	void results_keep_input_order() {
+		List<String> expressions = new ArrayList<>();
+		for ( int i = 0; i < 10000; i++ ) {
+			expressions.add(i + "*2");
+		}
+		
+		List<Result> results = calculator.evaluateAll(expressions);
+		
+		assertEquals(10000, results.size());
+		for ( int i = 0; i < 10000; i++ ) {
+			assertEquals(i * 2, results.get(i).getValue());
+		}
+	}
+	
+	@Test
+	void failures_are_reported_per_item() {
+		List<Result> results = calculator.evaluateAll(Arrays.asList("1+1", "1+*1", "1/0", "2^3"));
+		
+		assertTrue(results.get(0).isSuccess());
+		assertFalse(results.get(1).isSuccess());
+		assertEquals("Invalid argument detected.", results.get(1).getError().getMessage());
+		assertEquals("Dividing by zero. Not a valid operation.", results.get(2).getError().getMessage());
+		assertTrue(Double.isNaN(results.get(2).getValue()));
+		assertEquals(8, results.get(3).getValue());
+	}
+	
+	@Test
+	void empty_list() {
+		
+		assertTrue(calculator.evaluateAll(new ArrayList<String>()).isEmpty());
+	}
+	
+	
+	
+	
+	// Tests for evaluating streams
+	
+	@Test
+	void stream_results_keep_input_order() {
+		List<Double> values = calculator.evaluateAll(Arrays.asList("1", "2", "3", "4+*", "5").stream())
+				.map(Result::getValue)
+				.collect(Collectors.toList());
+		
+		assertEquals(Arrays.asList(1.0, 2.0, 3.0, Double.NaN, 5.0), values);
+	}
+	
+}
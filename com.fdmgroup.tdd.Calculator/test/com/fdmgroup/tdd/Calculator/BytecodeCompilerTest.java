@@ -0,0 +1,99 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.jupiter.api.Test;
+
+class BytecodeCompilerTest {
+	
+	Calculator calculator = new Calculator();
+	
+	// Lambdas are hidden classes too, so check the name as well
+	boolean isGenerated( ExpressionFunction function ) {
+		return function.getClass().isHidden() && function.getClass().getName().contains("GeneratedExpression");
+	}
+	
+	// Tests for generated functions
+	
+	@Test
+	void function_matches_interpreter() {
+		String[] expressions = {"2*(3+x*1)^2/y", "-x^2*4*2", "(x-y)*(y-x)-2^3*x", "x^0.5+y^(1/3)-x^-2",
+				"-(x+y)--y", "x/3*7+y*0.1-1e300*x", "1.5", "-x", "a+b+c+d+e+f+g+h+x+y"};
+		double[][] values = { {-3, 2}, {0.25, 8}, {7, -0.5}, {1e10, 3} };
+		
+		for ( String expression : expressions ) {
+			CompiledExpression compiled = calculator.compile(expression);
+			ExpressionFunction function = compiled.toFunction();
+			Bindings bindings = compiled.newBindings();
+			
+			for ( double[] xy : values ) {
+				double[] vars = new double[compiled.getVariables().length];
+				for ( String name : compiled.getVariables() ) {
+					int slot = compiled.slot(name);
+					vars[slot] = name.equals("y") ? xy[1] : xy[0];
+					bindings.set(slot, vars[slot]);
+				}
+				
+				assertEquals(compiled.evaluate(bindings), function.eval(vars), expression);
+			}
+		}
+	}
+	
+	@Test
+	void function_is_a_hidden_class() {
+		
+		assertTrue(isGenerated(calculator.compile("x*2").toFunction()));
+	}
+	
+	@Test
+	void function_divides_by_zero() {
+		ExpressionFunction function = calculator.compile("1/(x-1)").toFunction();
+		
+		assertThrows(IllegalArgumentException.class, () -> {function.eval(new double[] {1});});
+	}
+	
+	@Test
+	void function_raises_zero_to_zero() {
+		ExpressionFunction function = calculator.compile("x^y").toFunction();
+		
+		assertThrows(IllegalArgumentException.class, () -> {function.eval(new double[] {0, 0});});
+		assertEquals(Double.NaN, function.eval(new double[] {-8, 0.5}));
+		assertEquals(-2, function.eval(new double[] {-8, 1.0/3}), 1e-15);
+	}
+	
+	@Test
+	void large_expression_falls_back_to_interpreter() {
+		String chain = "x" + "+x".repeat(5000);
+		ExpressionFunction function = calculator.compile(chain).toFunction();
+		
+		assertFalse(isGenerated(function));
+		assertEquals(5001, function.eval(new double[] {1}));
+	}
+	
+	@Test
+	void hot_expression_is_compiled() {
+		CompiledExpression compiled = calculator.compile("x*x");
+		Bindings bindings = compiled.newBindings();
+		
+		for ( int i = 0; i < 2 * CompiledExpression.COMPILE_THRESHOLD; i++ ) {
+			assertEquals((double) i * i, compiled.evaluate(bindings.set(0, i)));
+		}
+		
+		assertTrue(isGenerated(compiled.toFunction()));
+	}
+	
+	@Test
+	void function_class_is_unloaded() throws InterruptedException {
+		WeakReference<Class<?>> generated = new WeakReference<>(calculator.compile("x+1").toFunction().getClass());
+		
+		for ( int i = 0; i < 50 && generated.get() != null; i++ ) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		
+		assertNull(generated.get());
+	}
+	
+}
@@ -0,0 +1,172 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class CachingCalculatorTest {
+	
+	CachingCalculator calculator = new CachingCalculator(100);
+	
+	// Tests for normalization of cache keys
+	
+	@Test
+	void normalize_removes_spaces_and_folds_signs() {
+		
+		assertEquals("1-2*3/-4", Canonicalizer.canonicalize("1 + - 2 *+ 3 /+ - 4"));
+		assertEquals("1+1", Canonicalizer.canonicalize("1--1"));
+	}
+	
+	@Test
+	void canonical_form_drops_positive_signs() {
+		
+		assertEquals("1", Canonicalizer.canonicalize("+1"));
+		assertEquals("1", Canonicalizer.canonicalize(" -+- 1"));
+		assertEquals("-(2)^3", Canonicalizer.canonicalize("-(+2)^+3"));
+	}
+	
+	@Test
+	void canonical_form_keeps_operands_apart() {
+		
+		assertEquals("1 2", Canonicalizer.canonicalize("1   2"));
+		assertEquals("x y+z", Canonicalizer.canonicalize("x y + z"));
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("1 2");});
+	}
+	
+	@Test
+	void canonical_form_keeps_exponent_signs() {
+		
+		assertEquals("1e-5+2", Canonicalizer.canonicalize("1E-5 - -2"));
+		assertEquals("1e-+5", Canonicalizer.canonicalize("1e-+5"));
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("1e-+5");});
+	}
+	
+	@Test
+	void long_runs_of_signs_fold_in_one_pass() {
+		String expression = "1" + "-".repeat(1_000_001) + "1";
+		
+		assertEquals("1-1", Canonicalizer.canonicalize(expression));
+		assertEquals(0, calculator.evaluate(expression));
+	}
+	
+	@Test
+	void canonical_form_evaluates_like_the_text() {
+		Calculator plain = new Calculator();
+		Random random = new Random(19);
+		String alphabet = "12.eE+-*/^() xy";
+		
+		for ( int i = 0; i < 20_000; i++ ) {
+			StringBuilder expression = new StringBuilder();
+			for ( int length = random.nextInt(12); length > 0; length-- ) {
+				expression.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			
+			String text = expression.toString();
+			String canonical = Canonicalizer.canonicalize(text);
+			
+			assertEquals(canonical, Canonicalizer.canonicalize(canonical), text);
+			assertEquals(outcome(plain, text), outcome(plain, canonical), text);
+		}
+	}
+	
+	// The value with every variable set to 2, or that the expression was rejected
+	String outcome( Calculator plain, String expression ) {
+		try {
+			CompiledExpression compiled = plain.compile(expression);
+			Bindings bindings = compiled.newBindings();
+			for ( String name : compiled.getVariables() ) {
+				bindings.set(name, 2);
+			}
+			return Double.toString(compiled.evaluate(bindings));
+		} catch ( IllegalArgumentException e ) {
+			return "invalid";
+		}
+	}
+	
+	@Test
+	void errors_report_positions_in_the_original_text() {
+		ExpressionSyntaxException e = assertThrows(ExpressionSyntaxException.class, () -> {calculator.evaluate("1 +  *2");});
+		
+		assertEquals(5, e.getPosition());
+	}
+	
+	@Test
+	void equivalent_expressions_share_an_entry() {
+		calculator.evaluate("1 + -2");
+		calculator.evaluate("1-2");
+		
+		assertEquals(1, calculator.getMissCount());
+		assertEquals(1, calculator.getHitCount());
+		assertEquals(1, calculator.size());
+	}
+	
+	
+	
+	
+	// Tests for cached results
+	
+	@Test
+	void cached_result_matches_calculator() {
+		String expression = "2*((2+(1+3)^2*2+2)+5+(2.5*20/(1+5-5*4)+2)+8/2*7+2--8*(200/5-15*5))";
+		double result = new Calculator().evaluate(expression);
+		
+		assertEquals(result, calculator.evaluate(expression));
+		assertEquals(result, calculator.evaluate(expression));
+	}
+	
+	@Test
+	void compiled_expression_is_reused() {
+		
+		assertSame(calculator.compile("x + 1"), calculator.compile("x+1"));
+	}
+	
+	@Test
+	void invalid_expressions_are_not_cached() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("1+*1");});
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("1/0");});
+		assertEquals(0, calculator.size());
+	}
+	
+	
+	
+	
+	// Tests for eviction
+	
+	@Test
+	void size_stays_within_maximum() {
+		
+		for ( int i = 0; i < 1000; i++ ) {
+			calculator.evaluate(i + "+1");
+		}
+		
+		assertTrue(calculator.size() <= 100);
+		assertEquals(1000 - calculator.size(), calculator.getEvictionCount());
+	}
+	
+	@Test
+	void frequent_expression_survives_one_off_expressions() {
+		
+		for ( int i = 0; i < 1000; i++ ) {
+			calculator.evaluate("2^10");
+			calculator.evaluate(i + "*3");
+		}
+		
+		long misses = calculator.getMissCount();
+		calculator.evaluate("2^10");
+		
+		assertEquals(misses, calculator.getMissCount());
+	}
+	
+	@Test
+	void concurrent_evaluation() {
+		
+		assertTrue(IntStream.range(0, 100000).parallel()
+				.allMatch(i -> calculator.evaluate((i % 300) + "*2") == (i % 300) * 2));
+		assertTrue(calculator.size() <= 100);
+	}
+	
+}
@@ -3,6 +3,8 @@ package com.fdmgroup.tdd.Calculator;
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 
+import com.fdmgroup.tdd.Calculator.ExpressionSyntaxException.Kind;
+
 class CalculatorTest {
 	
 	// All checks are either done straight from Java's calculation or through 
@@ -328,6 +330,49 @@ class CalculatorTest {
 	
 	
 	
+	// Tests for scientific notation and small intermediate results
+	
+	@Test
+	void scientific_notation_with_negative_exponent() {
+		double result = 1.0E-5*2;
+		
+		assertEquals(result, calculator.evaluate("1.0E-5*2"));
+	}
+	
+	@Test
+	void scientific_notation_with_positive_exponent() {
+		double result = 2.5e3/5+1E+2;
+		
+		assertEquals(result, calculator.evaluate("2.5e3/5+1E+2"));
+	}
+	
+	@Test
+	void small_intermediate_result_used_in_next_operation() {
+		double result = 0.00001*3-1;
+		
+		assertEquals(result, calculator.evaluate("(0.00001*3)-1"));
+	}
+	
+	@Test
+	void small_intermediate_result_used_as_base() {
+		double result = Math.pow(1.0/100000, 2);
+		
+		assertEquals(result, calculator.evaluate("(1/100000)^2"));
+	}
+	
+	@Test
+	void numbers_are_parsed_like_java() {
+		
+		for ( String number : new String[] {"0.1", "123.456", ".5", "5.", "0.000001", "9007199254740993",
+				"12345678901234567890", "1.7976931348623157e308", "4.9e-324", "3.14159265358979323846"} ) {
+			
+			assertEquals(Double.parseDouble(number), calculator.evaluate(number), number);
+		}
+	}
+	
+	
+	
+	
 	// Tests for brackets handling
 	
 	@Test
@@ -494,6 +539,32 @@ class CalculatorTest {
 		assertThrows(IllegalArgumentException.class, () -> {calculator.power(0,0);});
 	}
 	
+	@Test
+	void single_exponent_zero_base_positive_exponent() {
+		
+		// Threw "Zero raised to zero is undefined" while whole powers recursed down to 0^0
+		assertEquals(0, calculator.evaluate("0^1"));
+		assertEquals(0, calculator.evaluate("0^2"));
+		assertEquals(0, calculator.evaluate("0^1.5"));
+		assertEquals(0, calculator.power(0, 1000));
+		assertEquals(0, calculator.compile("0^2").evaluate());
+	}
+	
+	@Test
+	void single_exponent_zero_base_negative_exponent_is_infinite() {
+		
+		// Also threw "Zero raised to zero is undefined", it is now the reciprocal of 0^1
+		assertEquals(Double.POSITIVE_INFINITY, calculator.evaluate("0^-1"));
+		assertEquals(Double.POSITIVE_INFINITY, calculator.compile("0^-2").evaluate());
+	}
+	
+	@Test
+	void single_exponent_zero_base_fraction_below_one_still_throws() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("0^0.5");});
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("0^0.25");});
+	}
+	
 	@Test
 	void single_exponent_operation_decimal_base() {
 		double result = Math.pow(2.8, 2);
@@ -537,6 +608,36 @@ class CalculatorTest {
 	
 	
 	
+	@Test
+	void large_whole_exponent() {
+		double result = Math.pow(2, 1000);
+		
+		assertEquals(result, calculator.power(2, 1000));
+	}
+	
+	@Test
+	void large_whole_exponent_overflows_to_infinity() {
+		
+		assertEquals(Double.POSITIVE_INFINITY, calculator.evaluate("2^5000"));
+		assertEquals(Double.NEGATIVE_INFINITY, calculator.power(-2, 1e9 + 1));
+	}
+	
+	@Test
+	void large_negative_whole_exponent_underflows_to_zero() {
+		
+		assertEquals(0, calculator.power(2, -5000));
+	}
+	
+	@Test
+	void negative_base_whole_exponent() {
+		
+		assertEquals(-8, calculator.evaluate("(-2)^3"));
+		assertEquals(16, calculator.evaluate("(-2)^4"));
+	}
+	
+	
+	
+	
 	// Tests for exponential operations with parenthesis
 	
 	@Test
@@ -595,6 +696,91 @@ class CalculatorTest {
 	
 	
 	
+	@Test
+	void fractional_exponent_large_base() {
+		
+		assertEquals(1e6, calculator.evaluate("1000000000000^0.5"));
+	}
+	
+	@Test
+	void fractional_exponent_small_fraction() {
+		double result = Math.pow(2, 0.001);
+		
+		assertEquals(result, calculator.evaluate("2^0.001"), Math.ulp(result) * 2);
+	}
+	
+	@Test
+	void fractional_exponent_odd_root_of_negative_base() {
+		
+		assertEquals(-2, calculator.evaluate("(-8)^(1/3)"), 1e-15);
+	}
+	
+	@Test
+	void fractional_exponent_even_root_of_negative_base() {
+		
+		assertTrue(Double.isNaN(calculator.evaluate("(-4)^0.5")));
+	}
+	
+	@Test
+	void fractional_exponent_roots_within_two_ulps_of_math_library() {
+		
+		for ( double base : new double[] {1e-300, 0.3, 2, 10, 12345.678, 1e300} ) {
+			
+			assertEquals(Math.sqrt(base), calculator.fractionalPower(base, 0.5), Math.ulp(Math.sqrt(base)) * 2);
+			assertEquals(Math.cbrt(base), calculator.fractionalPower(base, 1.0 / 3), Math.ulp(Math.cbrt(base)) * 2);
+			
+			// Powers of two are the only unit fractions a double holds exactly
+			for ( int n = 4; n <= 1024; n *= 2 ) {
+				double result = Math.pow(base, 1.0 / n);
+				
+				assertEquals(result, calculator.fractionalPower(base, 1.0 / n), Math.ulp(result) * 2);
+			}
+		}
+	}
+	
+	@Test
+	void fractional_exponent_high_degree_roots_of_extreme_bases() {
+		
+		assertEquals(1.0471285480508996, calculator.evaluate("1e100^(1/5000)"), Math.ulp(1.0471285480508996) * 2);
+		assertEquals(1.0069316688518042, calculator.evaluate("1e300^0.00001"), Math.ulp(1.0069316688518042) * 2);
+		assertEquals(0.945580839497831, calculator.evaluate("1e-300^(1/12345)"), Math.ulp(0.945580839497831) * 2);
+		
+		// Rounding 1/n moves Math.pow by less than an ulp for degrees this high
+		for ( double base : new double[] {1e-300, 1e300, Double.MAX_VALUE} ) {
+			for ( int n : new int[] {1000, 4999, 123457, 1000000, 1 << 20} ) {
+				double result = Math.pow(base, 1.0 / n);
+				
+				assertEquals(result, calculator.fractionalPower(base, 1.0 / n), Math.ulp(result) * 2, base + " " + n);
+			}
+		}
+	}
+	
+	@Test
+	void fractional_exponent_close_to_unit_fraction_is_not_a_root() {
+		
+		for ( String exponent : new String[] {"0.333333333", "0.3333333333", "0.2500000001"} ) {
+			double result = Math.pow(1e300, Double.parseDouble(exponent));
+			
+			assertEquals(result, calculator.evaluate("1e300^" + exponent), Math.ulp(result) * 2, exponent);
+		}
+	}
+	
+	@Test
+	void fractional_exponent_not_a_unit_fraction() {
+		double result = Math.pow(10, 2.75);
+		
+		assertEquals(result, calculator.evaluate("10^2.75"), Math.ulp(result) * 2);
+	}
+	
+	@Test
+	void nth_root_from_poor_guess_is_bounded() {
+		
+		assertEquals(1e6, calculator.nthRoot(1e12, 2, 1), 1e-9);
+	}
+	
+	
+	
+	
 	// Tests for more complex calculations
 	
 	@Test
@@ -647,6 +833,280 @@ class CalculatorTest {
 	{
 		assertEquals(-490.01269, calculator.evaluate("2*((2+(1+3)^2*2+2)^(1/8)+5+(2.5*20/(1+5-5*4)+2)+8/2*7+2--8*(200/5-15*5))"), 0.0001);
 	}
+
+	
+	
+	
+	// Tests for the single pass parser
+	
+	@Test
+	void long_addition_chain() {
+		StringBuilder expression = new StringBuilder("1");
+		for ( int i = 0; i < 5000; i++ ) {
+			expression.append("+1");
+		}
+		
+		assertEquals(5001, calculator.evaluate(expression.toString()));
+	}
+	
+	@Test
+	void negative_bracket_result_raised_to_even_exponent() {
+		double result = Math.pow(1-3, 2);
+		
+		assertEquals(result, calculator.evaluate("(1-3)^2"));
+	}
+	
+	@Test
+	void negative_sign_applies_after_exponent() {
+		
+		assertEquals(-4, calculator.evaluate("-2^2"));
+	}
+	
+	@Test
+	void whitespace_between_signs_is_folded() {
+		double result = 1-(-1);
+		
+		assertEquals(result, calculator.evaluate("1 - - 1"));
+	}
+	
+	@Test
+	void invalid_operator_times_divide() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("1*/1");});
+	}
+	
+	@Test
+	void invalid_unbalanced_parentheses() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("(1+2");});
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("1+2)");});
+	}
+	
+	@Test
+	void invalid_empty_parentheses() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("()");});
+	}
+	
+	
+	
+	
+	// Tests for deeply nested and long expressions
+	
+	@Test
+	void hundred_thousand_nested_parentheses() {
+		String expression = "(".repeat(100_000) + "2" + ")".repeat(100_000);
+		
+		assertEquals(2, calculator.evaluate(expression));
+		assertEquals(2, calculator.compile(expression).evaluate());
+	}
+	
+	@Test
+	void hundred_thousand_nested_sums() {
+		String expression = "1+(".repeat(100_000) + "1" + ")".repeat(100_000);
+		
+		assertEquals(100_001, calculator.evaluate(expression));
+	}
+	
+	@Test
+	void hundred_thousand_sibling_groups() {
+		String expression = "(1)+".repeat(100_000) + "(1)";
+		
+		assertEquals(100_001, calculator.evaluate(expression));
+	}
+	
+	@Test
+	void hundred_thousand_exponents_group_from_the_right() {
+		String expression = "1^".repeat(100_000) + "2^-(2)";
+		
+		assertEquals(1, calculator.evaluate(expression));
+		assertEquals(0.25, calculator.evaluate("-(-(".repeat(50_000) + "2^-2" + "))".repeat(50_000)));
+	}
+	
+	
+	
+	
+	// Tests for exact whole number arithmetic
+	
+	@Test
+	void large_integer_sum_is_exact() {
+		
+		assertEquals(9007199254740992.0, calculator.evaluate("9007199254740993-1"));
+		assertEquals(1, calculator.evaluate("9007199254740993-9007199254740992"));
+	}
+	
+	@Test
+	void large_integer_product_is_exact() {
+		double exact = 94906267L * 94906267L - 94906267L * 94906266L;
+		
+		assertEquals(exact, calculator.evaluate("94906267*94906267-94906267*94906266"));
+	}
+	
+	@Test
+	void integer_power_is_exact() {
+		
+		assertEquals(1, calculator.evaluate("3^39-(3^39-1)"));
+	}
+	
+	@Test
+	void integer_overflow_falls_back_to_doubles() {
+		
+		assertEquals(Math.pow(2, 100), calculator.evaluate("2^100"));
+		assertEquals(9223372036854775807.0 * 2, calculator.evaluate("9223372036854775807*2"));
+	}
+	
+	@Test
+	void inexact_integer_division_falls_back_to_doubles() {
+		
+		assertEquals(3.5, calculator.evaluate("7/2"));
+		assertEquals(3, calculator.evaluate("6/2"));
+		assertEquals(0.25, calculator.evaluate("2^-2"));
+	}
+	
+	@Test
+	void integer_arithmetic_keeps_errors() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("5/(3-3)");});
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("(2-2)^(1-1)");});
+	}
+	
+	@Test
+	void integer_arithmetic_keeps_negative_zero() {
+		
+		assertEquals(-0.0, calculator.evaluate("0*-5"));
+		assertEquals(-0.0, calculator.evaluate("0/-5"));
+	}
+	
+	@Test
+	void compiled_integer_constants_are_exact() {
+		
+		assertEquals(1, calculator.compile("9007199254740993-9007199254740992").evaluate());
+	}
+	
+	
+	
+	// Tests for syntax errors with positions
+	
+	void assertSyntaxError( Kind kind, int position, String expression ) {
+		ExpressionSyntaxException e = assertThrows(ExpressionSyntaxException.class, () -> {calculator.evaluate(expression);});
+		
+		assertEquals(kind, e.getKind(), expression);
+		assertEquals(position, e.getPosition(), expression);
+	}
+	
+	@Test
+	void syntax_error_invalid_operator_pair() {
+		
+		assertSyntaxError(Kind.INVALID_OPERATOR, 2, "1*/1");
+		assertSyntaxError(Kind.INVALID_OPERATOR, 3, "2+-^3");
+		assertSyntaxError(Kind.INVALID_OPERATOR, 0, "*2");
+	}
+	
+	@Test
+	void syntax_error_missing_operand() {
+		
+		assertSyntaxError(Kind.MISSING_OPERAND, 3, "(2-)");
+		assertSyntaxError(Kind.MISSING_OPERAND, 4, "1+2*");
+	}
+	
+	@Test
+	void syntax_error_missing_operator() {
+		
+		assertSyntaxError(Kind.MISSING_OPERATOR, 1, "2(3)");
+		assertSyntaxError(Kind.MISSING_OPERATOR, 4, "(1) 2");
+		assertSyntaxError(Kind.MISSING_OPERATOR, 2, "x y");
+	}
+	
+	@Test
+	void syntax_error_unbalanced_parentheses() {
+		
+		assertSyntaxError(Kind.UNBALANCED_PARENTHESES, 3, "1+2)+(3");
+		assertSyntaxError(Kind.UNBALANCED_PARENTHESES, 6, "((1+2)");
+		assertSyntaxError(Kind.UNBALANCED_PARENTHESES, 5, "(1+2))(");
+	}
+	
+	@Test
+	void syntax_error_empty_parentheses() {
+		
+		assertSyntaxError(Kind.EMPTY_PARENTHESES, 3, "2*()");
+		assertSyntaxError(Kind.EMPTY_PARENTHESES, 2, "(+)");
+	}
+	
+	@Test
+	void syntax_error_unexpected_character() {
+		
+		assertSyntaxError(Kind.UNEXPECTED_CHARACTER, 1, "1%2");
+		assertSyntaxError(Kind.UNEXPECTED_CHARACTER, 2, "2*\u00e9");
+	}
+	
+	@Test
+	void syntax_error_malformed_number() {
+		
+		assertSyntaxError(Kind.MALFORMED_NUMBER, 2, "1+.");
+		assertSyntaxError(Kind.MALFORMED_NUMBER, 0, "1.2.3");
+		assertSyntaxError(Kind.MALFORMED_NUMBER, 2, "1+2e");
+		assertSyntaxError(Kind.MALFORMED_NUMBER, 0, "3e+*2");
+	}
+	
+	@Test
+	void syntax_errors_are_illegal_arguments() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("1+2)");});
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("((((");});
+	}
+	
+	@Test
+	void deeply_unbalanced_input_is_rejected_without_recursion() {
+		String expression = "(".repeat(200_000) + "1";
+		
+		assertSyntaxError(Kind.UNBALANCED_PARENTHESES, expression.length(), expression);
+	}
+	
+	
+	
+	// Tests for results that changed when the string-rewriting evaluator was replaced
+	
+	@Test
+	void juxtaposed_numbers_are_a_syntax_error_not_concatenated() {
+		
+		// Were 12, 123 and 23 when spaces were stripped and the digits ran together
+		assertSyntaxError(Kind.MISSING_OPERATOR, 2, "1 2");
+		assertSyntaxError(Kind.MISSING_OPERATOR, 2, "1 2 3");
+		assertSyntaxError(Kind.MISSING_OPERATOR, 2, "2 (3)");
+		
+		// Were 2.03 and a NumberFormatException
+		assertSyntaxError(Kind.MISSING_OPERATOR, 3, "(2)3");
+		assertSyntaxError(Kind.MISSING_OPERATOR, 3, "(2)(3)");
+	}
+	
+	@Test
+	void parenthesized_negative_base_is_raised_with_its_sign() {
+		
+		// Was -4, the sign was applied after the power
+		assertEquals(4, calculator.evaluate("(-2)^2"));
+		assertEquals(-8, calculator.evaluate("(-2)^3"));
+		assertEquals(-4, calculator.evaluate("-2^2"));
+	}
+	
+	@Test
+	void even_root_of_negative_base_is_not_a_number() {
+		
+		// Was -2 and -3, the root of the positive base with the sign put back
+		assertTrue(Double.isNaN(calculator.evaluate("(-4)^0.5")));
+		assertTrue(Double.isNaN(calculator.evaluate("(-9)^0.5")));
+		assertTrue(Double.isNaN(calculator.evaluate("(-4)^1.5")));
+		assertEquals(-3, calculator.evaluate("(-27)^(1/3)"));
+	}
+	
+	@Test
+	void zero_times_negative_is_negative_zero() {
+		
+		// Was 0.0, results now follow IEEE 754 signed zeros as double arithmetic in Java does
+		assertEquals(-0.0, calculator.evaluate("0*-1"));
+		assertEquals(-0.0, calculator.evaluate("0/-1"));
+		assertEquals(0.0, calculator.evaluate("-0"));
+		assertEquals(0.0, calculator.evaluate("0-0"));
+	}
 	
 	
 }
@@ -0,0 +1,196 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.fdmgroup.tdd.Calculator.Columns.ErrorPolicy;
+
+class ColumnsTest {
+
+	Calculator calculator = new Calculator();
+
+	// Evaluates every row of random columns and compares it with evaluating that row with bindings
+	void assertSameAsBindings( Calculator calculator, String expression, int rows ) {
+		CompiledExpression compiled = calculator.compile(expression);
+		Columns columns = compiled.newColumns(rows);
+		Random random = new Random(expression.hashCode());
+		double[][] values = new double[compiled.getVariables().length][rows];
+
+		for ( int slot = 0; slot < values.length; slot++ ) {
+			for ( int row = 0; row < rows; row++ ) {
+				// Never exactly zero, which divisions and fractional powers reject
+				values[slot][row] = random.nextInt(2000) / 100.0 - 9.995;
+			}
+			columns.set(slot, values[slot]);
+		}
+
+		double[] output = compiled.evaluate(columns);
+		Bindings bindings = compiled.newBindings();
+
+		for ( int row = 0; row < rows; row++ ) {
+			for ( int slot = 0; slot < values.length; slot++ ) {
+				bindings.set(slot, values[slot][row]);
+			}
+			assertEquals(compiled.evaluate(bindings), output[row], expression + " row " + row);
+		}
+	}
+
+	// Tests for evaluating columns
+
+	@Test
+	void each_row_is_evaluated_with_its_values() {
+		CompiledExpression compiled = calculator.compile("principal * rate + 1");
+		Columns columns = compiled.newColumns(3)
+				.set("principal", new double[] {1000, 2000, 3000})
+				.set("rate", new double[] {0.1, 0.2, 0.5});
+
+		assertArrayEquals(new double[] {101, 401, 1501}, compiled.evaluate(columns));
+	}
+
+	@Test
+	void rows_match_evaluation_with_bindings() {
+		String[] expressions = {"x+y*2-x/3", "-x*-(y-1)", "(x+y)^2/(x+y)", "x^2+y^0.5", "x^y", "2^-x",
+				"sqrt(abs(x))+max(x, y)-min(x, 1)", "hypot(x, y)*floor(y)", "clamp(x, -1, y)"};
+
+		for ( String expression : expressions ) {
+			assertSameAsBindings(calculator, expression, 2500);
+		}
+	}
+
+	@Test
+	void rows_after_the_first_block_are_evaluated() {
+		int rows = ColumnEvaluator.BLOCK * 2 + 7;
+		double[] x = new double[rows];
+
+		for ( int row = 0; row < rows; row++ ) {
+			x[row] = row;
+		}
+
+		CompiledExpression compiled = calculator.compile("x*2");
+		double[] output = compiled.evaluate(compiled.newColumns(rows).set("x", x));
+
+		assertEquals(2 * (rows - 1), output[rows - 1]);
+		assertEquals(2 * ColumnEvaluator.BLOCK, output[ColumnEvaluator.BLOCK]);
+	}
+
+	@Test
+	void columns_and_output_are_reused() {
+		CompiledExpression compiled = calculator.compile("x-1");
+		double[] x = {1, 2};
+		double[] output = new double[2];
+		Columns columns = compiled.newColumns(2).set("x", x);
+
+		compiled.evaluate(columns, output);
+		x[1] = 5;
+
+		assertSame(output, compiled.evaluate(columns, output));
+		assertArrayEquals(new double[] {0, 4}, output);
+	}
+
+	@Test
+	void constant_expression_fills_every_row() {
+		CompiledExpression compiled = calculator.compile("2^10");
+
+		assertArrayEquals(new double[] {1024, 1024}, compiled.evaluate(compiled.newColumns(2)));
+	}
+
+	@Test
+	void overridden_operations_are_used() {
+		Calculator rounding = new Calculator() {
+			@Override
+			public double add( double x, double y ) {
+				return Math.round(x + y);
+			}
+		};
+
+		CompiledExpression compiled = rounding.compile("x+0.3");
+
+		assertArrayEquals(new double[] {1, 2}, compiled.evaluate(compiled.newColumns(2).set("x", new double[] {1, 1.4})));
+		assertSameAsBindings(rounding, "x+y*x-y/x", 100);
+	}
+
+
+
+
+	// Tests for rows that cannot be evaluated
+
+	@Test
+	void division_by_zero_throws_by_default() {
+		CompiledExpression compiled = calculator.compile("1/x");
+		Columns columns = compiled.newColumns(3).set("x", new double[] {1, 0, 2});
+
+		assertThrows(IllegalArgumentException.class, () -> {compiled.evaluate(columns);});
+	}
+
+	@Test
+	void division_by_zero_gives_nan_row_with_nan_policy() {
+		CompiledExpression compiled = calculator.compile("1/x");
+		Columns columns = compiled.newColumns(3).set("x", new double[] {1, 0, -2}).setErrorPolicy(ErrorPolicy.NAN);
+
+		assertArrayEquals(new double[] {1, Double.NaN, -0.5}, compiled.evaluate(columns));
+	}
+
+	@Test
+	void failed_rows_stay_nan_after_later_operations() {
+		CompiledExpression compiled = calculator.compile("(1/x)^0 + 0^x");
+		Columns columns = compiled.newColumns(3).set("x", new double[] {0, 2, -1}).setErrorPolicy(ErrorPolicy.NAN);
+
+		double[] output = compiled.evaluate(columns);
+
+		assertTrue(Double.isNaN(output[0]));
+		assertEquals(1, output[1]);
+		assertEquals(Double.POSITIVE_INFINITY, output[2]);
+	}
+
+	@Test
+	void zero_to_zero_gives_nan_row_with_nan_policy() {
+		CompiledExpression compiled = calculator.compile("x^y");
+		Columns columns = compiled.newColumns(2).set("x", new double[] {0, 3}).set("y", new double[] {0, 2});
+
+		assertThrows(IllegalArgumentException.class, () -> {compiled.evaluate(columns);});
+		assertArrayEquals(new double[] {Double.NaN, 9}, compiled.evaluate(columns.setErrorPolicy(ErrorPolicy.NAN)));
+	}
+
+	@Test
+	void square_root_exponent_follows_the_calculator_for_zero_and_negative_rows() {
+		CompiledExpression compiled = calculator.compile("x^0.5");
+		Columns columns = compiled.newColumns(3).set("x", new double[] {4, 0, -4});
+
+		assertThrows(IllegalArgumentException.class, () -> {compiled.evaluate(columns);});
+		assertArrayEquals(new double[] {2, Double.NaN, Double.NaN}, compiled.evaluate(columns.setErrorPolicy(ErrorPolicy.NAN)));
+	}
+
+
+
+
+	// Tests for invalid columns
+
+	@Test
+	void missing_column_is_rejected() {
+		CompiledExpression compiled = calculator.compile("x+y");
+		Columns columns = compiled.newColumns(1).set("x", new double[] {1});
+
+		assertThrows(IllegalArgumentException.class, () -> {compiled.evaluate(columns);});
+	}
+
+	@Test
+	void short_column_or_output_is_rejected() {
+		CompiledExpression compiled = calculator.compile("x");
+		Columns columns = compiled.newColumns(3);
+
+		assertThrows(IllegalArgumentException.class, () -> {columns.set("x", new double[2]);});
+		assertThrows(IllegalArgumentException.class, () -> {compiled.evaluate(columns.set("x", new double[3]), new double[2]);});
+	}
+
+	@Test
+	void columns_of_another_expression_are_rejected() {
+		CompiledExpression compiled = calculator.compile("x");
+		Columns columns = calculator.compile("x").newColumns(1).set("x", new double[1]);
+
+		assertThrows(IllegalArgumentException.class, () -> {compiled.evaluate(columns);});
+	}
+
+}
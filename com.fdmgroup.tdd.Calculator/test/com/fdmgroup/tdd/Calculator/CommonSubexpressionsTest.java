@@ -0,0 +1,125 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class CommonSubexpressionsTest {
+
+	Calculator calculator = new Calculator();
+
+	// Evaluates the compiled expression and the same text with the values written in, which is not shared
+	void assertSameAsText( String expression, double x, double y ) {
+		CompiledExpression compiled = calculator.compile(expression);
+		Bindings bindings = compiled.newBindings();
+
+		for ( String name : compiled.getVariables() ) {
+			bindings.set(name, name.equals("y") ? y : x);
+		}
+
+		String text = expression.replace("x", "(" + x + ")").replace("y", "(" + y + ")");
+		assertEquals(calculator.evaluate(text), compiled.evaluate(bindings), expression);
+	}
+
+	// Tests for sharing repeated subexpressions
+
+	@Test
+	void repeated_sum_is_evaluated_once() {
+		CompiledExpression compiled = calculator.compile("(x+y)^2/(x+y)");
+
+		assertEquals(1, compiled.getCollapsedNodeCount());
+		assertEquals(8, compiled.getNodeCount());
+		assertEquals(5, compiled.evaluate(compiled.newBindings().set("x", 2).set("y", 3)));
+	}
+
+	@Test
+	void nested_repeats_collapse_at_every_level() {
+		CompiledExpression compiled = calculator.compile("((x+1)*(x+1))*((x+1)*(x+1))");
+
+		assertEquals(4, compiled.getCollapsedNodeCount());
+		assertEquals(16, compiled.evaluate(compiled.newBindings().set("x", 1)));
+	}
+
+	@Test
+	void numbers_and_variables_are_not_stored() {
+		CompiledExpression compiled = calculator.compile("x*x+2*2.5");
+
+		assertEquals(0, compiled.getCollapsedNodeCount());
+		assertEquals(5, compiled.getNodeCount());
+	}
+
+	@Test
+	void shared_results_match_unshared_evaluation() {
+		String[] expressions = {"(x+y)^2/(x+y)", "(x*x+1)*(x*x+1)-x*x", "-(x-y)*-(x-y)", "x/y*x/y+x/y",
+				"(x^y+1)^(x^y+1)", "((x+1)*(x+1))*((x+1)*(x+1))-(x+1)"};
+		double[][] values = { {2, 3}, {-1.5, 0.25}, {0.1, 7}, {3, -2} };
+
+		for ( String expression : expressions ) {
+			for ( double[] xy : values ) {
+				assertSameAsText(expression, xy[0], xy[1]);
+			}
+		}
+	}
+
+	@Test
+	void errors_are_the_same_as_unshared() {
+		CompiledExpression compiled = calculator.compile("(x-1)*2/((x-1)*2)");
+
+		assertEquals(2, compiled.getCollapsedNodeCount());
+		assertThrows(IllegalArgumentException.class, () -> {compiled.evaluate(compiled.newBindings().set("x", 1));});
+	}
+
+
+
+
+	// Tests for associativity
+
+	@Test
+	void division_then_multiplication_is_not_merged_with_grouped_product() {
+
+		assertEquals(0, calculator.compile("x/y*2+x/(y*2)").getCollapsedNodeCount());
+		assertEquals(2, calculator.compile("x/y*2-x/y*2").getCollapsedNodeCount());
+		assertSameAsText("x/y*2+x/(y*2)*x/y*2", 3, 7);
+	}
+
+	@Test
+	void right_associative_power_is_not_merged_with_left_grouping() {
+
+		assertEquals(0, calculator.compile("2^x^y+(2^x)^y").getCollapsedNodeCount());
+		assertEquals(1, calculator.compile("2^x^y+x^y").getCollapsedNodeCount());
+		assertSameAsText("2^x^y+(2^x)^y-x^y", 2, 3);
+	}
+
+
+
+
+	// Tests for compiled functions
+
+	@Test
+	void function_with_shared_values_matches_interpreter() {
+		CompiledExpression compiled = calculator.compile("(x+y)^2/(x+y)-(x*y)*(x*y)");
+		ExpressionFunction function = compiled.toFunction();
+
+		assertTrue(function.getClass().getName().contains("GeneratedExpression"));
+		assertEquals(compiled.evaluate(compiled.newBindings().set("x", 1.5).set("y", -4)),
+				function.eval(new double[] {1.5, -4}));
+	}
+
+	@Test
+	void function_with_many_shared_values_matches_interpreter() {
+		StringBuilder expression = new StringBuilder("0");
+
+		// More temporaries than single byte local indexes reach
+		for ( int i = 1; i <= 200; i++ ) {
+			expression.append("+(x+").append(i).append(")*(x+").append(i).append(')');
+		}
+
+		CompiledExpression compiled = calculator.compile(expression.toString());
+		ExpressionFunction function = compiled.toFunction();
+
+		assertEquals(200, compiled.getCollapsedNodeCount());
+		assertTrue(function.getClass().getName().contains("GeneratedExpression"));
+		assertEquals(compiled.evaluate(compiled.newBindings().set("x", 0.5)), function.eval(new double[] {0.5}));
+	}
+
+}
@@ -0,0 +1,140 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class CompiledExpressionTest {
+	
+	Calculator calculator = new Calculator();
+	
+	// Tests for compiled expressions
+	
+	@Test
+	void compiled_expression_matches_evaluate() {
+		String expression = "2 * (3 + (4 - 1) * (6 / 2))^2";
+		
+		assertEquals(calculator.evaluate(expression), calculator.compile(expression).evaluate());
+	}
+	
+	@Test
+	void compiled_expression_can_be_evaluated_repeatedly() {
+		CompiledExpression compiled = calculator.compile("-3*-2^2/5+5*8");
+		
+		assertEquals(42.4, compiled.evaluate());
+		assertEquals(42.4, compiled.evaluate());
+	}
+	
+	@Test
+	void compiled_expression_keeps_source_text() {
+		
+		assertEquals("1 + 2", calculator.compile("1 + 2").getExpression());
+	}
+	
+	@Test
+	void compiled_expression_can_be_shared_between_threads() {
+		CompiledExpression compiled = calculator.compile("((1+3)+4*6+(7*8)-(4-(8*3)))*8");
+		double result = ((1+3)+4*6+(7*8)-(4-(8*3)))*8;
+		
+		assertTrue(IntStream.range(0, 10000).parallel().allMatch(i -> compiled.evaluate() == result));
+	}
+	
+	
+	
+	
+	// Tests for errors detected at compile time
+	
+	@Test
+	void invalid_operator_rejected_at_compile_time() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("1+*1");});
+	}
+	
+	@Test
+	void division_by_literal_zero_rejected_at_compile_time() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("1/0");});
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("1/-0");});
+	}
+	
+	@Test
+	void zero_raised_to_zero_rejected_at_compile_time() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("2+0^0");});
+	}
+	
+	@Test
+	void division_by_constant_zero_rejected_at_compile_time() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("1/(1-1)");});
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("x/(2*0)");});
+	}
+	
+	@Test
+	void division_by_computed_zero_rejected_at_evaluation() {
+		CompiledExpression compiled = calculator.compile("1/(x-1)");
+		Bindings bindings = compiled.newBindings().set("x", 1);
+		
+		assertThrows(IllegalArgumentException.class, () -> {compiled.evaluate(bindings);});
+	}
+	
+	
+	
+	
+	// Tests for variables
+	
+	@Test
+	void variables_are_read_from_bindings() {
+		CompiledExpression compiled = calculator.compile("principal * (1 + rate)^years");
+		Bindings bindings = compiled.newBindings().set("principal", 1000).set("rate", 0.5).set("years", 2);
+		
+		assertEquals(2250, compiled.evaluate(bindings));
+	}
+	
+	@Test
+	void variables_can_be_rebound_by_slot() {
+		CompiledExpression compiled = calculator.compile("x1*x1 - x1");
+		int x = compiled.slot("x1");
+		Bindings bindings = compiled.newBindings();
+		
+		for ( int i = 0; i < 10; i++ ) {
+			bindings.set(x, i);
+			assertEquals(i*i - i, compiled.evaluate(bindings));
+		}
+	}
+	
+	@Test
+	void variables_are_numbered_in_order_of_appearance() {
+		
+		assertArrayEquals(new String[] {"b", "a"}, calculator.compile("b + a*b - a").getVariables());
+	}
+	
+	@Test
+	void unknown_variable_slot() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("x+1").slot("y");});
+	}
+	
+	@Test
+	void unbound_variable_in_evaluate() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("x+1");});
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("x+1").evaluate();});
+	}
+	
+	@Test
+	void bindings_from_another_expression() {
+		Bindings bindings = calculator.compile("x+1").newBindings();
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("x+2").evaluate(bindings);});
+	}
+	
+	@Test
+	void variable_next_to_number_without_operator() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("2x");});
+	}
+	
+}
@@ -0,0 +1,202 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fdmgroup.tdd.Calculator.LimitExceededException.Limit;
+
+class EvaluationLimitsTest {
+
+	void assertLimit( Limit limit, EvaluationLimits limits, String expression ) {
+		LimitExceededException e = assertThrows(LimitExceededException.class, () -> {new Calculator(limits).evaluate(expression);});
+
+		assertEquals(limit, e.getLimit(), expression);
+	}
+
+	String nested( int depth ) {
+		return "(".repeat(depth) + "1" + ")".repeat(depth);
+	}
+
+	// Tests for limits on the text
+
+	@Test
+	void long_expression_is_rejected() {
+		EvaluationLimits limits = EvaluationLimits.NONE.withMaxLength(5);
+
+		assertEquals(6, new Calculator(limits).evaluate("1+2+3"));
+		assertLimit(Limit.LENGTH, limits, "1+2+3+4");
+	}
+
+	@Test
+	void deep_nesting_is_rejected_where_it_goes_too_deep() {
+		EvaluationLimits limits = EvaluationLimits.NONE.withMaxDepth(3);
+
+		assertEquals(1, new Calculator(limits).evaluate(nested(3)));
+		assertLimit(Limit.DEPTH, limits, nested(4));
+		assertLimit(Limit.DEPTH, limits, "max(1, (((2))))");
+		assertTrue(assertThrows(LimitExceededException.class, () -> {new Calculator(limits).evaluate("(".repeat(1_000_000));})
+				.getMessage().contains("position 3"));
+	}
+
+	@Test
+	void too_many_tokens_are_rejected() {
+		EvaluationLimits limits = EvaluationLimits.NONE.withMaxTokens(5);
+
+		assertEquals(6, new Calculator(limits).evaluate("1 + 2 + 3"));
+		assertLimit(Limit.TOKENS, limits, "1+2+3+4");
+		assertLimit(Limit.TOKENS, limits, "-(-(-1))");
+	}
+
+	@Test
+	void compiling_checks_the_same_limits() {
+		Calculator calculator = new Calculator(EvaluationLimits.NONE.withMaxLength(5));
+
+		assertThrows(LimitExceededException.class, () -> {calculator.compile("x+y+z+w");});
+		assertThrows(LimitExceededException.class, () -> {new CachingCalculator(calculator, 10).evaluate("1+2+3+4");});
+	}
+
+	@Test
+	void incremental_expressions_check_the_limits_on_the_whole_text() {
+		Calculator deep = new Calculator(EvaluationLimits.NONE.withMaxDepth(2));
+		Calculator tokens = new Calculator(EvaluationLimits.NONE.withMaxTokens(9));
+		IncrementalExpression line = new Calculator(EvaluationLimits.NONE.withMaxLength(15)).incremental("1+1+1+1+1+1+1+1");
+
+		assertEquals(Limit.DEPTH, assertThrows(LimitExceededException.class, () -> {deep.incremental(nested(4)).evaluate();}).getLimit());
+		assertEquals(1, deep.incremental(nested(2)).evaluate());
+		assertEquals(Limit.TOKENS, assertThrows(LimitExceededException.class, () -> {tokens.incremental("(1+2)+(3+4)").evaluate();}).getLimit());
+		assertEquals(10, tokens.incremental("(1+2)+3+4").evaluate());
+
+		assertEquals(8, line.evaluate());
+		line.edit(15, 0, "+1+1");
+		assertEquals(Limit.LENGTH, assertThrows(LimitExceededException.class, () -> {line.evaluate();}).getLimit());
+	}
+
+
+
+
+	// Tests for limits on the arithmetic
+
+	@Test
+	void large_exponents_are_rejected() {
+		EvaluationLimits limits = EvaluationLimits.NONE.withMaxExponent(1000);
+
+		assertEquals(1024, new Calculator(limits).evaluate("2^10"));
+		assertEquals(Math.pow(2, -1000), new Calculator(limits).evaluate("2^-1000"));
+		assertLimit(Limit.EXPONENT, limits, "9^99999999");
+		assertLimit(Limit.EXPONENT, limits, "1^99999999");
+		assertLimit(Limit.EXPONENT, limits, "2^-1001");
+		assertLimit(Limit.EXPONENT, limits, "2^1000.5");
+		assertLimit(Limit.EXPONENT, EvaluationLimits.NONE.withMaxExponent(10), "2^11");
+	}
+
+	@Test
+	void large_exponents_are_rejected_in_compiled_expressions() {
+		Calculator calculator = new Calculator(EvaluationLimits.NONE.withMaxExponent(10));
+		CompiledExpression compiled = calculator.compile("x^y");
+
+		assertEquals(8, compiled.evaluate(compiled.newBindings().set("x", 2).set("y", 3)));
+		assertThrows(LimitExceededException.class, () -> {compiled.evaluate(compiled.newBindings().set("x", 2).set("y", 11));});
+		assertThrows(LimitExceededException.class, () -> {compiled.toFunction().eval(new double[] {2, 11});});
+		assertThrows(LimitExceededException.class, () -> {calculator.compile("2^11");});
+	}
+
+	@Test
+	void roots_stop_at_the_iteration_limit() {
+		Calculator limited = new Calculator(EvaluationLimits.NONE.withMaxRootIterations(1));
+
+		assertEquals(Limit.ROOT_ITERATIONS, assertThrows(LimitExceededException.class, () -> {Exponents.newton(2, 3, 1, 1);}).getLimit());
+		assertThrows(LimitExceededException.class, () -> {limited.nthRoot(2, 3, 1);});
+
+		// The seed is close enough for a single step
+		assertEquals(Math.cbrt(2), limited.evaluate("2^(1/3)"), Math.ulp(Math.cbrt(2)) * 2);
+		assertEquals(Math.sqrt(2), limited.evaluate("2^0.5"));
+		assertEquals(Math.cbrt(2), new Calculator().evaluate("2^(1/3)"), 1e-15);
+	}
+
+	@Test
+	void masked_columns_still_throw_on_limits() {
+		Calculator calculator = new Calculator(EvaluationLimits.NONE.withMaxExponent(10));
+		CompiledExpression compiled = calculator.compile("2^x + 1/x");
+		Columns columns = compiled.newColumns(3).set("x", new double[] {1, 0, 20}).setErrorPolicy(Columns.ErrorPolicy.NAN);
+
+		assertThrows(LimitExceededException.class, () -> {compiled.evaluate(columns);});
+	}
+
+
+
+
+	// Tests for time and cancellation
+
+	@Test
+	void evaluation_past_the_deadline_is_stopped() {
+		EvaluationLimits limits = EvaluationLimits.NONE.withTimeout(Duration.ofNanos(1));
+
+		assertLimit(Limit.TIME, limits, "1" + "+1".repeat(10_000));
+		assertLimit(Limit.TIME, limits, "1+1");
+	}
+
+	@Test
+	void interrupted_columns_are_cancelled() {
+		CompiledExpression compiled = new Calculator().compile("x*2");
+		Columns columns = compiled.newColumns(10).set("x", new double[10]);
+		Thread.currentThread().interrupt();
+
+		try {
+			assertEquals(Limit.CANCELLED, assertThrows(LimitExceededException.class, () -> {compiled.evaluate(columns);}).getLimit());
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	void interrupted_thread_is_cancelled_and_stays_interrupted() {
+		Calculator calculator = new Calculator(EvaluationLimits.NONE);
+		Thread.currentThread().interrupt();
+
+		try {
+			LimitExceededException e = assertThrows(LimitExceededException.class, () -> {calculator.evaluate("1+1");});
+			assertEquals(Limit.CANCELLED, e.getLimit());
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+
+		assertEquals(2, calculator.evaluate("1+1"));
+	}
+
+
+
+
+	// Tests for the exception and the policy
+
+	@Test
+	void exceeded_limits_have_no_stack_trace() {
+		LimitExceededException e = assertThrows(LimitExceededException.class, () -> {
+			new Calculator(EvaluationLimits.NONE.withMaxLength(1)).evaluate("1+1");
+		});
+
+		assertEquals(0, e.getStackTrace().length);
+	}
+
+	@Test
+	void exceeded_limits_are_reported_per_item() {
+		Calculator calculator = new Calculator(EvaluationLimits.NONE.withMaxExponent(100));
+		List<Result> results = calculator.evaluateAll(List.of("2^3", "9^99999999"));
+
+		assertEquals(8, results.get(0).getValue());
+		assertTrue(results.get(1).getError() instanceof LimitExceededException);
+	}
+
+	@Test
+	void invalid_limits_are_rejected() {
+
+		assertThrows(IllegalArgumentException.class, () -> {EvaluationLimits.NONE.withMaxDepth(0);});
+		assertThrows(IllegalArgumentException.class, () -> {EvaluationLimits.NONE.withMaxExponent(0.5);});
+		assertThrows(IllegalArgumentException.class, () -> {EvaluationLimits.NONE.withTimeout(Duration.ZERO);});
+	}
+
+}
@@ -0,0 +1,122 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fdmgroup.tdd.Calculator.EvaluationMetrics.Stage;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class EvaluationMetricsTest {
+	
+	Calculator calculator = new Calculator();
+	
+	@BeforeEach
+	void enable() {
+		EvaluationMetrics.setEnabled(true);
+		EvaluationMetrics.reset();
+	}
+	
+	@AfterEach
+	void disable() {
+		EvaluationMetrics.setEnabled(false);
+		EvaluationMetrics.reset();
+	}
+	
+	// Tests for recording
+	
+	@Test
+	void every_stage_is_counted() {
+		calculator.evaluate("2*(3+4)");
+		CompiledExpression root = calculator.compile("x^0.25");
+		root.evaluate(root.newBindings().set(0, 2));
+		
+		assertEquals(2, EvaluationMetrics.get(Stage.TOKENIZE).getCount());
+		assertEquals(2, EvaluationMetrics.get(Stage.PARSE).getCount());
+		assertEquals(1, EvaluationMetrics.get(Stage.OPTIMIZE).getCount());
+		assertEquals(2, EvaluationMetrics.get(Stage.EVALUATE).getCount());
+		assertEquals(1, EvaluationMetrics.get(Stage.ROOT).getCount());
+	}
+	
+	@Test
+	void characters_and_latency_are_recorded() {
+		
+		for ( int i = 0; i < 100; i++ ) {
+			calculator.evaluate("1+2+3");
+		}
+		
+		EvaluationMetrics.StageMetricsMBean parse = EvaluationMetrics.get(Stage.PARSE);
+		
+		assertEquals(500, parse.getCharacters());
+		assertTrue(parse.getTotalNanos() > 0);
+		assertTrue(parse.getMedianNanos() <= parse.getP99Nanos());
+		assertTrue(parse.getP99Nanos() < 2 * parse.getMaxNanos());
+	}
+	
+	@Test
+	void root_iterations_are_not_counted_as_characters() {
+		calculator.evaluate("2^0.25");
+		
+		EvaluationMetrics.StageMetricsMBean root = EvaluationMetrics.get(Stage.ROOT);
+		
+		assertEquals(1, root.getCount());
+		assertTrue(root.getIterations() >= 1);
+		assertEquals(0, root.getCharacters());
+		assertEquals(0, EvaluationMetrics.get(Stage.PARSE).getIterations());
+	}
+	
+	@Test
+	void nothing_is_recorded_when_disabled() {
+		EvaluationMetrics.setEnabled(false);
+		calculator.evaluate("1+2");
+		
+		assertEquals(0, EvaluationMetrics.get(Stage.EVALUATE).getCount());
+	}
+	
+	
+	
+	
+	// Tests for JMX and JFR
+	
+	@Test
+	void metrics_are_published_over_jmx() throws Exception {
+		calculator.evaluate("1+2");
+		ObjectName name = new ObjectName("com.fdmgroup.tdd.Calculator:type=EvaluationMetrics,stage=evaluate");
+		
+		assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Count"));
+	}
+	
+	@Test
+	void stage_events_are_recorded_by_jfr() throws Exception {
+		Path file = Files.createTempFile("calculator", ".jfr");
+		
+		try ( Recording recording = new Recording() ) {
+			recording.enable("com.fdmgroup.tdd.Calculator.Stage");
+			recording.start();
+			calculator.evaluate("((1+2))*3");
+			recording.stop();
+			recording.dump(file);
+			
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+			RecordedEvent parse = events.stream().filter(e -> e.getString("stage").equals("PARSE")).findFirst().get();
+			
+			assertEquals(9, parse.getInt("expressionLength"));
+			assertEquals(2, parse.getInt("nestingDepth"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+}
@@ -0,0 +1,319 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class EvaluationProcessorTest {
+	
+	Calculator calculator = new Calculator();
+	ExecutorService executor = Executors.newFixedThreadPool(4);
+	
+	@AfterEach
+	void stop() {
+		executor.shutdownNow();
+	}
+	
+	// Stands in for a message consumer: sends its expressions as they are requested, then completes
+	static class StubConsumer implements Flow.Publisher<String> {
+		
+		final List<String> expressions;
+		final Throwable failure;
+		long requested;
+		int sent;
+		boolean cancelled;
+		boolean emitting;
+		
+		StubConsumer( List<String> expressions, Throwable failure ) {
+			this.expressions = expressions;
+			this.failure = failure;
+		}
+		
+		@Override
+		public void subscribe( Flow.Subscriber<? super String> subscriber ) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request( long n ) {
+					synchronized ( StubConsumer.this ) {
+						requested += n;
+						if ( emitting ) {
+							return;
+						}
+						emitting = true;
+						while ( !cancelled && sent < requested && sent < expressions.size() ) {
+							subscriber.onNext(expressions.get(sent++));
+						}
+						if ( !cancelled && sent == expressions.size() ) {
+							cancelled = true;
+							if ( failure == null ) {
+								subscriber.onComplete();
+							} else {
+								subscriber.onError(failure);
+							}
+						}
+						emitting = false;
+					}
+				}
+				
+				@Override
+				public void cancel() {
+					synchronized ( StubConsumer.this ) {
+						cancelled = true;
+					}
+				}
+			});
+		}
+	}
+	
+	// Collects the results, asking for the given number at a time
+	static class Collector implements Flow.Subscriber<Result> {
+		
+		final long batch;
+		final List<Result> results = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch finished = new CountDownLatch(1);
+		volatile Throwable error;
+		volatile boolean completed;
+		Flow.Subscription subscription;
+		
+		Collector( long batch ) {
+			this.batch = batch;
+		}
+		
+		@Override
+		public void onSubscribe( Flow.Subscription subscription ) {
+			this.subscription = subscription;
+			subscription.request(batch);
+		}
+		
+		@Override
+		public void onNext( Result result ) {
+			results.add(result);
+			if ( results.size() % batch == 0 ) {
+				subscription.request(batch);
+			}
+		}
+		
+		@Override
+		public void onError( Throwable throwable ) {
+			error = throwable;
+			finished.countDown();
+		}
+		
+		@Override
+		public void onComplete() {
+			completed = true;
+			finished.countDown();
+		}
+		
+		void await() throws InterruptedException {
+			assertTrue(finished.await(10, TimeUnit.SECONDS));
+		}
+	}
+	
+	List<String> expressions( int count ) {
+		List<String> expressions = new ArrayList<>();
+		for ( int i = 0; i < count; i++ ) {
+			expressions.add(i + "*2");
+		}
+		return expressions;
+	}
+	
+	// Tests for publishing results
+	
+	@Test
+	void ordered_results_keep_input_order() throws InterruptedException {
+		EvaluationProcessor processor = new EvaluationProcessor(calculator, executor, 16, true);
+		Collector collector = new Collector(7);
+		
+		new StubConsumer(expressions(1000), null).subscribe(processor);
+		processor.subscribe(collector);
+		collector.await();
+		
+		assertTrue(collector.completed);
+		assertEquals(1000, collector.results.size());
+		for ( int i = 0; i < 1000; i++ ) {
+			assertEquals(i * 2, collector.results.get(i).getValue());
+		}
+	}
+	
+	@Test
+	void unordered_results_contain_every_expression() throws InterruptedException {
+		EvaluationProcessor processor = new EvaluationProcessor(calculator, executor, 16, false);
+		Collector collector = new Collector(Long.MAX_VALUE);
+		
+		processor.subscribe(collector);
+		new StubConsumer(expressions(1000), null).subscribe(processor);
+		collector.await();
+		
+		List<Double> values = collector.results.stream().map(Result::getValue).sorted().collect(Collectors.toList());
+		assertEquals(1000, values.size());
+		for ( int i = 0; i < 1000; i++ ) {
+			assertEquals(i * 2, values.get(i));
+		}
+	}
+	
+	@Test
+	void failures_are_reported_per_item() throws InterruptedException {
+		EvaluationProcessor processor = new EvaluationProcessor(calculator, executor, 4, true);
+		Collector collector = new Collector(1);
+		
+		new StubConsumer(List.of("1+1", "1+*1", "1/0", "2^3"), null).subscribe(processor);
+		processor.subscribe(collector);
+		collector.await();
+		
+		assertTrue(collector.completed);
+		assertEquals(2, collector.results.get(0).getValue());
+		assertEquals("Invalid argument detected.", collector.results.get(1).getError().getMessage());
+		assertEquals("Dividing by zero. Not a valid operation.", collector.results.get(2).getError().getMessage());
+		assertEquals(8, collector.results.get(3).getValue());
+	}
+	
+	@Test
+	void rejected_evaluations_are_reported_per_item() throws InterruptedException {
+		executor.shutdown();
+		EvaluationProcessor processor = new EvaluationProcessor(calculator, executor, 4, true);
+		Collector collector = new Collector(10);
+		
+		new StubConsumer(List.of("1+1"), null).subscribe(processor);
+		processor.subscribe(collector);
+		collector.await();
+		
+		assertFalse(collector.results.get(0).isSuccess());
+	}
+	
+	@Test
+	void publisher_error_follows_earlier_results() throws InterruptedException {
+		EvaluationProcessor processor = new EvaluationProcessor(calculator, executor, 4, true);
+		Collector collector = new Collector(10);
+		IllegalStateException failure = new IllegalStateException("Connection lost");
+		
+		new StubConsumer(List.of("1", "2"), failure).subscribe(processor);
+		processor.subscribe(collector);
+		collector.await();
+		
+		assertSame(failure, collector.error);
+		assertEquals(2, collector.results.size());
+	}
+	
+	
+	
+	
+	// Tests for demand
+	
+	@Test
+	void only_requested_results_are_published() throws InterruptedException {
+		EvaluationProcessor processor = new EvaluationProcessor(calculator, executor, 8, true);
+		CountDownLatch received = new CountDownLatch(3);
+		List<Result> results = Collections.synchronizedList(new ArrayList<>());
+		
+		StubConsumer consumer = new StubConsumer(expressions(100), null);
+		consumer.subscribe(processor);
+		processor.subscribe(new Flow.Subscriber<Result>() {
+			@Override
+			public void onSubscribe( Flow.Subscription subscription ) {
+				subscription.request(3);
+			}
+			
+			@Override
+			public void onNext( Result result ) {
+				results.add(result);
+				received.countDown();
+			}
+			
+			@Override
+			public void onError( Throwable throwable ) {
+			}
+			
+			@Override
+			public void onComplete() {
+			}
+		});
+		
+		assertTrue(received.await(10, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		
+		assertEquals(3, results.size());
+		synchronized ( consumer ) {
+			assertEquals(8, consumer.sent);
+		}
+	}
+	
+	@Test
+	void publisher_is_asked_for_no_more_than_the_buffer_holds() throws InterruptedException {
+		EvaluationProcessor processor = new EvaluationProcessor(calculator, executor, 8, false);
+		Collector collector = new Collector(5);
+		StubConsumer consumer = new StubConsumer(expressions(1000), null);
+		
+		consumer.subscribe(processor);
+		processor.subscribe(collector);
+		collector.await();
+		
+		synchronized ( consumer ) {
+			assertTrue(consumer.requested <= 1000 + 8);
+		}
+	}
+	
+	@Test
+	void publisher_sending_more_than_requested_is_cancelled() throws InterruptedException {
+		EvaluationProcessor processor = new EvaluationProcessor(calculator, executor, 4, true);
+		Collector collector = new Collector(Long.MAX_VALUE);
+		boolean[] cancelled = new boolean[1];
+		
+		processor.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request( long n ) {
+			}
+			
+			@Override
+			public void cancel() {
+				cancelled[0] = true;
+			}
+		});
+		for ( String expression : expressions(10) ) {
+			processor.onNext(expression);
+		}
+		processor.onComplete();
+		processor.subscribe(collector);
+		collector.await();
+		
+		assertTrue(cancelled[0]);
+		assertTrue(collector.error instanceof IllegalStateException);
+		assertEquals(List.of(0.0, 2.0, 4.0, 6.0), collector.results.stream().map(Result::getValue).collect(Collectors.toList()));
+	}
+	
+	@Test
+	void non_positive_request_is_an_error() throws InterruptedException {
+		EvaluationProcessor processor = new EvaluationProcessor(calculator, executor, 8, true);
+		Collector collector = new Collector(0);
+		
+		new StubConsumer(expressions(10), null).subscribe(processor);
+		processor.subscribe(collector);
+		collector.await();
+		
+		assertTrue(collector.error instanceof IllegalArgumentException);
+	}
+	
+	@Test
+	void second_subscriber_is_rejected() throws InterruptedException {
+		EvaluationProcessor processor = new EvaluationProcessor(calculator);
+		Collector second = new Collector(1);
+		
+		processor.subscribe(new Collector(1));
+		processor.subscribe(second);
+		second.await();
+		
+		assertTrue(second.error instanceof IllegalStateException);
+	}
+	
+}
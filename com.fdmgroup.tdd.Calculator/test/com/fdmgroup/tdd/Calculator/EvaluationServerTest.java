@@ -0,0 +1,169 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class EvaluationServerTest {
+	
+	EvaluationServer server;
+	
+	@BeforeEach
+	void start() throws IOException {
+		server = new EvaluationServer(new Calculator(), 0, 4);
+		server.start(InetAddress.getLoopbackAddress());
+	}
+	
+	@AfterEach
+	void stop() throws IOException {
+		server.close();
+	}
+	
+	// Sends all lines at once, then reads one answer per line
+	private List<String> send( String... lines ) throws IOException {
+		try ( Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort()) ) {
+			OutputStream output = socket.getOutputStream();
+			output.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			socket.shutdownOutput();
+			
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			List<String> answers = new ArrayList<>();
+			String answer;
+			while ( (answer = reader.readLine()) != null ) {
+				answers.add(answer);
+			}
+			return answers;
+		}
+	}
+	
+	// Tests for the line protocol
+	
+	@Test
+	void answers_each_line() throws IOException {
+		
+		assertEquals(List.of("OK 3.0"), send("1+2"));
+	}
+	
+	@Test
+	void errors_are_answered_per_line() throws IOException {
+		
+		assertEquals(List.of("ERROR Invalid argument detected.", "OK 4.0", "ERROR Dividing by zero. Not a valid operation."),
+				send("1+*1", "2*2", "1/0"));
+	}
+	
+	@Test
+	void pipelined_answers_keep_request_order() throws IOException {
+		String[] lines = new String[1000];
+		for ( int i = 0; i < lines.length; i++ ) {
+			lines[i] = i + "+0.5";
+		}
+		
+		List<String> answers = send(lines);
+		
+		assertEquals(1000, answers.size());
+		for ( int i = 0; i < lines.length; i++ ) {
+			assertEquals("OK " + (i + 0.5), answers.get(i));
+		}
+	}
+	
+	@Test
+	void overlong_lines_are_answered_with_an_error_and_skipped() throws IOException {
+		String endless = "1+".repeat(EvaluationServer.MAX_LINE_LENGTH) + "1";
+		
+		assertEquals(List.of("OK 3.0", "ERROR Line is longer than " + EvaluationServer.MAX_LINE_LENGTH + " characters.", "OK 4.0"),
+				send("1+2", endless, "2*2"));
+	}
+	
+	@Test
+	void carriage_returns_end_lines() throws IOException {
+		
+		assertEquals(List.of("OK 3.0", "OK 4.0", "OK 9.0"), send("1+2\r", "2*2\r3*3"));
+	}
+	
+	@Test
+	void concurrent_clients() {
+		List<CompletableFuture<List<String>>> clients = new ArrayList<>();
+		
+		for ( int i = 0; i < 50; i++ ) {
+			String expression = i + "*2";
+			clients.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return send(expression, expression);
+				} catch ( IOException e ) {
+					throw new RuntimeException(e);
+				}
+			}));
+		}
+		
+		for ( int i = 0; i < 50; i++ ) {
+			String answer = "OK " + (double) (i * 2);
+			assertEquals(List.of(answer, answer), clients.get(i).join());
+		}
+	}
+	
+	@Test
+	void connections_open_at_close_are_still_answered() throws Exception {
+		
+		try ( Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort()) ) {
+			OutputStream output = socket.getOutputStream();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			output.write("1+2\n".getBytes(StandardCharsets.UTF_8));
+			
+			assertEquals("OK 3.0", reader.readLine());
+			
+			server.close();
+			output.write("2*2\n3*3\n".repeat(100).getBytes(StandardCharsets.UTF_8));
+			socket.shutdownOutput();
+			
+			for ( int i = 0; i < 100; i++ ) {
+				assertEquals("OK 4.0", reader.readLine());
+				assertEquals("OK 9.0", reader.readLine());
+			}
+			assertNull(reader.readLine());
+		}
+		
+		assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+		assertThrows(IOException.class, () -> {send("1+1");});
+	}
+	
+	@Test
+	void client_closing_with_answers_pending_leaves_no_threads_behind() throws Exception {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+		byte[] lines = "1+1\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+		
+		// Far more lines than are evaluated at once, sent until the socket is closed
+		Thread sending = new Thread(() -> {
+			try {
+				while ( true ) {
+					socket.getOutputStream().write(lines);
+				}
+			} catch ( IOException e ) {
+				// Closed below
+			}
+		});
+		sending.start();
+		
+		assertEquals('O', socket.getInputStream().read());
+		socket.close();
+		sending.join();
+		server.close();
+		
+		assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+	}
+	
+}
@@ -0,0 +1,81 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileEvaluatorTest {
+	
+	@TempDir
+	Path directory;
+	
+	Calculator calculator = new Calculator();
+	
+	private List<String> evaluate( String content, int window ) throws IOException {
+		Path input = directory.resolve("input.txt");
+		Path output = directory.resolve("output.txt");
+		Files.write(input, content.getBytes(StandardCharsets.US_ASCII));
+		
+		new FileEvaluator(calculator, window).evaluate(input, output);
+		
+		return Files.readAllLines(output);
+	}
+	
+	// Tests for evaluating files
+	
+	@Test
+	void one_result_per_line() throws IOException {
+		
+		assertEquals(Arrays.asList("3.0", "-4.0", "512.0"), evaluate("1+2\n-2^2\n2^3^2\n", 1024));
+	}
+	
+	@Test
+	void last_line_without_line_break_and_windows_line_endings() throws IOException {
+		
+		assertEquals(Arrays.asList("3.0", "", "6.0"), evaluate("1+2\r\n\r\n(1+2)*2", 1024));
+	}
+	
+	@Test
+	void errors_are_reported_per_line() throws IOException {
+		Path input = directory.resolve("input.txt");
+		Path output = directory.resolve("output.txt");
+		Files.write(input, "1+*1\n4/2\n1/0\n(1+2\n".getBytes(StandardCharsets.US_ASCII));
+		
+		FileEvaluator.Summary summary = new FileEvaluator(calculator).evaluate(input, output);
+		
+		assertEquals(4, summary.getLines());
+		assertEquals(3, summary.getErrors());
+		assertEquals(Arrays.asList("ERROR: Invalid argument detected.", "2.0", "ERROR: Dividing by zero. Not a valid operation.",
+				"ERROR: Unbalanced parentheses at position 4."), Files.readAllLines(output));
+	}
+	
+	@Test
+	void lines_spanning_mapped_windows() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for ( int i = 0; i < 1000; i++ ) {
+			content.append(i).append("*2+1\n");
+		}
+		
+		List<String> results = evaluate(content.toString(), 16);
+		
+		assertEquals(1000, results.size());
+		for ( int i = 0; i < 1000; i++ ) {
+			assertEquals(Double.toString(i * 2 + 1), results.get(i));
+		}
+	}
+	
+	@Test
+	void line_longer_than_window() {
+		
+		assertThrows(IOException.class, () -> {evaluate("1+2+3+4+5+6+7+8+9\n1\n", 8);});
+	}
+	
+}
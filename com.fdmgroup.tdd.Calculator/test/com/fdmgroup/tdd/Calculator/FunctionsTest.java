@@ -0,0 +1,187 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fdmgroup.tdd.Calculator.ExpressionSyntaxException.Kind;
+
+class FunctionsTest {
+
+	Calculator calculator = new Calculator();
+
+	void assertSyntaxError( Kind kind, int position, String expression ) {
+		ExpressionSyntaxException e = assertThrows(ExpressionSyntaxException.class, () -> {calculator.evaluate(expression);});
+
+		assertEquals(kind, e.getKind(), expression);
+		assertEquals(position, e.getPosition(), expression);
+	}
+
+	// Tests for built-in functions
+
+	@Test
+	void built_in_functions_match_math() {
+
+		assertEquals(4, calculator.evaluate("sqrt(16)"));
+		assertEquals(Math.log(Math.exp(2)), calculator.evaluate("ln(exp(2))"));
+		assertEquals(Math.atan2(1, 1), calculator.evaluate("atan2(1, 1)"));
+		assertEquals(5, calculator.evaluate("hypot(3, 4)"));
+		assertEquals(Math.sin(0.5) * Math.cos(0.5), calculator.evaluate("sin(0.5)*cos(0.5)"));
+		assertEquals(2, calculator.evaluate("abs(-2)"));
+		assertEquals(-3, calculator.evaluate("floor(-2.5)"));
+	}
+
+	@Test
+	void arguments_are_whole_expressions() {
+
+		assertEquals(3, calculator.evaluate("max(1, -2+5)"));
+		assertEquals(3, calculator.evaluate("max(min(1, 2), sqrt(3^2))"));
+		assertEquals(7, calculator.evaluate("1 + 2*max((1), 3)"));
+	}
+
+	@Test
+	void negative_sign_applies_to_power_of_call() {
+
+		assertEquals(-4, calculator.evaluate("-sqrt(4)^2"));
+		assertEquals(0.5, calculator.evaluate("2^-abs(-1)"));
+	}
+
+	@Test
+	void calls_with_variables() {
+		CompiledExpression compiled = calculator.compile("2*sqrt(x) + max(x, y)");
+
+		assertEquals(2 * 3 + 9, compiled.evaluate(compiled.newBindings().set("x", 9).set("y", 4)));
+	}
+
+	@Test
+	void square_root_exponent_is_exact_square_root() {
+
+		assertEquals(Math.sqrt(2), calculator.power(2, 0.5));
+		assertEquals(Math.sqrt(2), calculator.evaluate("2^0.5"));
+		assertEquals(Math.sqrt(2) * 2, calculator.evaluate("2^1.5"));
+	}
+
+	@Test
+	void square_root_exponent_of_zero_or_negative_base_is_like_other_fractions() {
+		IllegalArgumentException half = assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("0^0.5");});
+		IllegalArgumentException quarter = assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("0^0.25");});
+
+		assertEquals(quarter.getMessage(), half.getMessage());
+		assertTrue(Double.isNaN(calculator.evaluate("(-4)^0.5")));
+		assertTrue(Double.isNaN(calculator.evaluate("(-4)^0.25")));
+	}
+
+
+
+
+	// Tests for invalid calls
+
+	@Test
+	void unknown_function_is_rejected() {
+
+		assertSyntaxError(Kind.UNKNOWN_FUNCTION, 2, "1+foo(2)");
+	}
+
+	@Test
+	void wrong_number_of_arguments_is_rejected() {
+
+		assertSyntaxError(Kind.WRONG_ARGUMENT_COUNT, 0, "sqrt(1, 2)");
+		assertSyntaxError(Kind.WRONG_ARGUMENT_COUNT, 4, "1 + max(1)");
+	}
+
+	@Test
+	void misplaced_commas_are_rejected() {
+
+		assertSyntaxError(Kind.UNEXPECTED_CHARACTER, 1, "1,2");
+		assertSyntaxError(Kind.UNEXPECTED_CHARACTER, 9, "max(1, (2,3))");
+		assertSyntaxError(Kind.MISSING_OPERAND, 6, "max(1,)");
+		assertSyntaxError(Kind.MISSING_OPERAND, 4, "max(,1)");
+		assertSyntaxError(Kind.EMPTY_PARENTHESES, 5, "sqrt()");
+	}
+
+
+
+
+	// Tests for compiled calls
+
+	@Test
+	void constant_calls_are_folded() {
+		CompiledExpression compiled = calculator.compile("sqrt(16)*x");
+
+		assertEquals(3, compiled.getNodeCount());
+		assertEquals(8, compiled.evaluate(compiled.newBindings().set("x", 2)));
+	}
+
+	@Test
+	void repeated_calls_are_made_once() {
+		CompiledExpression compiled = calculator.compile("sin(x)*sin(x)+cos(x)*cos(x)");
+
+		assertEquals(2, compiled.getCollapsedNodeCount());
+		assertEquals(1, compiled.evaluate(compiled.newBindings().set("x", 0.3)), 1e-15);
+	}
+
+	@Test
+	void built_in_calls_compile_to_bytecode() {
+		CompiledExpression compiled = calculator.compile("sqrt(x)+max(x, y)*hypot(x, 2)");
+		ExpressionFunction function = compiled.toFunction();
+
+		assertTrue(function.getClass().getName().contains("GeneratedExpression"));
+		assertEquals(compiled.evaluate(compiled.newBindings().set("x", 2).set("y", 5)), function.eval(new double[] {2, 5}));
+	}
+
+
+
+
+	// Tests for functions of a FunctionProvider
+
+	@Test
+	void provided_function_is_called() {
+
+		assertEquals(2, calculator.evaluate("clamp(5, 0, 2)"));
+		assertEquals(1.5, calculator.evaluate("clamp(1.5, 0, 2)"));
+	}
+
+	@Test
+	void provided_function_cannot_replace_built_in() {
+
+		assertEquals(3, calculator.evaluate("sqrt(9)"));
+	}
+
+	@Test
+	void provided_function_without_arguments_is_skipped() {
+
+		assertSyntaxError(Kind.UNKNOWN_FUNCTION, 0, "constant(1)");
+		assertEquals(2, calculator.evaluate("clamp(5, 0, 2)"));
+	}
+
+	@Test
+	void failing_provider_is_skipped() {
+		FunctionProvider failing = () -> {throw new IllegalStateException();};
+		Map<String, MathFunction> functions = Functions.load(List.of(failing, new TestFunctionProvider()));
+
+		assertNotNull(functions.get("clamp"));
+		assertNull(functions.get("constant"));
+		assertSame(BuiltInFunction.SQRT, functions.get("sqrt"));
+	}
+
+	@Test
+	void provided_function_is_interpreted_when_compiled() {
+		CompiledExpression compiled = calculator.compile("clamp(x, 0, 1) + clamp(x, 0, 1)");
+		ExpressionFunction function = compiled.toFunction();
+
+		assertFalse(function.getClass().getName().contains("GeneratedExpression"));
+		assertEquals(1, function.eval(new double[] {0.5}));
+		assertEquals(2, compiled.evaluate(compiled.newBindings().set("x", 7)));
+	}
+
+	@Test
+	void calls_are_canonical_cache_keys() {
+
+		assertEquals("max(1,2)-sqrt(4)", Canonicalizer.canonicalize(" max( 1 , +2 ) - sqrt (4)"));
+		assertEquals(0, new CachingCalculator(10).evaluate(" max( 1 , +2 ) - sqrt (4)"));
+	}
+
+}
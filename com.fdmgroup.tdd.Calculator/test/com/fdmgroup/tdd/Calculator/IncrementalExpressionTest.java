@@ -0,0 +1,144 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.fdmgroup.tdd.Calculator.EvaluationMetrics.Stage;
+
+class IncrementalExpressionTest {
+	
+	Calculator calculator = new Calculator();
+	
+	// Evaluates the text the same way evaluate(String) does, recording the error message instead of throwing
+	String expected( String expression ) {
+		try {
+			return Double.toString(calculator.evaluate(expression));
+		} catch ( IllegalArgumentException e ) {
+			return e.getMessage();
+		}
+	}
+	
+	String actual( IncrementalExpression expression ) {
+		try {
+			return Double.toString(expression.evaluate());
+		} catch ( IllegalArgumentException e ) {
+			return e.getMessage();
+		}
+	}
+	
+	// Tests for editing
+	
+	@Test
+	void edit_inside_group() {
+		IncrementalExpression expression = calculator.incremental("2*(3+4)");
+		
+		assertEquals(14, expression.evaluate());
+		assertEquals(86, expression.edit(5, 1, "40").evaluate());
+		assertEquals("2*(3+40)", expression.getExpression());
+	}
+	
+	@Test
+	void edit_outside_groups() {
+		IncrementalExpression expression = calculator.incremental("(1+2)*(3+4)");
+		
+		assertEquals(21, expression.evaluate());
+		assertEquals(10, expression.edit(5, 1, "+").evaluate());
+		assertEquals(12, expression.edit(5, 1, "+2+").evaluate());
+	}
+	
+	@Test
+	void edit_adding_parentheses() {
+		IncrementalExpression expression = calculator.incremental("1+2*3");
+		
+		assertEquals(7, expression.evaluate());
+		assertEquals(9, expression.edit(0, 0, "(").edit(4, 0, ")").evaluate());
+	}
+	
+	@Test
+	void edit_through_invalid_text() {
+		IncrementalExpression expression = calculator.incremental("");
+		
+		assertThrows(IllegalArgumentException.class, () -> {expression.evaluate();});
+		expression.edit(0, 0, "(");
+		assertThrows(IllegalArgumentException.class, () -> {expression.evaluate();});
+		expression.edit(1, 0, "2/");
+		assertThrows(IllegalArgumentException.class, () -> {expression.evaluate();});
+		expression.edit(3, 0, "0)");
+		assertThrows(IllegalArgumentException.class, () -> {expression.evaluate();});
+		assertEquals(0.5, expression.edit(3, 1, "4").evaluate());
+	}
+	
+	@Test
+	void edit_outside_expression() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.incremental("1+2").edit(2, 2, "");});
+	}
+	
+	@Test
+	void random_edits_match_evaluate() {
+		Random random = new Random(42);
+		String alphabet = "0123456789+-*/^(). e";
+		IncrementalExpression expression = calculator.incremental("(1+2)*((3-4)/(5^2))+9007199254740993-(1)");
+		
+		for ( int i = 0; i < 5000; i++ ) {
+			String text = expression.getExpression();
+			int offset = random.nextInt(text.length() + 1);
+			int removed = random.nextInt(Math.min(3, text.length() - offset) + 1);
+			String inserted = random.nextInt(3) == 0 ? "" : String.valueOf(alphabet.charAt(random.nextInt(alphabet.length())));
+			
+			// Keep the expression from growing or shrinking away
+			if ( text.length() > 60 ) {
+				inserted = "";
+			} else if ( text.length() < 10 ) {
+				removed = 0;
+			}
+			
+			expression.edit(offset, removed, inserted);
+			assertEquals(expected(expression.getExpression()), actual(expression), expression.getExpression());
+		}
+	}
+	
+	
+	
+	
+	// Tests for reuse
+	
+	@Test
+	void only_edited_group_is_parsed_again() {
+		String group = "(1+2+3+4+5+6+7+8+9)";
+		IncrementalExpression expression = calculator.incremental(group + "*" + group + "*(1+1)");
+		expression.evaluate();
+		
+		EvaluationMetrics.setEnabled(true);
+		EvaluationMetrics.reset();
+		try {
+			expression.edit(group.length() * 2 + 5, 1, "2");
+			
+			assertEquals(45 * 45 * 3, expression.evaluate());
+			assertEquals(1, EvaluationMetrics.get(Stage.PARSE).getCount());
+			assertEquals(3, EvaluationMetrics.get(Stage.PARSE).getCharacters());
+		} finally {
+			EvaluationMetrics.setEnabled(false);
+			EvaluationMetrics.reset();
+		}
+	}
+	
+	@Test
+	void deep_nesting_is_edited() {
+		int depth = 100_000;
+		IncrementalExpression expression = calculator.incremental("(".repeat(depth) + "1" + ")".repeat(depth));
+		
+		assertEquals(1, expression.evaluate());
+		assertEquals(2, expression.edit(depth, 1, "2").evaluate());
+	}
+	
+	@Test
+	void exact_integers_cross_groups() {
+		
+		assertEquals(1, calculator.incremental("(9007199254740993)-(9007199254740992)").evaluate());
+	}
+	
+}
@@ -0,0 +1,128 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class OptimizerTest {
+	
+	Calculator calculator = new Calculator();
+	
+	// Evaluates the compiled expression with x bound to the given value
+	double evaluate( String expression, double x ) {
+		CompiledExpression compiled = calculator.compile(expression);
+		return compiled.evaluate(compiled.newBindings().set("x", x));
+	}
+	
+	// Tests for constant folding
+	
+	@Test
+	void constant_expression_folds_to_one_number() {
+		CompiledExpression compiled = calculator.compile("((1+3)+4*6+(7*8)-(4-(8*3)))*8");
+		
+		assertEquals(1, compiled.getNodeCount());
+		assertEquals(19, compiled.getOriginalNodeCount());
+		assertEquals(832, compiled.evaluate());
+	}
+	
+	@Test
+	void constant_subtree_folds_next_to_variable() {
+		CompiledExpression compiled = calculator.compile("(2*3)*x");
+		
+		assertEquals(3, compiled.getNodeCount());
+		assertEquals(42, compiled.evaluate(compiled.newBindings().set("x", 7)));
+	}
+	
+	@Test
+	void negated_constant_folds() {
+		
+		assertEquals(1, calculator.compile("-(2^2)").getNodeCount());
+		assertEquals(-4, calculator.compile("-2^2").evaluate());
+	}
+	
+	@Test
+	void zero_raised_to_computed_zero_rejected_at_compile_time() {
+		
+		assertThrows(IllegalArgumentException.class, () -> {calculator.compile("x+(1-1)^(2-2)");});
+	}
+	
+	
+	
+	
+	// Tests for identities
+	
+	@Test
+	void identities_are_removed() {
+		
+		for ( String expression : new String[] {"x*1", "1*x", "x/1", "x^1", "x-0", "((x))*(2-1)"} ) {
+			assertEquals(1, calculator.compile(expression).getNodeCount(), expression);
+			assertEquals(2.5, evaluate(expression, 2.5), expression);
+		}
+	}
+	
+	@Test
+	void identities_keep_special_values() {
+		
+		for ( String expression : new String[] {"x*1", "1*x", "x/1", "x^1", "x-0"} ) {
+			assertEquals(Double.NaN, evaluate(expression, Double.NaN), expression);
+			assertEquals(Double.NEGATIVE_INFINITY, evaluate(expression, Double.NEGATIVE_INFINITY), expression);
+			assertEquals(-0.0, evaluate(expression, -0.0), expression);
+		}
+	}
+	
+	@Test
+	void adding_zero_is_kept() {
+		
+		// -0 + 0 is +0, so "x+0" is not the same as "x"
+		assertEquals(3, calculator.compile("x+0").getNodeCount());
+		assertEquals(0.0, evaluate("x+0", -0.0));
+		assertEquals(0.0, evaluate("0+x", -0.0));
+	}
+	
+	@Test
+	void multiplying_by_zero_is_kept() {
+		
+		assertEquals(Double.NaN, evaluate("x*0", Double.POSITIVE_INFINITY));
+	}
+	
+	
+	
+	
+	// Tests for combining constant factors
+	
+	@Test
+	void powers_of_two_are_combined() {
+		CompiledExpression compiled = calculator.compile("x*2*4*8");
+		
+		assertEquals(3, compiled.getNodeCount());
+		assertEquals(64 * 1.5, compiled.evaluate(compiled.newBindings().set("x", 1.5)));
+	}
+	
+	@Test
+	void constant_before_variable_is_combined() {
+		
+		assertEquals(3, calculator.compile("2*x*4").getNodeCount());
+		assertEquals(8 * 1e308, evaluate("2*x*4", 1e308));
+	}
+	
+	@Test
+	void other_factors_are_not_combined() {
+		
+		// (x*0.1)*3 and x*0.3 round differently
+		assertEquals(5, calculator.compile("x*0.1*3").getNodeCount());
+		assertEquals(3 * 0.1 * 3, evaluate("x*0.1*3", 3));
+		assertEquals(5, calculator.compile("x*0.5*4").getNodeCount());
+	}
+	
+	@Test
+	void optimized_expressions_match_evaluate() {
+		
+		for ( String expression : new String[] {"2*(3+x*1)^2/1", "-x^1*4*2", "(x-0)*(1*x)-2^3*x", "x^2^1*16*0.5"} ) {
+			for ( double x : new double[] {-3, -0.5, 0, 1.25, 7} ) {
+				String substituted = expression.replace("x", "(" + x + ")");
+				assertEquals(calculator.evaluate(substituted), evaluate(expression, x), substituted);
+			}
+		}
+	}
+	
+}
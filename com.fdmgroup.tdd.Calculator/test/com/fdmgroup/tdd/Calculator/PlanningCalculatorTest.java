@@ -0,0 +1,136 @@
+package com.fdmgroup.tdd.Calculator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.fdmgroup.tdd.Calculator.ExecutionPlan.Strategy;
+
+class PlanningCalculatorTest {
+	
+	PlanningCalculator calculator = new PlanningCalculator(100);
+	
+	// Tests for choosing a strategy
+	
+	@Test
+	void one_off_expression_is_interpreted() {
+		
+		assertEquals(Strategy.INTERPRET, calculator.explain("2+3").getStrategy());
+		assertEquals(5, calculator.evaluate("2+3"));
+		assertEquals(0, calculator.getCache().size());
+		assertEquals(1, calculator.getPlannedCount(Strategy.INTERPRET));
+	}
+	
+	@Test
+	void repeated_expression_is_cached() {
+		
+		for ( int i = 0; i < 10; i++ ) {
+			assertEquals(7, calculator.evaluate("1 + 2*3"));
+		}
+		
+		assertEquals(Strategy.CACHE, calculator.explain("1 + 2*3").getStrategy());
+		assertTrue(calculator.getPlannedCount(Strategy.CACHE) > 0);
+		assertTrue(calculator.getCache().getHitCount() > 0);
+		assertEquals(1, calculator.getCache().getMissCount());
+	}
+	
+	@Test
+	void caching_pays_off_after_a_few_repeats() {
+		int repeats = 0;
+		
+		while ( calculator.explain("2+3").getStrategy() == Strategy.INTERPRET ) {
+			calculator.evaluate("2+3");
+			repeats++;
+		}
+		
+		assertTrue(repeats >= 1 && repeats < 10, "cached after " + repeats);
+	}
+	
+	@Test
+	void explain_does_not_count_the_expression() {
+		
+		for ( int i = 0; i < 10; i++ ) {
+			calculator.explain("4*5");
+		}
+		
+		assertEquals(1, calculator.explain("4*5").getFrequency());
+		assertEquals(Strategy.INTERPRET, calculator.explain("4*5").getStrategy());
+	}
+	
+	@Test
+	void errors_are_the_same_with_every_strategy() {
+		
+		for ( int i = 0; i < 10; i++ ) {
+			IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> {calculator.evaluate("1/0");});
+			assertEquals("Dividing by zero. Not a valid operation.", e.getMessage());
+		}
+	}
+	
+	
+	
+	
+	// Tests for compiling
+	
+	@Test
+	void one_off_compile_is_not_cached() {
+		CompiledExpression compiled = calculator.compile("x*2");
+		
+		assertEquals(0, calculator.getCache().size());
+		assertEquals(1, calculator.getPlannedCount(Strategy.COMPILE));
+		assertEquals(6, compiled.evaluate(compiled.newBindings().set("x", 3)));
+	}
+	
+	@Test
+	void repeated_compile_is_shared() {
+		calculator.compile("x*2");
+		CompiledExpression second = calculator.compile("x*2");
+		
+		assertSame(second, calculator.compile("x*2"));
+		assertEquals(2, calculator.getPlannedCount(Strategy.CACHE));
+	}
+	
+	
+	
+	
+	// Tests for cost estimates
+	
+	@Test
+	void features_of_the_expression_are_counted() {
+		ExecutionPlan plan = calculator.explain("2^10 + 2^0.5 + 2^0.3 + (2^(1/3))");
+		
+		assertEquals(2, plan.getPowers());
+		assertEquals(2, plan.getRoots());
+		assertEquals(2, plan.getDepth());
+		assertEquals(21, plan.getTokens());
+	}
+	
+	@Test
+	void only_whole_exponents_and_one_half_are_counted_as_powers() {
+		
+		for ( String power : new String[] {"2^3", "2^3.0", "2^0.5", "2^-0.5", "2^-2", "2^1e2", "2^5E-1", "2^x"} ) {
+			assertEquals(1, calculator.explain(power).getPowers(), power);
+			assertEquals(0, calculator.explain(power).getRoots(), power);
+		}
+		
+		for ( String root : new String[] {"2^1.5", "2^2.5", "2^-0.25", "2^1e-1", "2^25e-2", "2^.3"} ) {
+			assertEquals(0, calculator.explain(root).getPowers(), root);
+			assertEquals(1, calculator.explain(root).getRoots(), root);
+		}
+	}
+	
+	@Test
+	void roots_cost_more_than_powers() {
+		
+		assertTrue(calculator.explain("2^0.3").getInterpretCost() > calculator.explain("2^3").getInterpretCost());
+		assertTrue(calculator.explain("1+2+3+4+5").getInterpretCost() > calculator.explain("1+2").getInterpretCost());
+	}
+	
+	@Test
+	void plan_describes_itself() {
+		String description = calculator.explain("2+3").toString();
+		
+		assertTrue(description.startsWith("INTERPRET"), description);
+		assertTrue(description.contains("seen 1 times"), description);
+	}
+	
+}
@@ -0,0 +1,70 @@
+package com.fdmgroup.tdd.Calculator;
+
+import java.util.List;
+
+// Domain functions for the tests, listed in META-INF/services
+public class TestFunctionProvider implements FunctionProvider {
+
+	@Override
+	public List<MathFunction> getFunctions() {
+		return List.of(new Clamp(), new Shadow(), new Constant());
+	}
+	
+	// clamp(x, low, high)
+	static final class Clamp implements MathFunction {
+		
+		@Override
+		public String getName() {
+			return "clamp";
+		}
+		
+		@Override
+		public int getArity() {
+			return 3;
+		}
+		
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return Math.max(arguments[offset + 1], Math.min(arguments[offset], arguments[offset + 2]));
+		}
+	}
+	
+	// Named like a built-in, so it is never called
+	static final class Shadow implements MathFunction {
+		
+		@Override
+		public String getName() {
+			return "sqrt";
+		}
+		
+		@Override
+		public int getArity() {
+			return 1;
+		}
+		
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return -1;
+		}
+	}
+	
+	// Takes no arguments, so it is skipped
+	static final class Constant implements MathFunction {
+		
+		@Override
+		public String getName() {
+			return "constant";
+		}
+		
+		@Override
+		public int getArity() {
+			return 0;
+		}
+		
+		@Override
+		public double apply( double[] arguments, int offset ) {
+			return 1;
+		}
+	}
+	
+}